@@ -3,6 +3,7 @@ sleep :: (millis: I32);
 open_server :: (text: I32) I32;
 accept_client :: (fd: I32) I32;
 connect_server :: (host: UTF8, port: I32) I32;
+RecvResult :: struct {length: I32, success: bool};
 send :: (socket: I32, data: []i8, length: I32) bool;
 recv :: (socket: I32, data: []i8) RecvResult;
 close :: (socket: I32);
@@ -26,14 +27,14 @@ handle_client :: (client: Client) {
           {length, success};
         }
         {stop = $stop; {0, false};}
-        {sleep(30000); {0, false};}
+        {sleep(I32.30000); {0, false};}
       }
       if !success break;
       // Write socket
       select {
         -> send(sender, data, length);
         -> stop = $stop;
-        {sleep(30000); stop = true;}
+        {sleep(I32.30000); stop = true;}
       }
       if stop break;
     }
@@ -54,9 +55,9 @@ for {
   print("Client connected");
   spawn {
     print("Handling client");
-    backend_socket :: connect_server("localhost", 25565);
+    backend_socket :: connect_server("localhost", I32.25565);
     client :: Client {id, client_socket, backend_socket};
-    handle_client(client);
+    join { handle_client(client); }
     print("Client disconnected");
     close(client_socket);
     close(backend_socket);
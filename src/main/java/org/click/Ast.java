@@ -4,6 +4,7 @@ import org.click.value.LiteralValue;
 import org.click.value.Value;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -26,7 +27,10 @@ public interface Ast {
         record Enum(@Nullable Type type, Map<String, Expression> entries) implements Expression {
         }
 
-        record Variable(String name) implements Expression {
+        record Variable(String name, int depth, int slot) implements Expression {
+            public Variable(String name) {
+                this(name, -1, -1);
+            }
         }
 
         record Contextual() implements Expression {
@@ -39,10 +43,16 @@ public interface Ast {
                           Expression expression) implements Expression {
         }
 
-        record VariableAwait(String name) implements Expression {
+        record VariableAwait(String name, int depth, int slot) implements Expression {
+            public VariableAwait(String name) {
+                this(name, -1, -1);
+            }
         }
 
-        record Call(String name, Parameter.Passed arguments) implements Expression {
+        record Call(String name, Parameter.Passed arguments, int depth, int slot) implements Expression {
+            public Call(String name, Parameter.Passed arguments) {
+                this(name, arguments, -1, -1);
+            }
         }
 
         record Select(List<Statement.Block> blocks) implements Expression {
@@ -66,11 +76,18 @@ public interface Ast {
 
     sealed interface Statement {
         record Declare(List<String> names, DeclarationType declarationType, Expression initializer,
-                       @Nullable org.click.Type explicitType) implements Statement {
+                       @Nullable org.click.Type explicitType, int slot) implements Statement {
+            public Declare(List<String> names, DeclarationType declarationType, Expression initializer,
+                           @Nullable org.click.Type explicitType) {
+                this(names, declarationType, initializer, explicitType, -1);
+            }
         }
 
         record Assign(List<Statement.Assign.Target> targets, Expression expression) implements Statement {
-            public record Target(String name, List<AccessPoint> accessPoints) {
+            public record Target(String name, List<AccessPoint> accessPoints, int depth, int slot) {
+                public Target(String name, List<AccessPoint> accessPoints) {
+                    this(name, accessPoints, -1, -1);
+                }
             }
         }
 
@@ -82,7 +99,11 @@ public interface Ast {
         }
 
         record Loop(List<Statement.Loop.Declaration> declarations, Expression iterable,
-                    Statement body) implements Statement {
+                    Statement body, @Nullable Scope scope) implements Statement {
+            public Loop(List<Statement.Loop.Declaration> declarations, Expression iterable, Statement body) {
+                this(declarations, iterable, body, null);
+            }
+
             public record Declaration(boolean ref, String name) {
             }
         }
@@ -96,16 +117,62 @@ public interface Ast {
         record Join(Statement.Block block) implements Statement {
         }
 
-        record Spawn(Statement statement) implements Statement {
+        record Spawn(Statement statement, @Nullable Scope scope) implements Statement {
+            public Spawn(Statement statement) {
+                this(statement, null);
+            }
         }
 
-        record Block(List<Statement> statements) implements Statement {
+        record Block(List<Statement> statements, @Nullable Scope scope) implements Statement {
+            public Block(List<Statement> statements) {
+                this(statements, null);
+            }
         }
 
         record Return(@Nullable Expression expression) implements Statement {
         }
 
-        record LoadLibrary(String path) implements Statement {
+        record LoadLibrary(String path, List<Statement> statements) implements Statement {
+            public LoadLibrary(String path) {
+                this(path, List.of());
+            }
+        }
+    }
+
+    /**
+     * Variables declared by a block, indexed by their slot in the runtime frame.
+     * <p>
+     * Computed by {@link Resolver}, with the absolute depth of the frame or -1 when unknown.
+     */
+    record Scope(List<String> names, Map<String, Integer> slots, int depth) {
+        public static final Scope EMPTY = new Scope(List.of());
+
+        public Scope(List<String> names) {
+            this(names, -1);
+        }
+
+        public Scope(List<String> names, int depth) {
+            this(names, indexNames(names), depth);
+        }
+
+        public Scope {
+            names = List.copyOf(names);
+            slots = Map.copyOf(slots);
+        }
+
+        public int size() {
+            return names.size();
+        }
+
+        public int slot(String name) {
+            final Integer slot = slots.get(name);
+            return slot != null ? slot : -1;
+        }
+
+        private static Map<String, Integer> indexNames(List<String> names) {
+            Map<String, Integer> slots = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) slots.put(names.get(i), i);
+            return slots;
         }
     }
 
@@ -2,19 +2,84 @@ package org.click;
 
 import org.click.value.LiteralValue;
 
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.charset.StandardCharsets;
 
 public interface BinStandard {
+    String name();
+
     MemorySegment serialize(LiteralValue literal);
 
     String asString(MemorySegment segment);
 
     MemorySegment operate(MemorySegment left, MemorySegment right, Token.Type operator);
 
+    /**
+     * Returns the size in bytes of the integers of fixed-width standards, or -1.
+     */
+    default int width() {
+        return -1;
+    }
+
+    /**
+     * Returns the bits of a fixed-width integer, sign-extended.
+     */
+    default long read(MemorySegment segment) {
+        return switch (width()) {
+            case 1 -> segment.get(ValueLayout.JAVA_BYTE, 0);
+            case 4 -> segment.get(ValueLayout.JAVA_INT_UNALIGNED, 0);
+            case 8 -> segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+            default -> throw new UnsupportedOperationException("Not a fixed-width standard: " + name());
+        };
+    }
+
+    /**
+     * Returns a segment holding the bits of a fixed-width integer.
+     */
+    default MemorySegment write(long bits) {
+        return switch (width()) {
+            case 1 -> MemorySegment.ofArray(new byte[]{(byte) bits});
+            case 4 -> MemorySegment.ofArray(new int[]{(int) bits});
+            case 8 -> MemorySegment.ofArray(new long[]{bits});
+            default -> throw new UnsupportedOperationException("Not a fixed-width standard: " + name());
+        };
+    }
+
+    /**
+     * Truncates bits to the width of the standard, sign-extended back to a long.
+     */
+    default long wrap(long bits) {
+        return switch (width()) {
+            case 1 -> (byte) bits;
+            case 4 -> (int) bits;
+            default -> bits;
+        };
+    }
+
+    /**
+     * Computes the arithmetic of two fixed-width integers, wrapping around on overflow.
+     */
+    default long arithmetic(long left, long right, Token.Type operator) {
+        final long result = switch (operator) {
+            case PLUS -> left + right;
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case SLASH, MODULO -> {
+                if (right == 0) throw new ArithmeticException("Division by zero");
+                yield operator == Token.Type.SLASH ? left / right : left % right;
+            }
+            default -> throw new IllegalArgumentException("Unsupported " + name() + " operator: " + operator);
+        };
+        return wrap(result);
+    }
+
     BinStandard UTF8 = new BinStandard() {
+        @Override
+        public String name() {
+            return "UTF8";
+        }
+
         @Override
         public MemorySegment serialize(LiteralValue literal) {
             if (!(literal instanceof LiteralValue.Text text))
@@ -35,13 +100,18 @@ public interface BinStandard {
                 throw new IllegalArgumentException("Unsupported string operator: " + operator);
             final long leftSize = left.byteSize();
             final long rightSize = right.byteSize();
-            final MemorySegment segment = Arena.ofAuto().allocate(leftSize + rightSize);
+            final MemorySegment segment = MemorySegment.ofArray(new byte[Math.toIntExact(leftSize + rightSize)]);
             MemorySegment.copy(left, 0, segment, 0, leftSize);
             MemorySegment.copy(right, 0, segment, leftSize, rightSize);
             return segment;
         }
     };
     BinStandard I32 = new BinStandard() {
+        @Override
+        public String name() {
+            return "I32";
+        }
+
         @Override
         public MemorySegment serialize(LiteralValue literal) {
             if (!(literal instanceof LiteralValue.Number number))
@@ -58,10 +128,20 @@ public interface BinStandard {
 
         @Override
         public MemorySegment operate(MemorySegment left, MemorySegment right, Token.Type operator) {
-            throw new UnsupportedOperationException("Not implemented");
+            return write(arithmetic(read(left), read(right), operator));
+        }
+
+        @Override
+        public int width() {
+            return 4;
         }
     };
     BinStandard I64 = new BinStandard() {
+        @Override
+        public String name() {
+            return "I64";
+        }
+
         @Override
         public MemorySegment serialize(LiteralValue literal) {
             if (!(literal instanceof LiteralValue.Number number))
@@ -78,7 +158,43 @@ public interface BinStandard {
 
         @Override
         public MemorySegment operate(MemorySegment left, MemorySegment right, Token.Type operator) {
-            throw new UnsupportedOperationException("Not implemented");
+            return write(arithmetic(read(left), read(right), operator));
+        }
+
+        @Override
+        public int width() {
+            return 8;
+        }
+    };
+
+    BinStandard I8 = new BinStandard() {
+        @Override
+        public String name() {
+            return "I8";
+        }
+
+        @Override
+        public MemorySegment serialize(LiteralValue literal) {
+            if (!(literal instanceof LiteralValue.Number number))
+                throw new IllegalArgumentException("Expected number literal, got: " + literal);
+            final byte num = number.value().byteValue();
+            return MemorySegment.ofArray(new byte[]{num});
+        }
+
+        @Override
+        public String asString(MemorySegment segment) {
+            final byte num = segment.get(ValueLayout.JAVA_BYTE, 0);
+            return String.valueOf(num);
+        }
+
+        @Override
+        public MemorySegment operate(MemorySegment left, MemorySegment right, Token.Type operator) {
+            return write(arithmetic(read(left), read(right), operator));
+        }
+
+        @Override
+        public int width() {
+            return 1;
         }
     };
 
@@ -87,6 +203,7 @@ public interface BinStandard {
             case "UTF8" -> UTF8;
             case "I32" -> I32;
             case "I64" -> I64;
+            case "I8" -> I8;
             default -> throw new IllegalArgumentException("Unknown binary standard: " + name);
         };
     }
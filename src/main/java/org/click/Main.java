@@ -22,13 +22,14 @@ public class Main {
         //System.out.println("Statements:");
         for (var statement : statements) System.out.println(statement);
 
-        interpret(statements);
-        //compile(statements);
+        // The execution mode can be picked by name, such as BYTECODE
+        final VM.Mode mode = args.length > 0 ? VM.Mode.valueOf(args[0]) : VM.Mode.AST;
+        interpret(statements, mode);
     }
 
-    private static void interpret(List<Ast.Statement> statements) {
+    private static void interpret(List<Ast.Statement> statements, VM.Mode mode) {
         var externals = webExternals();
-        var interpreter = new VM(Path.of("samples"), statements, externals);
+        var interpreter = new VM(Path.of("samples"), statements, externals, mode);
         var result = interpreter.interpret("main", List.of());
         //System.out.println("Result: " + result);
         interpreter.stop();
@@ -37,13 +38,18 @@ public class Main {
     private static Map<String, ExternalFunction> proxyExternals() {
         var openServer = new BuiltinEx.OpenServer();
         var acceptClient = new BuiltinEx.AcceptClient(openServer.servers());
-        var connectServer = new BuiltinEx.ConnectServer();
+        // Clients and backends are forwarded to each other, their sockets are numbered together
+        var connectServer = new BuiltinEx.ConnectServer(acceptClient.counter(), acceptClient.sockets());
 
         return Map.of(
                 "print", new BuiltinEx.Printer(),
+                "sleep", new BuiltinEx.Sleep(),
                 "open_server", openServer,
                 "accept_client", acceptClient,
-                "connect_server", connectServer
+                "connect_server", connectServer,
+                "send", new BuiltinEx.Send(acceptClient.sockets()),
+                "recv", new BuiltinEx.Recv(acceptClient.sockets()),
+                "close", new BuiltinEx.Close(acceptClient.sockets())
         );
     }
 
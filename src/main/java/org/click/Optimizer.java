@@ -0,0 +1,838 @@
+package org.click;
+
+import org.click.value.LiteralValue;
+import org.click.value.Value;
+import org.click.value.ValueOperator;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+import static org.click.Ast.*;
+
+/**
+ * Folds the constant subtrees of a resolved program into values, prunes branches on constant conditions and inlines
+ * small functions.
+ * <p>
+ * Folding keeps the casts of the program: operations are only folded when their operands are not converted by the
+ * explicit type, and string literals only once their binary standard is statically known. Expressions that would
+ * fail are left in place to fail at runtime.
+ * <p>
+ * Inlined functions return a single expression of their parameters, without side effects, so that skipping the
+ * call frame cannot be observed. Parameter and return types must be primitive, and the call site must not convert
+ * the operands of the body, see {@link #preserves(Type)}.
+ * <p>
+ * Structs that never escape the block declaring them are replaced by one variable per field, see
+ * {@link #scalarize(List, Scope)}.
+ */
+public final class Optimizer {
+    // Explicit type only known at runtime, such as the type of an assignment
+    private static final Type DYNAMIC = new Type.Primitive("dynamic");
+    // Maximum number of nodes of an inlined body, and of nested inlined calls
+    private static final int INLINE_SIZE = 16;
+    private static final int INLINE_DEPTH = 3;
+
+    /**
+     * Function body substituted into its callers, depth is the number of nested inlined calls including this one.
+     */
+    private record Inline(int parameters, int scopeDepth, Expression body, int depth) {
+    }
+
+    private final Set<String> assigned = new HashSet<>();
+    // Number of declarations of each name, the structs declared as constants, and the names read as values
+    private final Map<String, Integer> declarations = new HashMap<>();
+    private final Map<String, Value.StructDecl> structs = new HashMap<>();
+    private final Set<String> variables = new HashSet<>();
+    // Whether the program declares types converting numbers or booleans, enums and distinct types
+    private boolean converting;
+    // Parameters and inlined bodies of constant functions, indexed by their frame position
+    private final Map<Long, List<Parameter>> functions = new HashMap<>();
+    private final Map<Long, Inline> inlines = new HashMap<>();
+    private final Deque<Integer> depths = new ArrayDeque<>();
+    // Deepest inlined call of the function being optimized
+    private int inlineDepth;
+    private int functionInlineDepth;
+
+    public Statement.Block optimize(Statement.Block program) {
+        collect(program);
+        return (Statement.Block) optimizeStatement(program, DYNAMIC);
+    }
+
+    private List<Statement> optimizeStatements(List<Statement> statements, Type returnType) {
+        List<Statement> optimized = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            final Statement result = optimizeStatement(statement, returnType);
+            // Unreachable branches without alternative are removed
+            if (result instanceof Statement.Branch branch && branch.elseBranch() == null &&
+                    branch.condition() instanceof Expression.Constant(Value.BooleanLiteral(boolean value)) && !value)
+                continue;
+            optimized.add(result);
+        }
+        return List.copyOf(optimized);
+    }
+
+    /**
+     * Optimizes a statement of a function returning the given type, {@link #DYNAMIC} outside functions.
+     */
+    private Statement optimizeStatement(Statement statement, Type returnType) {
+        return switch (statement) {
+            case Statement.Declare declare -> {
+                final Expression initializer = optimizeExpression(declare.initializer(), declare.explicitType());
+                final List<String> names = declare.names();
+                for (int i = 0; i < names.size(); i++) forget(key(declare.slot() + i));
+                if (names.size() == 1 && declare.declarationType() == DeclarationType.CONSTANT &&
+                        !assigned.contains(names.getFirst())) {
+                    final List<Parameter> parameters = switch (initializer) {
+                        case Expression.Constant(Value.FunctionDecl functionDecl) -> functionDecl.parameters();
+                        case Expression.Constant(Value.ExternFunctionDecl externFunctionDecl) ->
+                                externFunctionDecl.parameters();
+                        default -> null;
+                    };
+                    if (parameters != null) functions.put(key(declare.slot()), parameters);
+                    if (initializer instanceof Expression.Constant(Value.FunctionDecl functionDecl)) {
+                        final Inline inline = inline(functionDecl);
+                        if (inline != null) inlines.put(key(declare.slot()), inline);
+                    }
+                }
+                yield new Statement.Declare(names, declare.declarationType(), initializer, declare.explicitType(),
+                        declare.slot());
+            }
+            case Statement.Assign assign -> {
+                List<Statement.Assign.Target> targets = new ArrayList<>();
+                for (Statement.Assign.Target target : assign.targets()) {
+                    targets.add(new Statement.Assign.Target(target.name(), optimizeAccessPoints(target.accessPoints()),
+                            target.depth(), target.slot()));
+                }
+                yield new Statement.Assign(targets, optimizeExpression(assign.expression(), DYNAMIC));
+            }
+            case Statement.Run run -> new Statement.Run(optimizeExpression(run.expression(), null));
+            case Statement.Branch branch -> {
+                final Expression condition = optimizeExpression(branch.condition(), null);
+                final Statement thenBranch = optimizeStatement(branch.thenBranch(), returnType);
+                final Statement elseBranch = branch.elseBranch() != null ?
+                        optimizeStatement(branch.elseBranch(), returnType) : null;
+                if (condition instanceof Expression.Constant(Value.BooleanLiteral(boolean value))) {
+                    if (value) yield thenBranch;
+                    if (elseBranch != null) yield elseBranch;
+                }
+                yield new Statement.Branch(condition, thenBranch, elseBranch);
+            }
+            case Statement.Loop loop -> {
+                final Expression iterable = loop.iterable() != null ? optimizeExpression(loop.iterable(), null) : null;
+                enter(loop.scope());
+                if (loop.declarations() != null) {
+                    for (int i = 0; i < loop.declarations().size(); i++) forget(key(i));
+                }
+                final Statement body = optimizeStatement(loop.body(), returnType);
+                depths.pop();
+                yield new Statement.Loop(loop.declarations(), iterable, body, loop.scope());
+            }
+            case Statement.Break ignored -> statement;
+            case Statement.Continue ignored -> statement;
+            case Statement.Join join -> new Statement.Join((Statement.Block) optimizeStatement(join.block(), returnType));
+            case Statement.Spawn spawn -> {
+                enter(spawn.scope());
+                final Statement inner = optimizeStatement(spawn.statement(), returnType);
+                depths.pop();
+                yield new Statement.Spawn(inner, spawn.scope());
+            }
+            case Statement.Block block -> {
+                enter(block.scope());
+                final List<Statement> statements = optimizeStatements(block.statements(), returnType);
+                depths.pop();
+                final Scalarized scalarized = scalarize(statements, block.scope());
+                yield new Statement.Block(scalarized.statements(), scalarized.scope());
+            }
+            case Statement.Return returnStatement -> {
+                final Expression expression = returnStatement.expression();
+                yield new Statement.Return(expression != null ? optimizeExpression(expression, returnType) : null);
+            }
+            case Statement.LoadLibrary loadLibrary ->
+                    new Statement.LoadLibrary(loadLibrary.path(), optimizeStatements(loadLibrary.statements(), returnType));
+        };
+    }
+
+    /**
+     * Optimizes an expression evaluated with the given explicit type, {@link #DYNAMIC} when only known at runtime.
+     */
+    private Expression optimizeExpression(Expression expression, @Nullable Type explicitType) {
+        return switch (expression) {
+            case Expression.Constant constant -> {
+                if (constant.value() instanceof Value.FunctionDecl functionDecl) {
+                    yield new Expression.Constant(optimizeFunction(functionDecl));
+                }
+                yield constant;
+            }
+            case Expression.Literal literal -> {
+                if (!(explicitType instanceof Type.Identifier identifier)) yield literal;
+                final Value binary = binary(identifier.name(), literal.value());
+                yield binary != null ? new Expression.Constant(binary) : literal;
+            }
+            case Expression.Binary binary -> {
+                final Value value = binary(binary.name(), binary.value());
+                yield value != null ? new Expression.Constant(value) : binary;
+            }
+            case Expression.Contextual ignored -> expression;
+            case Expression.Enum enumDeclaration -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : enumDeclaration.entries().entrySet()) {
+                    entries.put(entry.getKey(), optimizeExpression(entry.getValue(), enumDeclaration.type()));
+                }
+                yield new Expression.Enum(enumDeclaration.type(), entries);
+            }
+            case Expression.Variable ignored -> expression;
+            case Expression.Access access -> new Expression.Access(optimizeExpression(access.object(), null),
+                    optimizeAccessPoints(access.accessPoints()));
+            case Expression.Constraint constraint -> new Expression.Constraint(optimizeExpression(constraint.object(), null),
+                    optimizeAccessPoints(constraint.accessPoints()), optimizeExpression(constraint.expression(), null));
+            case Expression.VariableAwait ignored -> expression;
+            case Expression.Call call -> {
+                final List<Parameter> parameters = call.slot() != -1 ? functions.get(key(call.depth(), call.slot())) : null;
+                final Parameter.Passed arguments;
+                if (parameters != null && call.arguments() instanceof Parameter.Passed.Positional(List<Expression> expressions) &&
+                        parameters.size() == expressions.size()) {
+                    List<Expression> optimized = new ArrayList<>(expressions.size());
+                    for (int i = 0; i < expressions.size(); i++) {
+                        optimized.add(optimizeExpression(expressions.get(i), parameters.get(i).type()));
+                    }
+                    arguments = new Parameter.Passed.Positional(List.copyOf(optimized));
+                } else {
+                    arguments = optimizePassed(call.arguments(), DYNAMIC);
+                }
+                final Inline inline = call.slot() != -1 ? inlines.get(key(call.depth(), call.slot())) : null;
+                if (inline != null && (preserves(explicitType) || !converting) &&
+                        arguments instanceof Parameter.Passed.Positional(List<Expression> expressions)) {
+                    final Expression inlined = substitute(inline, expressions);
+                    if (inlined != null) {
+                        this.inlineDepth = Math.max(inlineDepth, inline.depth());
+                        // Fold the operations over constant arguments
+                        yield optimizeExpression(inlined, explicitType);
+                    }
+                }
+                yield new Expression.Call(call.name(), arguments, call.depth(), call.slot());
+            }
+            case Expression.Select select -> {
+                List<Statement.Block> blocks = new ArrayList<>();
+                for (Statement.Block block : select.blocks()) {
+                    blocks.add((Statement.Block) optimizeStatement(block, DYNAMIC));
+                }
+                yield new Expression.Select(blocks);
+            }
+            case Expression.Initialization initialization -> {
+                final Type type = Objects.requireNonNullElse(initialization.type(), explicitType);
+                final Parameter.Passed parameters = initialization.parameters();
+                yield new Expression.Initialization(initialization.type(), switch (parameters) {
+                    case Parameter.Passed.Positional positional when type instanceof Type.Array arrayType ->
+                            optimizePassed(positional, arrayType.type());
+                    case Parameter.Passed.Supplied supplied when type instanceof Type.Array ->
+                            optimizePassed(supplied, null);
+                    default -> optimizePassed(parameters, DYNAMIC);
+                });
+            }
+            case Expression.Range range -> new Expression.Range(optimizeExpression(range.start(), null),
+                    optimizeExpression(range.end(), null), optimizeExpression(range.step(), null));
+            case Expression.Operation operation -> {
+                final Expression left = optimizeExpression(operation.left(), explicitType);
+                final Expression right = optimizeExpression(operation.right(), explicitType);
+                if (preserves(explicitType) && left instanceof Expression.Constant(Value leftValue) &&
+                        right instanceof Expression.Constant(Value rightValue) && operand(leftValue) && operand(rightValue)) {
+                    try {
+                        yield new Expression.Constant(ValueOperator.operate(operation.operator(), leftValue, rightValue));
+                    } catch (RuntimeException e) {
+                        // Fails at runtime instead
+                    }
+                }
+                yield new Expression.Operation(left, operation.operator(), right);
+            }
+            case Expression.Unary unary -> {
+                final Expression inner = optimizeExpression(unary.expression(), explicitType);
+                if (preserves(explicitType) && unary.operator() == Token.Type.EXCLAMATION &&
+                        inner instanceof Expression.Constant(Value.BooleanLiteral(boolean value))) {
+                    yield new Expression.Constant(Value.BooleanLiteral.of(!value));
+                }
+                yield new Expression.Unary(unary.operator(), inner);
+            }
+            case Expression.Ternary ternary -> {
+                final Expression condition = optimizeExpression(ternary.condition(), null);
+                final Expression thenBranch = optimizeExpression(ternary.thenBranch(), null);
+                final Expression elseBranch = optimizeExpression(ternary.elseBranch(), null);
+                // Both branches are evaluated, they must be free of side effects
+                if (condition instanceof Expression.Constant(Value.BooleanLiteral(boolean value)) &&
+                        thenBranch instanceof Expression.Constant && elseBranch instanceof Expression.Constant) {
+                    yield value ? thenBranch : elseBranch;
+                }
+                yield new Expression.Ternary(condition, thenBranch, elseBranch);
+            }
+        };
+    }
+
+    private Value.FunctionDecl optimizeFunction(Value.FunctionDecl functionDecl) {
+        final int outerInlineDepth = this.inlineDepth;
+        this.inlineDepth = 0;
+        enter(functionDecl.scope());
+        for (int i = 0; i < functionDecl.parameters().size(); i++) forget(key(i));
+        final List<Statement> body = optimizeStatements(functionDecl.body(), functionDecl.returnType());
+        depths.pop();
+        this.functionInlineDepth = inlineDepth;
+        this.inlineDepth = outerInlineDepth;
+        final Scalarized scalarized = scalarize(body, functionDecl.scope());
+        return new Value.FunctionDecl(functionDecl.parameters(), functionDecl.returnType(), scalarized.statements(),
+                scalarized.scope(), null);
+    }
+
+    private Parameter.Passed optimizePassed(Parameter.Passed passed, @Nullable Type explicitType) {
+        return switch (passed) {
+            case Parameter.Passed.Positional positional -> new Parameter.Passed.Positional(positional.expressions().stream()
+                    .map(expression -> optimizeExpression(expression, explicitType)).toList());
+            case Parameter.Passed.Named named -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : named.entries().entrySet()) {
+                    entries.put(entry.getKey(), optimizeExpression(entry.getValue(), explicitType));
+                }
+                yield new Parameter.Passed.Named(entries);
+            }
+            case Parameter.Passed.Supplied supplied ->
+                    new Parameter.Passed.Supplied(optimizeExpression(supplied.expression(), explicitType));
+        };
+    }
+
+    private List<AccessPoint> optimizeAccessPoints(List<AccessPoint> accessPoints) {
+        if (accessPoints.isEmpty()) return accessPoints;
+        List<AccessPoint> optimized = new ArrayList<>(accessPoints.size());
+        for (AccessPoint accessPoint : accessPoints) {
+            optimized.add(switch (accessPoint) {
+                case AccessPoint.Field field -> field;
+                case AccessPoint.Index index ->
+                        new AccessPoint.Index(optimizeExpression(index.expression(), null), index.transmuteType());
+            });
+        }
+        return List.copyOf(optimized);
+    }
+
+    // INLINING
+
+    /**
+     * Returns the inlined body of an optimized function, or null if it is too large or may have side effects.
+     */
+    private @Nullable Inline inline(Value.FunctionDecl functionDecl) {
+        final Scope scope = functionDecl.scope();
+        if (scope == null || functionInlineDepth >= INLINE_DEPTH || !(functionDecl.returnType() instanceof Type.Primitive) ||
+                !(functionDecl.body().size() == 1 && functionDecl.body().getFirst() instanceof Statement.Return(Expression body)) ||
+                body == null) return null;
+        final List<Parameter> parameters = functionDecl.parameters();
+        for (Parameter parameter : parameters) {
+            if (!(parameter.type() instanceof Type.Primitive)) return null;
+        }
+        if (size(body) > INLINE_SIZE || !pure(body, scope.depth(), parameters.size())) return null;
+        return new Inline(parameters.size(), scope.depth(), body, functionInlineDepth + 1);
+    }
+
+    /**
+     * Returns true if an expression only reads the parameters of its function, and calls nothing.
+     */
+    private static boolean pure(Expression expression, int depth, int parameters) {
+        return switch (expression) {
+            case Expression.Constant constant -> operand(constant.value());
+            case Expression.Variable variable ->
+                    variable.depth() == depth && variable.slot() >= 0 && variable.slot() < parameters;
+            case Expression.Access access -> pure(access.object(), depth, parameters) &&
+                    access.accessPoints().stream().allMatch(accessPoint -> switch (accessPoint) {
+                        case AccessPoint.Field ignored -> true;
+                        case AccessPoint.Index index ->
+                                index.transmuteType() == null && pure(index.expression(), depth, parameters);
+                    });
+            case Expression.Operation operation ->
+                    pure(operation.left(), depth, parameters) && pure(operation.right(), depth, parameters);
+            case Expression.Unary unary -> pure(unary.expression(), depth, parameters);
+            case Expression.Ternary ternary -> pure(ternary.condition(), depth, parameters) &&
+                    pure(ternary.thenBranch(), depth, parameters) && pure(ternary.elseBranch(), depth, parameters);
+            default -> false;
+        };
+    }
+
+    private static int size(Expression expression) {
+        return switch (expression) {
+            case Expression.Access access -> 1 + size(access.object()) + access.accessPoints().stream()
+                    .mapToInt(accessPoint -> accessPoint instanceof AccessPoint.Index index ? size(index.expression()) : 1)
+                    .sum();
+            case Expression.Operation operation -> 1 + size(operation.left()) + size(operation.right());
+            case Expression.Unary unary -> 1 + size(unary.expression());
+            case Expression.Ternary ternary ->
+                    1 + size(ternary.condition()) + size(ternary.thenBranch()) + size(ternary.elseBranch());
+            default -> 1;
+        };
+    }
+
+    /**
+     * Returns the body of an inlined function reading its arguments in place, or null if an argument could be
+     * evaluated a different number of times than by the call.
+     */
+    private static @Nullable Expression substitute(Inline inline, List<Expression> arguments) {
+        if (arguments.size() != inline.parameters()) return null;
+        final int[] uses = new int[arguments.size()];
+        countUses(inline.body(), inline.scopeDepth(), uses);
+        for (int i = 0; i < arguments.size(); i++) {
+            final Expression argument = arguments.get(i);
+            final boolean trivial = argument instanceof Expression.Constant(Value value) && operand(value) ||
+                    argument instanceof Expression.Variable variable && variable.slot() != -1;
+            if (!trivial && (uses[i] != 1 || !readOnly(argument))) return null;
+        }
+        return substitute(inline.body(), inline.scopeDepth(), arguments);
+    }
+
+    private static void countUses(Expression expression, int depth, int[] uses) {
+        switch (expression) {
+            case Expression.Variable variable -> {
+                if (variable.depth() == depth) uses[variable.slot()]++;
+            }
+            case Expression.Access access -> {
+                countUses(access.object(), depth, uses);
+                for (AccessPoint accessPoint : access.accessPoints()) {
+                    if (accessPoint instanceof AccessPoint.Index index) countUses(index.expression(), depth, uses);
+                }
+            }
+            case Expression.Operation operation -> {
+                countUses(operation.left(), depth, uses);
+                countUses(operation.right(), depth, uses);
+            }
+            case Expression.Unary unary -> countUses(unary.expression(), depth, uses);
+            case Expression.Ternary ternary -> {
+                countUses(ternary.condition(), depth, uses);
+                countUses(ternary.thenBranch(), depth, uses);
+                countUses(ternary.elseBranch(), depth, uses);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Returns true if evaluating an argument has no side effects, it can then be moved into the inlined body.
+     */
+    private static boolean readOnly(Expression expression) {
+        return switch (expression) {
+            case Expression.Constant constant -> operand(constant.value());
+            case Expression.Variable variable -> variable.slot() != -1;
+            case Expression.Access access -> readOnly(access.object()) &&
+                    access.accessPoints().stream().allMatch(accessPoint -> switch (accessPoint) {
+                        case AccessPoint.Field ignored -> true;
+                        case AccessPoint.Index index -> index.transmuteType() == null && readOnly(index.expression());
+                    });
+            case Expression.Operation operation -> readOnly(operation.left()) && readOnly(operation.right());
+            case Expression.Unary unary -> readOnly(unary.expression());
+            case Expression.Ternary ternary ->
+                    readOnly(ternary.condition()) && readOnly(ternary.thenBranch()) && readOnly(ternary.elseBranch());
+            default -> false;
+        };
+    }
+
+    private static Expression substitute(Expression expression, int depth, List<Expression> arguments) {
+        return switch (expression) {
+            case Expression.Variable variable when variable.depth() == depth -> {
+                // Every use gets its own node, engines may attach state to nodes
+                final Expression argument = arguments.get(variable.slot());
+                yield switch (argument) {
+                    case Expression.Constant constant -> new Expression.Constant(constant.value());
+                    case Expression.Variable other -> new Expression.Variable(other.name(), other.depth(), other.slot());
+                    default -> argument;
+                };
+            }
+            case Expression.Access access -> new Expression.Access(substitute(access.object(), depth, arguments),
+                    access.accessPoints().stream().map(accessPoint -> switch (accessPoint) {
+                        case AccessPoint.Field field -> field;
+                        case AccessPoint.Index index ->
+                                (AccessPoint) new AccessPoint.Index(substitute(index.expression(), depth, arguments), null);
+                    }).toList());
+            case Expression.Operation operation -> new Expression.Operation(substitute(operation.left(), depth, arguments),
+                    operation.operator(), substitute(operation.right(), depth, arguments));
+            case Expression.Unary unary ->
+                    new Expression.Unary(unary.operator(), substitute(unary.expression(), depth, arguments));
+            case Expression.Ternary ternary -> new Expression.Ternary(substitute(ternary.condition(), depth, arguments),
+                    substitute(ternary.thenBranch(), depth, arguments), substitute(ternary.elseBranch(), depth, arguments));
+            default -> expression;
+        };
+    }
+
+    /**
+     * Returns true if the explicit type is statically known to never convert the operands of an operation.
+     */
+    private static boolean preserves(@Nullable Type explicitType) {
+        return explicitType == null || explicitType instanceof Type.Primitive && explicitType != DYNAMIC;
+    }
+
+    private static boolean operand(Value value) {
+        return value instanceof Value.NumberLiteral || value instanceof Value.BooleanLiteral ||
+                value instanceof Value.Binary;
+    }
+
+    /**
+     * Serializes a binary once, binaries are read-only and shared by every evaluation.
+     */
+    private static @Nullable Value binary(String name, LiteralValue value) {
+        try {
+            final BinStandard standard = BinStandard.get(name);
+            return Value.Binary.of(standard, value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // SCALAR REPLACEMENT
+
+    private record Scalarized(List<Statement> statements, @Nullable Scope scope) {
+    }
+
+    /**
+     * Replaces the structs initialized by the declarations of a block when they never escape it.
+     * <p>
+     * Destructured initializations declare their fields directly. A struct only read through its fields gets one
+     * variable per field, appended to the scope of the block.
+     */
+    private Scalarized scalarize(List<Statement> statements, @Nullable Scope scope) {
+        if (scope == null) return new Scalarized(statements, null);
+        List<Statement> result = new ArrayList<>(statements);
+        List<String> names = null;
+        boolean replaced = false;
+        for (int i = 0; i < result.size(); i++) {
+            if (!(result.get(i) instanceof Statement.Declare declare) ||
+                    declare.declarationType() == DeclarationType.SHARED ||
+                    !(declare.initializer() instanceof Expression.Initialization initialization)) continue;
+            final Type type = Objects.requireNonNullElse(initialization.type(), declare.explicitType());
+            if (!(type instanceof Type.Identifier(String structName)) ||
+                    declare.explicitType() != null && !declare.explicitType().equals(type)) continue;
+            final Value.StructDecl structDecl = struct(structName);
+            if (structDecl == null) continue;
+            final List<Parameter> parameters = structDecl.parameters();
+            final List<Expression> fields = fields(parameters, initialization.parameters());
+            if (fields == null) continue;
+            List<Statement> split = new ArrayList<>(parameters.size());
+            if (declare.names().size() > 1) {
+                // Destructured in place, the fields take the slots of the names
+                if (declare.names().size() != parameters.size() || !fields.stream().allMatch(Optimizer::readOnly)) continue;
+                for (int j = 0; j < parameters.size(); j++) {
+                    split.add(new Statement.Declare(List.of(declare.names().get(j)), declare.declarationType(),
+                            fields.get(j), parameters.get(j).type(), declare.slot() + j));
+                }
+            } else {
+                final String name = declare.names().getFirst();
+                if (assigned.contains(name) || !fieldReads(result.subList(i + 1, result.size()), scope.depth(),
+                        declare.slot(), parameters)) continue;
+                if (names == null) names = new ArrayList<>(scope.names());
+                final int first = names.size();
+                for (int j = 0; j < parameters.size(); j++) {
+                    final String fieldName = name + "." + parameters.get(j).name();
+                    names.add(fieldName);
+                    split.add(new Statement.Declare(List.of(fieldName), declare.declarationType(), fields.get(j),
+                            parameters.get(j).type(), first + j));
+                }
+                for (int k = i + 1; k < result.size(); k++) {
+                    result.set(k, transform(result.get(k), expression -> scalarAccess(expression, scope.depth(),
+                            declare.slot(), parameters, name, first)));
+                }
+            }
+            result.remove(i);
+            result.addAll(i, split);
+            i += split.size() - 1;
+            replaced = true;
+        }
+        if (!replaced) return new Scalarized(statements, scope);
+        return new Scalarized(List.copyOf(result), names != null ? new Scope(names, scope.depth()) : scope);
+    }
+
+    /**
+     * Returns the struct declared by a name, or null if the name may refer to anything else.
+     */
+    private Value.@Nullable StructDecl struct(String name) {
+        if (declarations.getOrDefault(name, 0) != 1 || assigned.contains(name) || variables.contains(name)) return null;
+        return structs.get(name);
+    }
+
+    /**
+     * Returns the initializers of every field in declaration order, or null if one is missing or the evaluation order
+     * would change.
+     */
+    private static @Nullable List<Expression> fields(List<Parameter> parameters, Parameter.Passed passed) {
+        return switch (passed) {
+            case Parameter.Passed.Positional(List<Expression> expressions) ->
+                    expressions.size() == parameters.size() ? expressions : null;
+            case Parameter.Passed.Named(Map<String, Expression> entries) -> {
+                if (entries.size() != parameters.size() || !entries.values().stream().allMatch(Optimizer::readOnly))
+                    yield null;
+                List<Expression> fields = new ArrayList<>(parameters.size());
+                for (Parameter parameter : parameters) {
+                    final Expression field = entries.get(parameter.name());
+                    if (field == null) yield null;
+                    fields.add(field);
+                }
+                yield fields;
+            }
+            case Parameter.Passed.Supplied ignored -> null;
+        };
+    }
+
+    /**
+     * Returns true if the variable at the given position is only read through one of the fields.
+     */
+    private static boolean fieldReads(List<Statement> statements, int depth, int slot, List<Parameter> parameters) {
+        final int[] references = new int[2];
+        for (Statement statement : statements) {
+            transform(statement, expression -> {
+                switch (expression) {
+                    case Expression.Variable variable when variable.depth() == depth && variable.slot() == slot ->
+                            references[0]++;
+                    case Expression.VariableAwait variable when variable.depth() == depth && variable.slot() == slot ->
+                            references[0] += 2;
+                    case Expression.Call call when call.depth() == depth && call.slot() == slot -> references[0] += 2;
+                    case Expression.Access access when field(access, depth, slot, parameters) != -1 -> references[1]++;
+                    default -> {
+                    }
+                }
+                return expression;
+            });
+        }
+        return references[0] == references[1];
+    }
+
+    private static Expression scalarAccess(Expression expression, int depth, int slot, List<Parameter> parameters,
+                                           String name, int first) {
+        if (!(expression instanceof Expression.Access access)) return expression;
+        final int field = field(access, depth, slot, parameters);
+        if (field == -1) return expression;
+        final Expression.Variable variable = new Expression.Variable(name + "." + parameters.get(field).name(),
+                depth, first + field);
+        final List<AccessPoint> rest = access.accessPoints().subList(1, access.accessPoints().size());
+        return rest.isEmpty() ? variable : new Expression.Access(variable, List.copyOf(rest));
+    }
+
+    /**
+     * Returns the index of the field read first by an access to the given variable, or -1.
+     */
+    private static int field(Expression.Access access, int depth, int slot, List<Parameter> parameters) {
+        if (!(access.object() instanceof Expression.Variable variable) || variable.depth() != depth ||
+                variable.slot() != slot || !(access.accessPoints().getFirst() instanceof AccessPoint.Field(String component)))
+            return -1;
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i).name().equals(component)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds a statement with its expressions mapped, children before their parent.
+     */
+    private static Statement transform(Statement statement, UnaryOperator<Expression> operator) {
+        return switch (statement) {
+            case Statement.Declare declare -> new Statement.Declare(declare.names(), declare.declarationType(),
+                    transform(declare.initializer(), operator), declare.explicitType(), declare.slot());
+            case Statement.Assign assign -> new Statement.Assign(assign.targets().stream()
+                    .map(target -> new Statement.Assign.Target(target.name(), transform(target.accessPoints(), operator),
+                            target.depth(), target.slot())).toList(), transform(assign.expression(), operator));
+            case Statement.Run run -> new Statement.Run(transform(run.expression(), operator));
+            case Statement.Branch branch -> new Statement.Branch(transform(branch.condition(), operator),
+                    transform(branch.thenBranch(), operator),
+                    branch.elseBranch() != null ? transform(branch.elseBranch(), operator) : null);
+            case Statement.Loop loop -> new Statement.Loop(loop.declarations(),
+                    loop.iterable() != null ? transform(loop.iterable(), operator) : null,
+                    transform(loop.body(), operator), loop.scope());
+            case Statement.Break ignored -> statement;
+            case Statement.Continue ignored -> statement;
+            case Statement.Join join -> new Statement.Join((Statement.Block) transform(join.block(), operator));
+            case Statement.Spawn spawn -> new Statement.Spawn(transform(spawn.statement(), operator), spawn.scope());
+            case Statement.Block block -> new Statement.Block(block.statements().stream()
+                    .map(inner -> transform(inner, operator)).toList(), block.scope());
+            case Statement.Return returnStatement -> new Statement.Return(returnStatement.expression() != null ?
+                    transform(returnStatement.expression(), operator) : null);
+            case Statement.LoadLibrary loadLibrary -> new Statement.LoadLibrary(loadLibrary.path(),
+                    loadLibrary.statements().stream().map(inner -> transform(inner, operator)).toList());
+        };
+    }
+
+    private static Expression transform(Expression expression, UnaryOperator<Expression> operator) {
+        return operator.apply(switch (expression) {
+            case Expression.Constant(Value.FunctionDecl functionDecl) -> new Expression.Constant(new Value.FunctionDecl(
+                    functionDecl.parameters(), functionDecl.returnType(), functionDecl.body().stream()
+                    .map(statement -> transform(statement, operator)).toList(), functionDecl.scope(), null));
+            case Expression.Enum enumDeclaration -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : enumDeclaration.entries().entrySet()) {
+                    entries.put(entry.getKey(), transform(entry.getValue(), operator));
+                }
+                yield new Expression.Enum(enumDeclaration.type(), entries);
+            }
+            case Expression.Access access -> new Expression.Access(transform(access.object(), operator),
+                    transform(access.accessPoints(), operator));
+            case Expression.Constraint constraint -> new Expression.Constraint(transform(constraint.object(), operator),
+                    transform(constraint.accessPoints(), operator), transform(constraint.expression(), operator));
+            case Expression.Call call -> new Expression.Call(call.name(), transform(call.arguments(), operator),
+                    call.depth(), call.slot());
+            case Expression.Select select -> new Expression.Select(select.blocks().stream()
+                    .map(block -> (Statement.Block) transform(block, operator)).toList());
+            case Expression.Initialization initialization -> new Expression.Initialization(initialization.type(),
+                    transform(initialization.parameters(), operator));
+            case Expression.Range range -> new Expression.Range(transform(range.start(), operator),
+                    transform(range.end(), operator), transform(range.step(), operator));
+            case Expression.Operation operation -> new Expression.Operation(transform(operation.left(), operator),
+                    operation.operator(), transform(operation.right(), operator));
+            case Expression.Unary unary -> new Expression.Unary(unary.operator(), transform(unary.expression(), operator));
+            case Expression.Ternary ternary -> new Expression.Ternary(transform(ternary.condition(), operator),
+                    transform(ternary.thenBranch(), operator), transform(ternary.elseBranch(), operator));
+            default -> expression;
+        });
+    }
+
+    private static Parameter.Passed transform(Parameter.Passed passed, UnaryOperator<Expression> operator) {
+        return switch (passed) {
+            case Parameter.Passed.Positional positional -> new Parameter.Passed.Positional(positional.expressions().stream()
+                    .map(expression -> transform(expression, operator)).toList());
+            case Parameter.Passed.Named named -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : named.entries().entrySet()) {
+                    entries.put(entry.getKey(), transform(entry.getValue(), operator));
+                }
+                yield new Parameter.Passed.Named(entries);
+            }
+            case Parameter.Passed.Supplied supplied ->
+                    new Parameter.Passed.Supplied(transform(supplied.expression(), operator));
+        };
+    }
+
+    private static List<AccessPoint> transform(List<AccessPoint> accessPoints, UnaryOperator<Expression> operator) {
+        return accessPoints.stream().map(accessPoint -> switch (accessPoint) {
+            case AccessPoint.Field field -> field;
+            case AccessPoint.Index index ->
+                    (AccessPoint) new AccessPoint.Index(transform(index.expression(), operator), index.transmuteType());
+        }).toList();
+    }
+
+    // DECLARATIONS
+
+    private void collect(Statement statement) {
+        switch (statement) {
+            case Statement.Declare declare -> {
+                for (String name : declare.names()) declarations.merge(name, 1, Integer::sum);
+                if (declare.names().size() == 1 && declare.declarationType() == DeclarationType.CONSTANT &&
+                        declare.initializer() instanceof Expression.Constant(Value.StructDecl structDecl)) {
+                    structs.put(declare.names().getFirst(), structDecl);
+                }
+                collect(declare.initializer());
+            }
+            case Statement.Assign assign -> {
+                for (Statement.Assign.Target target : assign.targets()) assigned.add(target.name());
+                collect(assign.expression());
+            }
+            case Statement.Run run -> collect(run.expression());
+            case Statement.Branch branch -> {
+                collect(branch.condition());
+                collect(branch.thenBranch());
+                if (branch.elseBranch() != null) collect(branch.elseBranch());
+            }
+            case Statement.Loop loop -> {
+                if (loop.declarations() != null) {
+                    for (Statement.Loop.Declaration declaration : loop.declarations()) {
+                        declarations.merge(declaration.name(), 1, Integer::sum);
+                    }
+                }
+                if (loop.iterable() != null) collect(loop.iterable());
+                collect(loop.body());
+            }
+            case Statement.Join join -> collect(join.block());
+            case Statement.Spawn spawn -> collect(spawn.statement());
+            case Statement.Block block -> block.statements().forEach(this::collect);
+            case Statement.Return returnStatement -> {
+                if (returnStatement.expression() != null) collect(returnStatement.expression());
+            }
+            case Statement.LoadLibrary loadLibrary -> loadLibrary.statements().forEach(this::collect);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Collects the declarations, assignments and reads of the functions defined in an expression, and its converting
+     * type declarations.
+     */
+    private void collect(Expression expression) {
+        switch (expression) {
+            case Expression.Constant(Value.FunctionDecl functionDecl) -> {
+                for (Parameter parameter : functionDecl.parameters()) declarations.merge(parameter.name(), 1, Integer::sum);
+                functionDecl.body().forEach(this::collect);
+            }
+            case Expression.Constant(Value.UnionDecl unionDecl) -> {
+                for (Map.Entry<String, Value.StructDecl> entry : unionDecl.entries().entrySet()) {
+                    if (entry.getValue() != null) declarations.merge(entry.getKey(), 1, Integer::sum);
+                }
+            }
+            case Expression.Constant(Value.EnumDecl ignored) -> this.converting = true;
+            case Expression.Constant(Value.DistinctDecl ignored) -> this.converting = true;
+            case Expression.Enum enumDeclaration -> {
+                this.converting = true;
+                enumDeclaration.entries().values().forEach(this::collect);
+            }
+            case Expression.Variable variable -> variables.add(variable.name());
+            case Expression.VariableAwait variableAwait -> variables.add(variableAwait.name());
+            case Expression.Access access -> {
+                collect(access.object());
+                collect(access.accessPoints());
+            }
+            case Expression.Constraint constraint -> {
+                collect(constraint.object());
+                collect(constraint.accessPoints());
+                collect(constraint.expression());
+            }
+            case Expression.Call call -> {
+                variables.add(call.name());
+                collect(call.arguments());
+            }
+            case Expression.Select select -> select.blocks().forEach(this::collect);
+            case Expression.Initialization initialization -> collect(initialization.parameters());
+            case Expression.Range range -> {
+                collect(range.start());
+                collect(range.end());
+                collect(range.step());
+            }
+            case Expression.Operation operation -> {
+                collect(operation.left());
+                collect(operation.right());
+            }
+            case Expression.Unary unary -> collect(unary.expression());
+            case Expression.Ternary ternary -> {
+                collect(ternary.condition());
+                collect(ternary.thenBranch());
+                collect(ternary.elseBranch());
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void collect(Parameter.Passed passed) {
+        switch (passed) {
+            case Parameter.Passed.Positional positional -> positional.expressions().forEach(this::collect);
+            case Parameter.Passed.Named named -> named.entries().values().forEach(this::collect);
+            case Parameter.Passed.Supplied supplied -> collect(supplied.expression());
+        }
+    }
+
+    private void collect(List<AccessPoint> accessPoints) {
+        for (AccessPoint accessPoint : accessPoints) {
+            if (accessPoint instanceof AccessPoint.Index index) collect(index.expression());
+        }
+    }
+
+    private void forget(long key) {
+        functions.remove(key);
+        inlines.remove(key);
+    }
+
+    private void enter(@Nullable Scope scope) {
+        depths.push(scope != null ? scope.depth() : depths.isEmpty() ? 0 : depths.peek() + 1);
+    }
+
+    private long key(int slot) {
+        return key(depths.isEmpty() ? 0 : depths.peek(), slot);
+    }
+
+    private static long key(int depth, int slot) {
+        return (long) depth << 32 | slot;
+    }
+}
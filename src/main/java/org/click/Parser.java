@@ -223,9 +223,9 @@ public final class Parser {
             final Object value = previous().value();
             return new Expression.Constant(new Value.NumberLiteral((Number) value));
         } else if (match(TRUE)) {
-            return new Expression.Constant(new Value.BooleanLiteral(true));
+            return new Expression.Constant(Value.BooleanLiteral.TRUE);
         } else if (match(FALSE)) {
-            return new Expression.Constant(new Value.BooleanLiteral(false));
+            return new Expression.Constant(Value.BooleanLiteral.FALSE);
         } else if (match(EXCLAMATION)) {
             final Expression expression = nextExpression();
             return new Expression.Unary(EXCLAMATION, expression);
@@ -429,7 +429,7 @@ public final class Parser {
             return new Value.ExternFunctionDecl(parameters, returnType);
         }
         final List<Statement> body = nextBlock();
-        return new Value.FunctionDecl(parameters, returnType, body, null);
+        return new Value.FunctionDecl(parameters, returnType, body, null, null);
     }
 
     private Value.StructDecl nextStruct() {
@@ -0,0 +1,267 @@
+package org.click;
+
+import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.click.Ast.*;
+
+/**
+ * Binds every variable reference to a (depth, slot) pair of the runtime frames.
+ * <p>
+ * Depths are absolute: the program block is depth 0, and every block, loop, spawn, function or select arm
+ * pushes a new frame. Names that are not visible yet stay unresolved and fail when evaluated.
+ */
+public final class Resolver {
+    private final @Nullable Path directory;
+    private final List<ScopeBuilder> scopes = new ArrayList<>();
+
+    public Resolver(@Nullable Path directory) {
+        this.directory = directory;
+    }
+
+    public Statement.Block resolve(List<Statement> statements) {
+        enterScope();
+        final List<Statement> resolved = resolveStatements(statements);
+        final Scope scope = exitScope();
+        return new Statement.Block(resolved, scope);
+    }
+
+    private List<Statement> resolveStatements(List<Statement> statements) {
+        List<Statement> resolved = new ArrayList<>(statements.size());
+        for (Statement statement : statements) resolved.add(resolveStatement(statement));
+        return List.copyOf(resolved);
+    }
+
+    private Statement resolveStatement(Statement statement) {
+        return switch (statement) {
+            case Statement.Declare declare -> {
+                final Expression initializer = resolveExpression(declare.initializer());
+                final List<String> names = declare.names();
+                final int slot = declare(names.get(0));
+                for (int i = 1; i < names.size(); i++) declare(names.get(i));
+                yield new Statement.Declare(names, declare.declarationType(), initializer, declare.explicitType(), slot);
+            }
+            case Statement.Assign assign -> {
+                final Expression expression = resolveExpression(assign.expression());
+                List<Statement.Assign.Target> targets = new ArrayList<>();
+                for (Statement.Assign.Target target : assign.targets()) {
+                    final String name = target.name();
+                    final List<AccessPoint> accessPoints = resolveAccessPoints(target.accessPoints());
+                    final int depth = lookupDepth(name);
+                    final int slot = depth != -1 ? scopes.get(depth).slot(name) : -1;
+                    targets.add(new Statement.Assign.Target(name, accessPoints, depth, slot));
+                }
+                yield new Statement.Assign(targets, expression);
+            }
+            case Statement.Run run -> new Statement.Run(resolveExpression(run.expression()));
+            case Statement.Branch branch -> {
+                final Expression condition = resolveExpression(branch.condition());
+                final Statement thenBranch = resolveStatement(branch.thenBranch());
+                final Statement elseBranch = branch.elseBranch() != null ? resolveStatement(branch.elseBranch()) : null;
+                yield new Statement.Branch(condition, thenBranch, elseBranch);
+            }
+            case Statement.Loop loop -> {
+                final Expression iterable = loop.iterable() != null ? resolveExpression(loop.iterable()) : null;
+                enterScope();
+                final List<Statement.Loop.Declaration> declarations = loop.declarations();
+                if (declarations != null) {
+                    for (Statement.Loop.Declaration declaration : declarations) shadow(declaration.name());
+                }
+                final Statement body = resolveStatement(loop.body());
+                final Scope scope = exitScope();
+                yield new Statement.Loop(declarations, iterable, body, scope);
+            }
+            case Statement.Break ignored -> statement;
+            case Statement.Continue ignored -> statement;
+            case Statement.Join join -> new Statement.Join((Statement.Block) resolveStatement(join.block()));
+            case Statement.Spawn spawn -> {
+                enterScope();
+                final Statement inner = resolveStatement(spawn.statement());
+                final Scope scope = exitScope();
+                yield new Statement.Spawn(inner, scope);
+            }
+            case Statement.Block block -> {
+                enterScope();
+                final List<Statement> statements = resolveStatements(block.statements());
+                final Scope scope = exitScope();
+                yield new Statement.Block(statements, scope);
+            }
+            case Statement.Return returnStatement -> {
+                final Expression expression = returnStatement.expression();
+                yield new Statement.Return(expression != null ? resolveExpression(expression) : null);
+            }
+            case Statement.LoadLibrary loadLibrary -> {
+                final String path = loadLibrary.path();
+                if (directory == null) throw new RuntimeException("Cannot load library without a directory: " + path);
+                final String source;
+                try {
+                    source = Files.readString(directory.resolve(path));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                final List<Token> tokens = new Scanner(source).scanTokens();
+                final List<Statement> statements = new Parser(tokens).parse();
+                // Library declarations belong to the current scope
+                yield new Statement.LoadLibrary(path, resolveStatements(statements));
+            }
+        };
+    }
+
+    private Expression resolveExpression(Expression expression) {
+        return switch (expression) {
+            case Expression.Constant constant -> {
+                final Value value = constant.value();
+                if (value instanceof Value.FunctionDecl functionDecl) {
+                    yield new Expression.Constant(resolveFunction(functionDecl));
+                } else if (value instanceof Value.UnionDecl unionDecl) {
+                    // Inline structs are registered when the union is evaluated
+                    for (Map.Entry<String, Value.StructDecl> entry : unionDecl.entries().entrySet()) {
+                        if (entry.getValue() != null) shadow(entry.getKey());
+                    }
+                }
+                yield constant;
+            }
+            case Expression.Literal ignored -> expression;
+            case Expression.Binary ignored -> expression;
+            case Expression.Contextual ignored -> expression;
+            case Expression.Enum enumDeclaration -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : enumDeclaration.entries().entrySet()) {
+                    entries.put(entry.getKey(), resolveExpression(entry.getValue()));
+                }
+                yield new Expression.Enum(enumDeclaration.type(), entries);
+            }
+            case Expression.Variable variable -> {
+                final String name = variable.name();
+                final int depth = lookupDepth(name);
+                if (depth == -1) yield variable;
+                yield new Expression.Variable(name, depth, scopes.get(depth).slot(name));
+            }
+            case Expression.Access access -> new Expression.Access(resolveExpression(access.object()),
+                    resolveAccessPoints(access.accessPoints()));
+            case Expression.Constraint constraint -> new Expression.Constraint(resolveExpression(constraint.object()),
+                    resolveAccessPoints(constraint.accessPoints()), resolveExpression(constraint.expression()));
+            case Expression.VariableAwait variableAwait -> {
+                final String name = variableAwait.name();
+                final int depth = lookupDepth(name);
+                if (depth == -1) yield variableAwait;
+                yield new Expression.VariableAwait(name, depth, scopes.get(depth).slot(name));
+            }
+            case Expression.Call call -> {
+                final String name = call.name();
+                final Parameter.Passed arguments = resolvePassed(call.arguments());
+                final int depth = lookupDepth(name);
+                final int slot = depth != -1 ? scopes.get(depth).slot(name) : -1;
+                yield new Expression.Call(name, arguments, depth, slot);
+            }
+            case Expression.Select select -> {
+                List<Statement.Block> blocks = new ArrayList<>();
+                for (Statement.Block block : select.blocks()) {
+                    // Each block runs as the body of an anonymous function
+                    enterScope();
+                    blocks.add((Statement.Block) resolveStatement(block));
+                    exitScope();
+                }
+                yield new Expression.Select(blocks);
+            }
+            case Expression.Initialization initialization ->
+                    new Expression.Initialization(initialization.type(), resolvePassed(initialization.parameters()));
+            case Expression.Range range -> new Expression.Range(resolveExpression(range.start()),
+                    resolveExpression(range.end()), resolveExpression(range.step()));
+            case Expression.Operation operation -> new Expression.Operation(resolveExpression(operation.left()),
+                    operation.operator(), resolveExpression(operation.right()));
+            case Expression.Unary unary -> new Expression.Unary(unary.operator(), resolveExpression(unary.expression()));
+            case Expression.Ternary ternary -> new Expression.Ternary(resolveExpression(ternary.condition()),
+                    resolveExpression(ternary.thenBranch()), resolveExpression(ternary.elseBranch()));
+        };
+    }
+
+    private Value.FunctionDecl resolveFunction(Value.FunctionDecl functionDecl) {
+        enterScope();
+        for (Parameter parameter : functionDecl.parameters()) shadow(parameter.name());
+        final List<Statement> body = resolveStatements(functionDecl.body());
+        final Scope scope = exitScope();
+        return new Value.FunctionDecl(functionDecl.parameters(), functionDecl.returnType(), body, scope, null);
+    }
+
+    private Parameter.Passed resolvePassed(Parameter.Passed passed) {
+        return switch (passed) {
+            case Parameter.Passed.Positional positional ->
+                    new Parameter.Passed.Positional(positional.expressions().stream().map(this::resolveExpression).toList());
+            case Parameter.Passed.Named named -> {
+                Map<String, Expression> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : named.entries().entrySet()) {
+                    entries.put(entry.getKey(), resolveExpression(entry.getValue()));
+                }
+                yield new Parameter.Passed.Named(entries);
+            }
+            case Parameter.Passed.Supplied supplied -> new Parameter.Passed.Supplied(resolveExpression(supplied.expression()));
+        };
+    }
+
+    private List<AccessPoint> resolveAccessPoints(List<AccessPoint> accessPoints) {
+        if (accessPoints.isEmpty()) return accessPoints;
+        List<AccessPoint> resolved = new ArrayList<>(accessPoints.size());
+        for (AccessPoint accessPoint : accessPoints) {
+            resolved.add(switch (accessPoint) {
+                case AccessPoint.Field field -> field;
+                case AccessPoint.Index index ->
+                        new AccessPoint.Index(resolveExpression(index.expression()), index.transmuteType());
+            });
+        }
+        return List.copyOf(resolved);
+    }
+
+    private void enterScope() {
+        this.scopes.add(new ScopeBuilder());
+    }
+
+    private Scope exitScope() {
+        final ScopeBuilder builder = this.scopes.removeLast();
+        return new Scope(builder.names, scopes.size());
+    }
+
+    private int lookupDepth(String name) {
+        for (int depth = scopes.size() - 1; depth >= 0; depth--) {
+            if (scopes.get(depth).slot(name) != -1) return depth;
+        }
+        return -1;
+    }
+
+    /**
+     * Declares a variable that must not already be visible.
+     */
+    private int declare(String name) {
+        if (lookupDepth(name) != -1) throw new RuntimeException("Variable already declared: " + name);
+        return shadow(name);
+    }
+
+    /**
+     * Declares a variable in the current scope, hiding any previous declaration.
+     */
+    private int shadow(String name) {
+        return scopes.getLast().add(name);
+    }
+
+    private static final class ScopeBuilder {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> slots = new HashMap<>();
+
+        int add(String name) {
+            final int slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+            return slot;
+        }
+
+        int slot(String name) {
+            final Integer slot = slots.get(name);
+            return slot != null ? slot : -1;
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package org.click;
+
+import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static org.click.Ast.*;
+
+/**
+ * Infers the static type of a resolved program's expressions, and checks them before the program runs.
+ * <p>
+ * Errors are only reported for expressions that always fail once evaluated. Casts of an expression already known to
+ * hold a value of its explicit type are proven, engines skip them when casting to that same type instance.
+ * <p>
+ * Type names are looked up by name at runtime, so they are checked against every declaration of the program:
+ * a cast to a name only converts values if a union, enum or distinct type of that name exists, or if a type
+ * declaration is used as a value.
+ */
+public final class TypeChecker {
+    // Explicit type only known at runtime, such as the type of an assignment
+    private static final Type DYNAMIC = new Type.Primitive("dynamic");
+
+    /**
+     * Static type of a binary value, a struct can share the name of its standard.
+     */
+    private record Standard(String name) implements Type {
+    }
+
+    // Declarations of type names, in the whole program
+    private final Map<String, List<Value.StructDecl>> structs = new HashMap<>();
+    private final Map<String, List<Value.UnionDecl>> unions = new HashMap<>();
+    private final Set<String> enums = new HashSet<>();
+    private final Set<String> distincts = new HashSet<>();
+    private final Set<String> assigned = new HashSet<>();
+    private final Set<String> values = new HashSet<>();
+    private boolean typeValues;
+
+    // Types of constants and functions, indexed by their frame position
+    private final Map<Long, Type> constants = new HashMap<>();
+    private final Map<Long, Value> functions = new HashMap<>();
+    private final Deque<Integer> depths = new ArrayDeque<>();
+
+    private final Map<Expression, Type> proven = new IdentityHashMap<>();
+
+    /**
+     * Returns the expressions whose cast to the mapped type never converts the value.
+     */
+    public Map<Expression, Type> check(Statement.Block program) {
+        for (Statement statement : program.statements()) collect(statement);
+        for (String name : values) {
+            if (structs.containsKey(name) || unions.containsKey(name) || enums.contains(name) || distincts.contains(name))
+                typeValues = true;
+        }
+        statement(program, DYNAMIC);
+        return proven;
+    }
+
+    // DECLARATIONS
+
+    private void collect(Statement statement) {
+        switch (statement) {
+            case Statement.Declare declare -> {
+                final Expression initializer = declare.initializer();
+                if (declare.names().size() == 1) {
+                    final String name = declare.names().getFirst();
+                    switch (initializer) {
+                        case Expression.Constant(Value.StructDecl structDecl) -> declareStruct(name, structDecl);
+                        case Expression.Constant(Value.UnionDecl unionDecl) -> {
+                            unions.computeIfAbsent(name, ignored -> new ArrayList<>()).add(unionDecl);
+                            for (Map.Entry<String, Value.StructDecl> entry : unionDecl.entries().entrySet()) {
+                                if (entry.getValue() != null) declareStruct(entry.getKey(), entry.getValue());
+                            }
+                        }
+                        case Expression.Constant(Value.DistinctDecl ignored) -> distincts.add(name);
+                        case Expression.Enum ignored -> enums.add(name);
+                        default -> {
+                        }
+                    }
+                }
+                collect(initializer, true);
+            }
+            case Statement.Assign assign -> {
+                for (Statement.Assign.Target target : assign.targets()) {
+                    assigned.add(target.name());
+                    collect(target.accessPoints());
+                }
+                collect(assign.expression(), false);
+            }
+            case Statement.Run run -> collect(run.expression(), false);
+            case Statement.Branch branch -> {
+                collect(branch.condition(), false);
+                collect(branch.thenBranch());
+                if (branch.elseBranch() != null) collect(branch.elseBranch());
+            }
+            case Statement.Loop loop -> {
+                if (loop.iterable() != null) collect(loop.iterable(), false);
+                collect(loop.body());
+            }
+            case Statement.Break ignored -> {
+            }
+            case Statement.Continue ignored -> {
+            }
+            case Statement.Join join -> collect(join.block());
+            case Statement.Spawn spawn -> collect(spawn.statement());
+            case Statement.Block block -> block.statements().forEach(this::collect);
+            case Statement.Return returnStatement -> {
+                if (returnStatement.expression() != null) collect(returnStatement.expression(), false);
+            }
+            case Statement.LoadLibrary loadLibrary -> loadLibrary.statements().forEach(this::collect);
+        }
+    }
+
+    /**
+     * Collects the declarations of an expression, type declarations are values unless directly declared.
+     */
+    private void collect(Expression expression, boolean declared) {
+        switch (expression) {
+            case Expression.Constant constant -> {
+                switch (constant.value()) {
+                    case Value.FunctionDecl functionDecl -> functionDecl.body().forEach(this::collect);
+                    case Value.StructDecl ignored -> typeValues |= !declared;
+                    case Value.UnionDecl ignored -> typeValues |= !declared;
+                    case Value.EnumDecl ignored -> typeValues |= !declared;
+                    case Value.DistinctDecl ignored -> typeValues |= !declared;
+                    default -> {
+                    }
+                }
+            }
+            case Expression.Literal ignored -> {
+            }
+            case Expression.Binary ignored -> {
+            }
+            case Expression.Enum enumDeclaration -> {
+                typeValues |= !declared;
+                for (Expression entry : enumDeclaration.entries().values()) collect(entry, false);
+            }
+            case Expression.Variable variable -> values.add(variable.name());
+            case Expression.Contextual ignored -> {
+            }
+            case Expression.Access access -> {
+                // Accessed type declarations stay in place
+                if (!(access.object() instanceof Expression.Variable)) collect(access.object(), false);
+                collect(access.accessPoints());
+            }
+            case Expression.Constraint constraint -> {
+                if (!(constraint.object() instanceof Expression.Variable)) collect(constraint.object(), false);
+                collect(constraint.accessPoints());
+                collect(constraint.expression(), false);
+            }
+            case Expression.VariableAwait ignored -> {
+            }
+            case Expression.Call call -> collect(call.arguments());
+            case Expression.Select select -> select.blocks().forEach(this::collect);
+            case Expression.Initialization initialization -> collect(initialization.parameters());
+            case Expression.Range range -> {
+                collect(range.start(), false);
+                collect(range.end(), false);
+                collect(range.step(), false);
+            }
+            case Expression.Operation operation -> {
+                collect(operation.left(), false);
+                collect(operation.right(), false);
+            }
+            case Expression.Unary unary -> collect(unary.expression(), false);
+            case Expression.Ternary ternary -> {
+                collect(ternary.condition(), false);
+                collect(ternary.thenBranch(), false);
+                collect(ternary.elseBranch(), false);
+            }
+        }
+    }
+
+    private void collect(Parameter.Passed passed) {
+        switch (passed) {
+            case Parameter.Passed.Positional positional -> {
+                for (Expression expression : positional.expressions()) collect(expression, false);
+            }
+            case Parameter.Passed.Named named -> {
+                for (Expression expression : named.entries().values()) collect(expression, false);
+            }
+            case Parameter.Passed.Supplied supplied -> collect(supplied.expression(), false);
+        }
+    }
+
+    private void collect(List<AccessPoint> accessPoints) {
+        for (AccessPoint accessPoint : accessPoints) {
+            if (accessPoint instanceof AccessPoint.Index index) collect(index.expression(), false);
+        }
+    }
+
+    private void declareStruct(String name, Value.StructDecl structDecl) {
+        structs.computeIfAbsent(name, ignored -> new ArrayList<>()).add(structDecl);
+    }
+
+    // STATEMENTS
+
+    /**
+     * Checks a statement of a function returning the given type, {@link #DYNAMIC} outside functions.
+     */
+    private void statement(Statement statement, Type returnType) {
+        switch (statement) {
+            case Statement.Declare declare -> {
+                final Type type = expression(declare.initializer(), declare.explicitType());
+                final List<String> names = declare.names();
+                for (int i = 0; i < names.size(); i++) {
+                    constants.remove(key(declare.slot() + i));
+                    functions.remove(key(declare.slot() + i));
+                }
+                if (names.size() != 1 || declare.declarationType() != DeclarationType.CONSTANT ||
+                        assigned.contains(names.getFirst())) return;
+                final long key = key(declare.slot());
+                if (declare.initializer() instanceof Expression.Constant(Value value) &&
+                        (value instanceof Value.FunctionDecl || value instanceof Value.ExternFunctionDecl)) {
+                    functions.put(key, value);
+                } else if (type != null) {
+                    constants.put(key, type);
+                }
+            }
+            case Statement.Assign assign -> {
+                for (Statement.Assign.Target target : assign.targets()) accessPoints(target.accessPoints());
+                expression(assign.expression(), DYNAMIC);
+            }
+            case Statement.Run run -> expression(run.expression(), null);
+            case Statement.Branch branch -> {
+                condition(branch.condition());
+                statement(branch.thenBranch(), returnType);
+                if (branch.elseBranch() != null) statement(branch.elseBranch(), returnType);
+            }
+            case Statement.Loop loop -> {
+                if (loop.iterable() != null) expression(loop.iterable(), null);
+                enter(loop.scope());
+                if (loop.declarations() != null) {
+                    for (int i = 0; i < loop.declarations().size(); i++) constants.remove(key(i));
+                }
+                statement(loop.body(), returnType);
+                depths.pop();
+            }
+            case Statement.Break ignored -> {
+            }
+            case Statement.Continue ignored -> {
+            }
+            case Statement.Join join -> statement(join.block(), returnType);
+            case Statement.Spawn spawn -> {
+                enter(spawn.scope());
+                statement(spawn.statement(), returnType);
+                depths.pop();
+            }
+            case Statement.Block block -> {
+                enter(block.scope());
+                for (Statement inner : block.statements()) statement(inner, returnType);
+                depths.pop();
+            }
+            case Statement.Return returnStatement -> {
+                if (returnStatement.expression() != null) expression(returnStatement.expression(), returnType);
+            }
+            case Statement.LoadLibrary loadLibrary -> {
+                for (Statement inner : loadLibrary.statements()) statement(inner, returnType);
+            }
+        }
+    }
+
+    private void function(Value.FunctionDecl functionDecl) {
+        enter(functionDecl.scope());
+        for (int i = 0; i < functionDecl.parameters().size(); i++) {
+            constants.remove(key(i));
+            functions.remove(key(i));
+        }
+        for (Statement statement : functionDecl.body()) statement(statement, functionDecl.returnType());
+        depths.pop();
+    }
+
+    private void condition(Expression expression) {
+        final Type type = expression(expression, null);
+        if (type != null && type != Type.BOOL) throw error("Condition must be a boolean: " + type.name());
+    }
+
+    private void accessPoints(List<AccessPoint> accessPoints) {
+        for (AccessPoint accessPoint : accessPoints) {
+            if (accessPoint instanceof AccessPoint.Index index) expression(index.expression(), null);
+        }
+    }
+
+    // EXPRESSIONS
+
+    /**
+     * Checks an expression cast to its explicit type, returns its static type or null if unknown.
+     */
+    private @Nullable Type expression(Expression expression, @Nullable Type explicitType) {
+        final Type type = switch (expression) {
+            case Expression.Constant constant -> switch (constant.value()) {
+                case Value.NumberLiteral ignored -> Type.NUMBER;
+                case Value.BooleanLiteral ignored -> Type.BOOL;
+                case Value.FunctionDecl functionDecl -> {
+                    function(functionDecl);
+                    yield new Type.Function(functionDecl.parameters(), functionDecl.returnType());
+                }
+                default -> null;
+            };
+            case Expression.Literal ignored -> {
+                if (explicitType == DYNAMIC) yield null;
+                if (explicitType == null) throw error("String literal must have explicit type");
+                if (!(explicitType instanceof Type.Identifier) || !standard(explicitType.name()))
+                    throw error("String literal cannot be " + explicitType.name());
+                yield new Standard(explicitType.name());
+            }
+            case Expression.Binary binary -> {
+                if (!standard(binary.name())) throw error("Unknown binary standard: " + binary.name());
+                yield new Standard(binary.name());
+            }
+            case Expression.Enum enumDeclaration -> {
+                for (Expression entry : enumDeclaration.entries().values()) expression(entry, enumDeclaration.type());
+                yield null;
+            }
+            case Expression.Variable variable -> variable.slot() != -1 ?
+                    constants.get(key(variable.depth(), variable.slot())) : null;
+            case Expression.Contextual ignored -> null;
+            case Expression.Access access -> {
+                final Type object = expression(access.object(), null);
+                if (object instanceof Type.Identifier(String name) && structs.containsKey(name) &&
+                        !access.accessPoints().isEmpty() &&
+                        access.accessPoints().getFirst() instanceof AccessPoint.Field(String component)) {
+                    final boolean found = structs.get(name).stream()
+                            .anyMatch(structDecl -> parameter(structDecl, component) != null);
+                    if (!found) throw error("Unknown field " + component + " of struct " + name);
+                }
+                accessPoints(access.accessPoints());
+                yield null;
+            }
+            case Expression.Constraint constraint -> {
+                expression(constraint.object(), null);
+                accessPoints(constraint.accessPoints());
+                expression(constraint.expression(), null);
+                yield null;
+            }
+            case Expression.VariableAwait ignored -> null;
+            case Expression.Call call -> {
+                final Value function = call.slot() != -1 ? functions.get(key(call.depth(), call.slot())) : null;
+                final List<Parameter> parameters = switch (function) {
+                    case Value.FunctionDecl functionDecl -> functionDecl.parameters();
+                    case Value.ExternFunctionDecl externFunctionDecl -> externFunctionDecl.parameters();
+                    case null, default -> null;
+                };
+                if (call.arguments() instanceof Parameter.Passed.Positional(List<Expression> arguments)) {
+                    if (parameters != null && parameters.size() != arguments.size()) {
+                        throw error("Function " + call.name() + " expects " + parameters.size() +
+                                " arguments, got " + arguments.size());
+                    }
+                    for (int i = 0; i < arguments.size(); i++) {
+                        expression(arguments.get(i), parameters != null ? parameters.get(i).type() : DYNAMIC);
+                    }
+                } else {
+                    passed(call.arguments(), DYNAMIC);
+                }
+                yield null;
+            }
+            case Expression.Select select -> {
+                for (Statement.Block block : select.blocks()) statement(block, DYNAMIC);
+                yield null;
+            }
+            case Expression.Initialization initialization -> initialization(initialization, explicitType);
+            case Expression.Range range -> {
+                expression(range.start(), null);
+                expression(range.end(), null);
+                expression(range.step(), null);
+                yield null;
+            }
+            case Expression.Operation operation -> {
+                final Type left = expression(operation.left(), explicitType);
+                final Type right = expression(operation.right(), explicitType);
+                yield operation(operation.operator(), left, right);
+            }
+            case Expression.Unary unary -> {
+                final Type operand = expression(unary.expression(), explicitType);
+                if (unary.operator() != Token.Type.EXCLAMATION) yield null;
+                if (operand != null && operand != Type.BOOL) throw error("Expected boolean, got: " + operand.name());
+                yield Type.BOOL;
+            }
+            case Expression.Ternary ternary -> {
+                condition(ternary.condition());
+                final Type thenBranch = expression(ternary.thenBranch(), null);
+                final Type elseBranch = expression(ternary.elseBranch(), null);
+                yield Objects.equals(thenBranch, elseBranch) ? thenBranch : null;
+            }
+        };
+        return cast(expression, type, explicitType);
+    }
+
+    private @Nullable Type initialization(Expression.Initialization initialization, @Nullable Type explicitType) {
+        final Type type = initialization.type() != null ? initialization.type() : explicitType;
+        final Parameter.Passed passed = initialization.parameters();
+        switch (type) {
+            case Type.Identifier(String name) -> {
+                final List<Value.StructDecl> declarations = structs.get(name);
+                if (declarations == null) {
+                    if (!typeValues) throw error("Unknown struct: " + name);
+                    passed(passed, DYNAMIC);
+                    return null;
+                }
+                final Value.StructDecl structDecl = declarations.size() == 1 ? declarations.getFirst() : null;
+                switch (passed) {
+                    case Parameter.Passed.Positional(List<Expression> expressions) -> {
+                        if (declarations.stream().allMatch(declaration -> declaration.parameters().size() < expressions.size()))
+                            throw error("Too many fields for struct " + name + ": " + expressions.size());
+                        for (int i = 0; i < expressions.size(); i++) {
+                            expression(expressions.get(i), structDecl != null ?
+                                    structDecl.parameters().get(i).type() : DYNAMIC);
+                        }
+                    }
+                    case Parameter.Passed.Named(Map<String, Expression> entries) -> {
+                        for (Map.Entry<String, Expression> entry : entries.entrySet()) {
+                            final String key = entry.getKey();
+                            if (declarations.stream().allMatch(declaration -> parameter(declaration, key) == null))
+                                throw error("Unknown field " + key + " of struct " + name);
+                            final Parameter parameter = structDecl != null ? parameter(structDecl, key) : null;
+                            expression(entry.getValue(), parameter != null ? parameter.type() : DYNAMIC);
+                        }
+                    }
+                    case Parameter.Passed.Supplied supplied -> expression(supplied.expression(), DYNAMIC);
+                }
+                return new Type.Identifier(name);
+            }
+            case Type.Array arrayType -> {
+                switch (passed) {
+                    case Parameter.Passed.Positional(List<Expression> expressions) -> {
+                        for (Expression expression : expressions) expression(expression, arrayType.type());
+                    }
+                    case Parameter.Passed.Supplied(Expression expression) -> expression(expression, null);
+                    case Parameter.Passed.Named named -> passed(named, DYNAMIC);
+                }
+                return arrayType;
+            }
+            case null, default -> {
+                passed(passed, DYNAMIC);
+                return null;
+            }
+        }
+    }
+
+    private void passed(Parameter.Passed passed, @Nullable Type explicitType) {
+        switch (passed) {
+            case Parameter.Passed.Positional positional -> {
+                for (Expression expression : positional.expressions()) expression(expression, explicitType);
+            }
+            case Parameter.Passed.Named named -> {
+                for (Expression expression : named.entries().values()) expression(expression, explicitType);
+            }
+            case Parameter.Passed.Supplied supplied -> expression(supplied.expression(), explicitType);
+        }
+    }
+
+    private static @Nullable Type operation(Token.Type operator, @Nullable Type left, @Nullable Type right) {
+        if (left == Type.NUMBER && right == Type.NUMBER) {
+            return switch (operator) {
+                case PLUS, MINUS, STAR, SLASH -> Type.NUMBER;
+                case EQUAL_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> Type.BOOL;
+                default -> null;
+            };
+        }
+        if (left == Type.BOOL && right == Type.BOOL) {
+            return switch (operator) {
+                case AND, OR, EQUAL_EQUAL -> Type.BOOL;
+                default -> null;
+            };
+        }
+        if (left instanceof Standard(String name) && left.equals(right)) {
+            final boolean fixed = BinStandard.get(name).width() > 0;
+            return switch (operator) {
+                case PLUS -> left;
+                case MINUS, STAR, SLASH, MODULO -> fixed ? left : null;
+                case EQUAL_EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> fixed ? Type.BOOL : null;
+                default -> null;
+            };
+        }
+        // Element-wise on number arrays, typed like the array operand
+        final Type array = left instanceof Type.Array ? left : right;
+        if (array instanceof Type.Array(Type element, long ignored) && element == Type.NUMBER &&
+                numbers(left) && numbers(right)) {
+            return switch (operator) {
+                case PLUS, MINUS, STAR, SLASH -> array;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private static boolean numbers(@Nullable Type type) {
+        return type == Type.NUMBER || type instanceof Type.Array(Type element, long ignored) && element == Type.NUMBER;
+    }
+
+    // CASTS
+
+    /**
+     * Returns the static type of a value cast to its explicit type, and records the cast if proven.
+     */
+    private @Nullable Type cast(Expression expression, @Nullable Type type, @Nullable Type explicitType) {
+        if (explicitType == null || explicitType instanceof Type.Primitive && explicitType != DYNAMIC) return type;
+        if (explicitType == DYNAMIC) return null;
+        if (proven(explicitType, type)) {
+            proven.put(expression, explicitType);
+            return type;
+        }
+        if (explicitType instanceof Type.Identifier(String name) && unionOnly(name) &&
+                type instanceof Type.Identifier(String struct) && !structs.containsKey(name)) {
+            final boolean member = unions.get(name).stream()
+                    .anyMatch(unionDecl -> unionDecl.entries().containsKey(struct));
+            if (!member) throw error("Struct " + struct + " is not part of union " + name);
+        }
+        return null;
+    }
+
+    private boolean proven(Type explicitType, @Nullable Type type) {
+        return switch (explicitType) {
+            case Type.Array arrayType ->
+                    arrayType.length() != -1 || type instanceof Type.Array valueType && valueType.length() == -1;
+            case Type.Function ignored -> true;
+            case Type.Identifier(String name) -> {
+                if (typeValues) yield false;
+                if (!unions.containsKey(name) && !enums.contains(name) && !distincts.contains(name)) yield true;
+                // Unions only convert structs
+                yield unionOnly(name) && type != null && !(type instanceof Type.Identifier);
+            }
+            default -> false;
+        };
+    }
+
+    private boolean unionOnly(String name) {
+        return !typeValues && unions.containsKey(name) && !enums.contains(name) && !distincts.contains(name);
+    }
+
+    private static boolean standard(String name) {
+        try {
+            BinStandard.get(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static @Nullable Parameter parameter(Value.StructDecl structDecl, String name) {
+        for (Parameter parameter : structDecl.parameters()) {
+            if (parameter.name().equals(name)) return parameter;
+        }
+        return null;
+    }
+
+    private void enter(@Nullable Scope scope) {
+        depths.push(scope != null ? scope.depth() : depths.isEmpty() ? 0 : depths.peek() + 1);
+    }
+
+    private long key(int slot) {
+        return key(depths.isEmpty() ? 0 : depths.peek(), slot);
+    }
+
+    private static long key(int depth, int slot) {
+        return (long) depth << 32 | slot;
+    }
+
+    private static RuntimeException error(String message) {
+        return new RuntimeException("Type error: " + message);
+    }
+}
@@ -5,6 +5,7 @@ import org.click.value.Value;
 import org.click.value.ValueSerializer;
 
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -38,6 +39,19 @@ public final class BuiltinEx {
         }
     }
 
+    public static final class Sleep implements ExternalFunction {
+        @Override
+        public Value run(Value... args) {
+            try {
+                Thread.sleep(getInteger(args, 0));
+            } catch (InterruptedException e) {
+                // Such as a select branch losing, which must not run further
+                return new Value.Interrupt();
+            }
+            return null;
+        }
+    }
+
     private static int getInteger(Value[] args, int index) {
         final Value value = args[index];
         if (!(value instanceof Value.Binary binary))
@@ -45,7 +59,7 @@ public final class BuiltinEx {
         final BinStandard standard = binary.standard();
         if (!standard.equals(BinStandard.I32))
             throw new IllegalArgumentException("Expected binary value of type I32, got " + standard);
-        return binary.segment().get(ValueLayout.JAVA_INT, 0);
+        return (int) binary.bits();
     }
 
     private static String getString(Value[] args, int index) {
@@ -84,8 +98,20 @@ public final class BuiltinEx {
     }
 
     public static final class ConnectServer implements ExternalFunction {
-        private final AtomicInteger counter = new AtomicInteger(0);
-        private final Map<Integer, SocketChannel> sockets = new ConcurrentHashMap<>();
+        private final AtomicInteger counter;
+        private final Map<Integer, SocketChannel> sockets;
+
+        public ConnectServer() {
+            this(new AtomicInteger(0), new ConcurrentHashMap<>());
+        }
+
+        /**
+         * Numbers the sockets along with other ones, such as accepted clients, to use them through the same externals.
+         */
+        public ConnectServer(AtomicInteger counter, Map<Integer, SocketChannel> sockets) {
+            this.counter = counter;
+            this.sockets = sockets;
+        }
 
         @Override
         public Value run(Value... args) {
@@ -131,11 +157,18 @@ public final class BuiltinEx {
             }
         }
 
+        public AtomicInteger counter() {
+            return counter;
+        }
+
         public Map<Integer, SocketChannel> sockets() {
             return sockets;
         }
     }
 
+    /**
+     * Writes text or the first bytes of a byte array to a socket, returning whether the socket is still open.
+     */
     public static final class Send implements ExternalFunction {
         private final Map<Integer, SocketChannel> sockets;
 
@@ -146,18 +179,65 @@ public final class BuiltinEx {
         @Override
         public Value run(Value... args) {
             final int serverFd = getInteger(args, 0);
-            final String data = getString(args, 1);
             final SocketChannel socket = sockets.get(serverFd);
             if (socket == null) throw new RuntimeException("Socket not found: " + serverFd);
+            // Byte arrays are written from their memory, with the length to send
+            final MemorySegment segment = args[1] instanceof Value.Array array ? array.segment() : null;
+            final ByteBuffer[] buffers;
+            if (segment != null) {
+                final int length = getInteger(args, 2);
+                if (length < 0 || length > segment.byteSize()) {
+                    throw new IllegalArgumentException(
+                            "Send length out of bounds: " + length + " in " + segment.byteSize());
+                }
+                buffers = new ByteBuffer[]{segment.asSlice(0, length).asByteBuffer()};
+            } else if (args[1] instanceof Value.Binary binary && binary.standard() == BinStandard.UTF8) {
+                // Concatenated text is gathered from its pieces
+                buffers = binary.pieces().stream().map(MemorySegment::asByteBuffer).toArray(ByteBuffer[]::new);
+            } else {
+                buffers = new ByteBuffer[]{ByteBuffer.wrap(getString(args, 1).getBytes(StandardCharsets.UTF_8))};
+            }
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) remaining += buffer.remaining();
+            try {
+                while (remaining > 0) remaining -= socket.write(buffers);
+            } catch (IOException e) {
+                return Value.BooleanLiteral.FALSE;
+            }
+            return Value.BooleanLiteral.TRUE;
+        }
+    }
+
+    /**
+     * Reads a socket into a byte array, returning a RecvResult struct with the read length and whether the socket
+     * is still open.
+     * <p>
+     * The array is filled in place, the values holding it and its slices see the received bytes. Its previous
+     * versions are copied first and keep their own.
+     */
+    public static final class Recv implements ExternalFunction {
+        private final Map<Integer, SocketChannel> sockets;
+
+        public Recv(Map<Integer, SocketChannel> sockets) {
+            this.sockets = sockets;
+        }
 
-            final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        @Override
+        public Value run(Value... args) {
+            final int serverFd = getInteger(args, 0);
+            final SocketChannel socket = sockets.get(serverFd);
+            if (socket == null) throw new RuntimeException("Socket not found: " + serverFd);
+            if (!(args[1] instanceof Value.Array array) || array.segment() == null)
+                throw new IllegalArgumentException("Expected byte array, got " + args[1]);
+            int length;
             try {
-                socket.write(buffer);
+                length = socket.read(array.segment().asByteBuffer());
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                length = -1;
             }
-            return null;
+            return new Value.Struct("RecvResult", Map.of(
+                    "length", Value.Binary.I32(Math.max(length, 0)),
+                    "success", Value.BooleanLiteral.of(length >= 0)));
         }
     }
 
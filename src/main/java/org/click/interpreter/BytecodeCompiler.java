@@ -0,0 +1,817 @@
+package org.click.interpreter;
+
+import org.click.BinStandard;
+import org.click.DeclarationType;
+import org.click.Token;
+import org.click.Type;
+import org.click.external.ExternalFunction;
+import org.click.value.LiteralValue;
+import org.click.value.Value;
+import org.click.value.ValueOperator;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.constant.*;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static java.lang.constant.ConstantDescs.*;
+import static org.click.Ast.*;
+
+/**
+ * Compiles function bodies to JVM bytecode with the ClassFile API, each function becoming a hidden class implementing
+ * {@link ClosureCompiler.Executable}.
+ * <p>
+ * Variables of the function are held in JVM locals and external functions are linked with invokedynamic, everything
+ * else calls into {@link BytecodeRuntime}. Numbers stay boxed in {@link Value.NumberLiteral} so that overflows are
+ * still promoted. Functions using lambdas, spawns, shared variables or selects are left to the closure compiler.
+ * <p>
+ * Hot functions and loops promoted by the tiered mode are compiled with their variables left in the frames of the
+ * walker, so that a loop can be replaced between two iterations. Unsupported statements and expressions then run
+ * their closures instead of failing the compilation.
+ */
+final class BytecodeCompiler implements ClosureCompiler.FunctionCompiler {
+    private static final ClassDesc CD_VALUE = desc(Value.class);
+    private static final ClassDesc CD_TYPE = desc(Type.class);
+    private static final ClassDesc CD_TOKEN_TYPE = desc(Token.Type.class);
+    private static final ClassDesc CD_LITERAL_VALUE = desc(LiteralValue.class);
+    private static final ClassDesc CD_DECLARATION_TYPE = desc(DeclarationType.class);
+    private static final ClassDesc CD_EXECUTOR = desc(Executor.class);
+    private static final ClassDesc CD_WALKER = desc(ScopeWalker.class);
+    private static final ClassDesc CD_RUNTIME = desc(BytecodeRuntime.class);
+    private static final ClassDesc CD_OPERATOR = desc(ValueOperator.class);
+    private static final ClassDesc CD_EXECUTABLE = desc(ClosureCompiler.Executable.class);
+    private static final ClassDesc CD_EVALUABLE = desc(ClosureCompiler.Evaluable.class);
+    private static final ClassDesc CD_SCOPE = desc(Scope.class);
+    private static final ClassDesc CD_CURRENT_FUNCTION = desc(Executor.CurrentFunction.class);
+    private static final ClassDesc CD_FUNCTION = ClassDesc.of(BytecodeCompiler.class.getPackageName(), "CompiledFunction");
+    private static final DirectMethodHandleDesc BSM_EXTERNAL = MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC,
+            CD_RUNTIME, "linkExternal", MethodTypeDesc.of(desc(CallSite.class), CD_MethodHandles_Lookup, CD_String, CD_MethodType));
+
+    // Locals of the generated execute method
+    private static final int EXECUTOR = 1;
+    private static final int WALKER = 2;
+
+    private final Map<String, ExternalFunction> externals;
+    private final Map<Integer, Value.ExternFunctionDecl> externDeclarations;
+    private final Map<Expression, Type> provenCasts;
+
+    BytecodeCompiler(Map<String, ExternalFunction> externals, List<Statement> program,
+                     Map<Expression, Type> provenCasts) {
+        this.externals = externals;
+        this.externDeclarations = externDeclarations(program);
+        this.provenCasts = provenCasts;
+    }
+
+    /**
+     * Returns the external functions declared by the program, indexed by their global slot.
+     */
+    static Map<Integer, Value.ExternFunctionDecl> externDeclarations(List<Statement> program) {
+        Map<Integer, Value.ExternFunctionDecl> declarations = new HashMap<>();
+        for (Statement statement : program) {
+            if (statement instanceof Statement.LoadLibrary loadLibrary) {
+                declarations.putAll(externDeclarations(loadLibrary.statements()));
+            } else if (statement instanceof Statement.Declare declare && declare.names().size() == 1 &&
+                    declare.declarationType() == DeclarationType.CONSTANT &&
+                    declare.initializer() instanceof Expression.Constant(Value.ExternFunctionDecl externFunctionDecl)) {
+                declarations.put(declare.slot(), externFunctionDecl);
+            }
+        }
+        return declarations;
+    }
+
+    /**
+     * Returns the compiled function, or null if its body uses unsupported constructs.
+     */
+    @Override
+    public @Nullable ClosureCompiler.Executable compile(Value.FunctionDecl functionDecl) {
+        final Scope scope = functionDecl.scope();
+        if (scope == null || scope.depth() < 1) return null;
+        return define(functionDecl, scope.depth(), null, emitter -> emitter.emit(functionDecl));
+    }
+
+    /**
+     * Falls back to frame variables when the function cannot be fully compiled.
+     */
+    @Override
+    public @Nullable ClosureCompiler.Executable promote(Value.FunctionDecl functionDecl, ClosureCompiler closures) {
+        final ClosureCompiler.Executable compiled = compile(functionDecl);
+        final Scope scope = functionDecl.scope();
+        if (compiled != null || scope == null || scope.depth() < 1) return compiled;
+        return define(functionDecl, scope.depth(), closures, emitter -> emitter.emit(functionDecl));
+    }
+
+    /**
+     * Compiles the remaining iterations of an infinite loop, entered with the loop scope of the walker.
+     */
+    @Override
+    public @Nullable ClosureCompiler.Executable promote(Statement.Loop loop, ClosureCompiler closures) {
+        final Scope scope = loop.scope();
+        if (loop.iterable() != null || scope == null) return null;
+        return define(loop, scope.depth(), closures, emitter -> emitter.emitLoop(loop));
+    }
+
+    private @Nullable ClosureCompiler.Executable define(Object source, int depth, @Nullable ClosureCompiler closures,
+                                                        Consumer<FunctionEmitter> emission) {
+        final List<Object> classData = new ArrayList<>();
+        classData.add(externals);
+        final byte[] bytes;
+        try {
+            bytes = ClassFile.of().build(CD_FUNCTION, classBuilder -> classBuilder
+                    .withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC)
+                    .withInterfaceSymbols(CD_EXECUTABLE)
+                    .withMethodBody(INIT_NAME, MTD_void, ClassFile.ACC_PUBLIC, code -> code
+                            .aload(0)
+                            .invokespecial(CD_Object, INIT_NAME, MTD_void)
+                            .return_())
+                    .withMethodBody("execute", MethodTypeDesc.of(CD_VALUE, CD_EXECUTOR), ClassFile.ACC_PUBLIC,
+                            code -> emission.accept(new FunctionEmitter(code, classData, depth, closures))));
+        } catch (Unsupported e) {
+            return null;
+        }
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, List.copyOf(classData), true);
+            return (ClosureCompiler.Executable) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to load compiled code: " + source, e);
+        }
+    }
+
+    private static ClassDesc desc(Class<?> type) {
+        return type.describeConstable().orElseThrow();
+    }
+
+    /**
+     * Thrown while emitting a function that cannot be compiled.
+     */
+    private static final class Unsupported extends RuntimeException {
+        Unsupported(Object construct) {
+            super("Unsupported: " + construct, null, false, false);
+        }
+    }
+
+    /**
+     * Explicit type of an expression, either known at compile time or held in a local.
+     */
+    private record ExplicitType(@Nullable Type type, int local) {
+        static final ExplicitType NONE = new ExplicitType(null, -1);
+
+        static ExplicitType of(@Nullable Type type) {
+            return type != null ? new ExplicitType(type, -1) : NONE;
+        }
+    }
+
+    /**
+     * Jump targets of the innermost loop, and the number of blocks entered in the frames when its body starts.
+     */
+    private record LoopLabels(Label next, Label end, int frames) {
+    }
+
+    private final class FunctionEmitter {
+        private final CodeBuilder code;
+        private final List<Object> classData;
+        private final int functionDepth;
+        // Set when variables live in the frames, unsupported nodes then run their closures
+        private final @Nullable ClosureCompiler closures;
+        private @Nullable Value.FunctionDecl functionDecl;
+        // JVM local of each variable, by depth and slot
+        private final Map<Long, Integer> variables = new HashMap<>();
+        private int nextLocal = WALKER + 1;
+        private int depth;
+        // Blocks entered in the frames by the emitted code
+        private int frames;
+        private @Nullable LoopLabels loop;
+
+        FunctionEmitter(CodeBuilder code, List<Object> classData, int depth, @Nullable ClosureCompiler closures) {
+            this.code = code;
+            this.classData = classData;
+            this.functionDepth = depth;
+            this.closures = closures;
+            this.depth = depth;
+        }
+
+        void emit(Value.FunctionDecl functionDecl) {
+            this.functionDecl = functionDecl;
+            code.aload(EXECUTOR)
+                    .invokevirtual(CD_EXECUTOR, "walker", MethodTypeDesc.of(CD_WALKER))
+                    .astore(WALKER);
+            if (closures == null) {
+                for (int i = 0; i < functionDecl.parameters().size(); i++) {
+                    code.aload(WALKER)
+                            .constantInstruction(functionDepth)
+                            .constantInstruction(i)
+                            .invokevirtual(CD_WALKER, "find", MethodTypeDesc.of(CD_VALUE, CD_int, CD_int))
+                            .astore(variable(functionDepth, i));
+                }
+            }
+            statements(functionDecl.body());
+            code.aconst_null().areturn();
+        }
+
+        /**
+         * Entered between two iterations, the loop scope and flag were set by the closure that started the loop.
+         */
+        void emitLoop(Statement.Loop loopStatement) {
+            code.aload(EXECUTOR)
+                    .invokevirtual(CD_EXECUTOR, "walker", MethodTypeDesc.of(CD_WALKER))
+                    .astore(WALKER);
+            final LoopLabels labels = new LoopLabels(code.newLabel(), code.newLabel(), frames);
+            code.labelBinding(labels.next());
+            body(loopStatement, labels);
+            code.goto_(labels.next())
+                    .labelBinding(labels.end())
+                    .aconst_null().areturn();
+        }
+
+        // STATEMENTS
+
+        private void statements(List<Statement> statements) {
+            for (Statement statement : statements) statement(statement, true);
+        }
+
+        private void statement(Statement statement, boolean declarations) {
+            if (!compiled(statement, declarations)) closure(statement);
+        }
+
+        /**
+         * Emits a supported statement, returns false without emitting anything otherwise.
+         * Declarations held in JVM locals are only compiled directly inside blocks, where they always run before being
+         * read.
+         */
+        private boolean compiled(Statement statement, boolean declarations) {
+            switch (statement) {
+                case Statement.Declare declare -> {
+                    if (closures != null) {
+                        // Registered in the current frame, with the checks of the executor
+                        code.aload(EXECUTOR)
+                                .constantInstruction(constant(declare.names(), CD_List))
+                                .constantInstruction(declare.slot())
+                                .getstatic(CD_DECLARATION_TYPE, declare.declarationType().name(), CD_DECLARATION_TYPE);
+                        expression(declare.initializer(), ExplicitType.of(declare.explicitType()));
+                        code.invokevirtual(CD_EXECUTOR, "registerMulti",
+                                MethodTypeDesc.of(CD_void, CD_List, CD_int, CD_DECLARATION_TYPE, CD_VALUE));
+                        return true;
+                    }
+                    if (!declarations || declare.names().size() != 1 ||
+                            declare.declarationType() == DeclarationType.SHARED) return false;
+                    expression(declare.initializer(), ExplicitType.of(declare.explicitType()));
+                    code.getstatic(CD_DECLARATION_TYPE, declare.declarationType().name(), CD_DECLARATION_TYPE);
+                    runtime("declare", CD_VALUE, CD_VALUE, CD_DECLARATION_TYPE);
+                    code.astore(variable(depth, declare.slot()));
+                }
+                case Statement.Assign assign -> {
+                    return assign(assign);
+                }
+                case Statement.Run run -> {
+                    expression(run.expression(), ExplicitType.NONE);
+                    result();
+                }
+                case Statement.Branch branch -> {
+                    final Label elseLabel = code.newLabel();
+                    final Label endLabel = code.newLabel();
+                    expression(branch.condition(), ExplicitType.NONE);
+                    runtime("condition", CD_boolean, CD_VALUE);
+                    code.ifeq(elseLabel);
+                    statement(branch.thenBranch(), false);
+                    code.goto_(endLabel);
+                    code.labelBinding(elseLabel);
+                    if (branch.elseBranch() != null) statement(branch.elseBranch(), false);
+                    code.labelBinding(endLabel);
+                }
+                case Statement.Loop loopStatement -> {
+                    return loop(loopStatement);
+                }
+                case Statement.Break ignored -> {
+                    if (loop == null) return false;
+                    exitBlocks(loop.frames());
+                    code.goto_(loop.end());
+                }
+                case Statement.Continue ignored -> {
+                    if (loop == null) return false;
+                    exitBlocks(loop.frames());
+                    code.goto_(loop.next());
+                }
+                case Statement.Block block -> {
+                    if (closures != null) enterBlock(block.scope());
+                    depth++;
+                    statements(block.statements());
+                    depth--;
+                    if (closures != null) exitBlock();
+                }
+                case Statement.Return returnStatement -> {
+                    // Empty returns do not stop the function
+                    if (returnStatement.expression() != null) {
+                        expression(returnStatement.expression(), returnType());
+                        result();
+                    }
+                }
+                case Statement.Join ignored -> {
+                    return false;
+                }
+                case Statement.Spawn ignored -> {
+                    return false;
+                }
+                case Statement.LoadLibrary ignored -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Runs the closure of a statement and consumes its result.
+         */
+        private void closure(Statement statement) {
+            final ClosureCompiler.Executable closure = closures != null ? closures.closure(statement) : null;
+            if (closure == null) throw new Unsupported(statement);
+            code.constantInstruction(constant(closure, CD_EXECUTABLE))
+                    .aload(EXECUTOR)
+                    .invokeinterface(CD_EXECUTABLE, "execute", MethodTypeDesc.of(CD_VALUE, CD_EXECUTOR));
+            result();
+        }
+
+        private ExplicitType returnType() {
+            if (functionDecl != null) return ExplicitType.of(functionDecl.returnType());
+            // A promoted loop does not know its function, read the return type like the closures do
+            final int local = local();
+            code.aload(EXECUTOR)
+                    .invokevirtual(CD_EXECUTOR, "currentFunction", MethodTypeDesc.of(CD_CURRENT_FUNCTION))
+                    .invokevirtual(CD_CURRENT_FUNCTION, "returnType", MethodTypeDesc.of(CD_TYPE))
+                    .astore(local);
+            return new ExplicitType(null, local);
+        }
+
+        /**
+         * Consumes the result of a statement, a non-null value ends the function or the current loop iteration.
+         */
+        private void result() {
+            final Label skip = code.newLabel();
+            code.dup().if_null(skip);
+            escape();
+            code.labelBinding(skip);
+            code.pop();
+        }
+
+        private void escape() {
+            if (loop == null) {
+                exitBlocks(0);
+                code.areturn();
+            } else {
+                exitBlocks(loop.frames());
+                runtime("iterate", CD_boolean, CD_VALUE);
+                code.ifeq(loop.end()).goto_(loop.next());
+            }
+        }
+
+        private void enterBlock(@Nullable Scope scope) {
+            if (scope == null) throw new Unsupported("Unresolved block");
+            code.aload(WALKER)
+                    .constantInstruction(constant(scope, CD_SCOPE))
+                    .invokevirtual(CD_WALKER, "enterBlock", MethodTypeDesc.of(CD_void, CD_SCOPE));
+            frames++;
+        }
+
+        private void exitBlock() {
+            code.aload(WALKER).invokevirtual(CD_WALKER, "exitBlock", MTD_void);
+            frames--;
+        }
+
+        /**
+         * Leaves the blocks entered since a jump target, without changing the count of the code that follows.
+         */
+        private void exitBlocks(int target) {
+            for (int i = target; i < frames; i++) {
+                code.aload(WALKER).invokevirtual(CD_WALKER, "exitBlock", MTD_void);
+            }
+        }
+
+        private boolean assign(Statement.Assign assign) {
+            if (assign.targets().size() != 1) return false;
+            final Statement.Assign.Target target = assign.targets().getFirst();
+            final String name = target.name();
+            final List<AccessPoint> accessPoints = target.accessPoints();
+            if (target.slot() == -1) return false;
+            // The explicit type is taken from the current value
+            load(name, target.depth(), target.slot());
+            accessPoints(accessPoints);
+            runtime("assignmentType", CD_TYPE, CD_VALUE);
+            final int typeLocal = local();
+            code.astore(typeLocal);
+            expression(assign.expression(), new ExplicitType(null, typeLocal));
+            final int evaluated = local();
+            code.astore(evaluated);
+            final Label assigned = code.newLabel();
+            code.aload(evaluated);
+            runtime("interrupted", CD_boolean, CD_VALUE);
+            code.ifeq(assigned).aload(evaluated);
+            escape();
+            code.labelBinding(assigned);
+            // Tracked value
+            code.aload(EXECUTOR).constantInstruction(name);
+            load(name, target.depth(), target.slot());
+            if (accessPoints.isEmpty()) {
+                code.aload(evaluated);
+                runtime("share", CD_VALUE, CD_EXECUTOR, CD_String, CD_VALUE, CD_VALUE);
+            } else {
+                code.constantInstruction(accessPoints.size()).anewarray(CD_Object);
+                for (int i = 0; i < accessPoints.size(); i++) {
+                    code.dup().constantInstruction(i);
+                    switch (accessPoints.get(i)) {
+                        case AccessPoint.Field field -> code.constantInstruction(field.component());
+                        case AccessPoint.Index index -> expression(index.expression(), ExplicitType.NONE);
+                    }
+                    code.aastore();
+                }
+                code.aload(evaluated);
+                runtime("assign", CD_VALUE, CD_EXECUTOR, CD_String, CD_VALUE, CD_Object.arrayType(), CD_VALUE);
+            }
+            store(target.depth(), target.slot());
+            return true;
+        }
+
+        private boolean loop(Statement.Loop loopStatement) {
+            final List<Statement.Loop.Declaration> declarations =
+                    Objects.requireNonNullElse(loopStatement.declarations(), List.of());
+            if (declarations.size() > 2 || declarations.stream().anyMatch(Statement.Loop.Declaration::ref))
+                return false;
+            final Label head = code.newLabel();
+            final int previousLoop = local();
+            code.aload(EXECUTOR);
+            runtime("enterLoop", CD_boolean, CD_EXECUTOR);
+            code.istore(previousLoop);
+            if (closures != null) enterBlock(loopStatement.scope());
+            final LoopLabels labels = new LoopLabels(code.newLabel(), code.newLabel(), frames);
+            depth++;
+            final Expression iterable = loopStatement.iterable();
+            if (iterable == null) {
+                // Infinite loop
+                code.labelBinding(head).labelBinding(labels.next());
+                body(loopStatement, labels);
+                code.goto_(head);
+            } else if (iterable instanceof Expression.Range range) {
+                // Ranges are iterated without being materialized
+                final int current = local2(), size = local2(), step = local2(), count = local2();
+                expression(range.start(), ExplicitType.NONE);
+                expression(range.end(), ExplicitType.NONE);
+                expression(range.step(), ExplicitType.NONE);
+                for (int local : new int[]{step, size, current}) {
+                    runtime("integer", CD_long, CD_VALUE);
+                    code.lstore(local);
+                }
+                // The loop counts its iterations, the value after the last one may overflow
+                code.lload(current).lload(size).lload(step);
+                runtime("rangeSize", CD_long, CD_long, CD_long, CD_long);
+                code.lstore(size).constantInstruction(0L).lstore(count);
+                code.labelBinding(head)
+                        .lload(count).lload(size).lcmp().ifge(labels.end());
+                if (declarations.size() == 2) {
+                    code.lload(count);
+                    runtime("number", CD_VALUE, CD_long);
+                    declareElement(0);
+                }
+                if (!declarations.isEmpty()) {
+                    code.lload(current);
+                    runtime("number", CD_VALUE, CD_long);
+                    declareElement(declarations.size() - 1);
+                }
+                body(loopStatement, labels);
+                code.labelBinding(labels.next())
+                        .lload(current).lload(step).ladd().lstore(current)
+                        .lload(count).constantInstruction(1L).ladd().lstore(count)
+                        .goto_(head);
+            } else if (iterable instanceof Expression.Constraint constraint &&
+                    Filter.contextual(constraint.expression())) {
+                // Elements are tested before their iteration, without collecting the satisfying ones. Conditions
+                // reading variables are collected beforehand instead, the body could change them
+                final int values = local(), index = local(), count = local(), element = local();
+                final MethodTypeDesc get = MethodTypeDesc.of(CD_Object, CD_int);
+                expression(constraint.object(), ExplicitType.NONE);
+                accessPoints(constraint.accessPoints());
+                runtime("elements", CD_List, CD_VALUE);
+                code.astore(values).constantInstruction(0).istore(index).constantInstruction(0).istore(count);
+                code.labelBinding(head)
+                        .iload(index).aload(values).invokeinterface(CD_List, "size", MethodTypeDesc.of(CD_int))
+                        .if_icmpge(labels.end());
+                code.aload(values).iload(index).invokeinterface(CD_List, "get", get).checkcast(CD_VALUE)
+                        .astore(element)
+                        .aload(EXECUTOR).aload(element);
+                runtime("contextual", CD_void, CD_EXECUTOR, CD_VALUE);
+                expression(constraint.expression(), ExplicitType.NONE);
+                code.aload(EXECUTOR);
+                runtime("satisfies", CD_boolean, CD_VALUE, CD_EXECUTOR);
+                code.ifeq(labels.next());
+                if (declarations.size() == 2) {
+                    code.iload(count).i2l();
+                    runtime("number", CD_VALUE, CD_long);
+                    declareElement(0);
+                }
+                if (!declarations.isEmpty()) {
+                    code.aload(element);
+                    declareElement(declarations.size() - 1);
+                }
+                code.iinc(count, 1);
+                body(loopStatement, labels);
+                code.labelBinding(labels.next())
+                        .iload(index).constantInstruction(1).iadd().istore(index)
+                        .goto_(head);
+            } else {
+                final int values = local(), index = local();
+                final MethodTypeDesc get = MethodTypeDesc.of(CD_Object, CD_int);
+                expression(iterable, ExplicitType.NONE);
+                runtime("elements", CD_List, CD_VALUE);
+                code.astore(values).constantInstruction(0).istore(index);
+                code.labelBinding(head)
+                        .iload(index).aload(values).invokeinterface(CD_List, "size", MethodTypeDesc.of(CD_int))
+                        .if_icmpge(labels.end());
+                if (declarations.size() == 2) {
+                    code.iload(index).i2l();
+                    runtime("number", CD_VALUE, CD_long);
+                    declareElement(0);
+                }
+                if (!declarations.isEmpty()) {
+                    code.aload(values).iload(index).invokeinterface(CD_List, "get", get).checkcast(CD_VALUE);
+                    declareElement(declarations.size() - 1);
+                }
+                body(loopStatement, labels);
+                code.labelBinding(labels.next())
+                        .iload(index).constantInstruction(1).iadd().istore(index)
+                        .goto_(head);
+            }
+            code.labelBinding(labels.end());
+            depth--;
+            if (closures != null) exitBlock();
+            code.aload(EXECUTOR).iload(previousLoop);
+            runtime("exitLoop", CD_void, CD_EXECUTOR, CD_boolean);
+            return true;
+        }
+
+        /**
+         * Stores the pushed value of a loop declaration.
+         */
+        private void declareElement(int slot) {
+            if (closures == null) {
+                code.astore(variable(depth, slot));
+            } else {
+                final int value = local();
+                code.astore(value)
+                        .aload(WALKER).constantInstruction(slot).aload(value)
+                        .invokevirtual(CD_WALKER, "register", MethodTypeDesc.of(CD_void, CD_int, CD_VALUE));
+            }
+        }
+
+        private void body(Statement.Loop loopStatement, LoopLabels labels) {
+            final LoopLabels outerLoop = this.loop;
+            this.loop = labels;
+            // The loop scope is only entered once, declarations directly in it are not compiled to locals
+            statement(loopStatement.body(), false);
+            this.loop = outerLoop;
+        }
+
+        // EXPRESSIONS
+
+        /**
+         * Pushes the value of an expression, cast to its explicit type.
+         */
+        private void expression(Expression expression, ExplicitType explicitType) {
+            if (compiled(expression, explicitType)) {
+                cast(expression, explicitType);
+            } else {
+                closure(expression, explicitType);
+            }
+        }
+
+        /**
+         * Pushes the value of a supported expression, returns false without emitting anything otherwise.
+         */
+        private boolean compiled(Expression expression, ExplicitType explicitType) {
+            switch (expression) {
+                case Expression.Constant constant -> {
+                    final Value value = constant.value();
+                    if (!(value instanceof Value.NumberLiteral) && !(value instanceof Value.BooleanLiteral) &&
+                            !(value instanceof Value.Binary)) return false;
+                    code.constantInstruction(constant(value, CD_VALUE));
+                }
+                case Expression.Literal literal -> {
+                    if (explicitType.local() != -1) {
+                        code.constantInstruction(constant(literal.value(), CD_LITERAL_VALUE))
+                                .aload(explicitType.local());
+                        runtime("literal", CD_VALUE, CD_LITERAL_VALUE, CD_TYPE);
+                    } else {
+                        final Type type = explicitType.type();
+                        final Value value = type != null ? binary(type.name(), literal.value()) : null;
+                        if (value == null) return false;
+                        code.constantInstruction(constant(value, CD_VALUE));
+                    }
+                }
+                case Expression.Binary binary -> {
+                    final Value value = binary(binary.name(), binary.value());
+                    if (value == null) return false;
+                    code.constantInstruction(constant(value, CD_VALUE));
+                }
+                case Expression.Variable variable -> {
+                    if (variable.slot() == -1) return false;
+                    load(variable.name(), variable.depth(), variable.slot());
+                }
+                case Expression.Access access -> {
+                    expression(access.object(), ExplicitType.NONE);
+                    accessPoints(access.accessPoints());
+                }
+                case Expression.Call call -> {
+                    return call(call);
+                }
+                case Expression.Range range -> {
+                    expression(range.start(), ExplicitType.NONE);
+                    expression(range.end(), ExplicitType.NONE);
+                    expression(range.step(), ExplicitType.NONE);
+                    runtime("range", CD_VALUE, CD_VALUE, CD_VALUE, CD_VALUE);
+                }
+                case Expression.Operation operation -> {
+                    code.getstatic(CD_TOKEN_TYPE, operation.operator().name(), CD_TOKEN_TYPE);
+                    expression(operation.left(), explicitType);
+                    expression(operation.right(), explicitType);
+                    code.invokestatic(CD_OPERATOR, "operate", MethodTypeDesc.of(CD_VALUE, CD_TOKEN_TYPE, CD_VALUE, CD_VALUE));
+                }
+                case Expression.Unary unary -> {
+                    if (unary.operator() != Token.Type.EXCLAMATION) return false;
+                    expression(unary.expression(), explicitType);
+                    runtime("not", CD_VALUE, CD_VALUE);
+                }
+                case Expression.Ternary ternary -> {
+                    // Both branches are evaluated, as in the tree-walking evaluator
+                    expression(ternary.condition(), ExplicitType.NONE);
+                    expression(ternary.thenBranch(), ExplicitType.NONE);
+                    expression(ternary.elseBranch(), ExplicitType.NONE);
+                    runtime("ternary", CD_VALUE, CD_VALUE, CD_VALUE, CD_VALUE);
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Pushes the value of the closure of an expression, which already casts it.
+         */
+        private void closure(Expression expression, ExplicitType explicitType) {
+            final ClosureCompiler.Evaluable closure = closures != null ? closures.closure(expression) : null;
+            if (closure == null) throw new Unsupported(expression);
+            code.constantInstruction(constant(closure, CD_EVALUABLE)).aload(EXECUTOR);
+            if (explicitType.local() != -1) {
+                code.aload(explicitType.local());
+            } else if (explicitType.type() != null) {
+                code.constantInstruction(constant(explicitType.type(), CD_TYPE));
+            } else {
+                code.aconst_null();
+            }
+            code.invokeinterface(CD_EVALUABLE, "evaluate", MethodTypeDesc.of(CD_VALUE, CD_EXECUTOR, CD_TYPE));
+        }
+
+        private boolean call(Expression.Call call) {
+            if (!(call.arguments() instanceof Parameter.Passed.Positional(List<Expression> arguments)) || call.slot() == -1)
+                return false;
+            final Value.ExternFunctionDecl extern = call.depth() == 0 ? externDeclarations.get(call.slot()) : null;
+            if (extern != null) {
+                // Linked once to the implementation
+                final List<Parameter> parameters = extern.parameters();
+                if (parameters.size() != arguments.size()) return false;
+                load(call.name(), call.depth(), call.slot());
+                code.pop();
+                final ClassDesc[] parameterTypes = new ClassDesc[arguments.size()];
+                for (int i = 0; i < arguments.size(); i++) {
+                    expression(arguments.get(i), ExplicitType.of(parameters.get(i).type()));
+                    parameterTypes[i] = CD_VALUE;
+                }
+                code.invokedynamic(DynamicCallSiteDesc.of(BSM_EXTERNAL, call.name(), MethodTypeDesc.of(CD_VALUE, parameterTypes)));
+            } else {
+                functionCall(call, arguments);
+            }
+            return true;
+        }
+
+        private void functionCall(Expression.Call call, List<Expression> arguments) {
+            final int function = local();
+            load(call.name(), call.depth(), call.slot());
+            code.astore(function);
+            code.aload(EXECUTOR).constantInstruction(call.name()).aload(function)
+                    .constantInstruction(arguments.size()).anewarray(CD_VALUE);
+            for (int i = 0; i < arguments.size(); i++) {
+                final int type = local();
+                code.aload(function).constantInstruction(i);
+                runtime("parameterType", CD_TYPE, CD_VALUE, CD_int);
+                code.astore(type);
+                code.dup().constantInstruction(i);
+                expression(arguments.get(i), new ExplicitType(null, type));
+                code.aastore();
+            }
+            runtime("call", CD_VALUE, CD_EXECUTOR, CD_String, CD_VALUE, CD_VALUE.arrayType());
+        }
+
+        private void accessPoints(List<AccessPoint> accessPoints) {
+            for (AccessPoint accessPoint : accessPoints) {
+                switch (accessPoint) {
+                    case AccessPoint.Field field -> {
+                        code.constantInstruction(field.component());
+                        runtime("field", CD_VALUE, CD_VALUE, CD_String);
+                    }
+                    case AccessPoint.Index(Expression.Range range, Type ignored) -> {
+                        expression(range.start(), ExplicitType.NONE);
+                        expression(range.end(), ExplicitType.NONE);
+                        expression(range.step(), ExplicitType.NONE);
+                        runtime("slice", CD_VALUE, CD_VALUE, CD_VALUE, CD_VALUE, CD_VALUE);
+                    }
+                    case AccessPoint.Index index -> {
+                        expression(index.expression(), ExplicitType.NONE);
+                        runtime("index", CD_VALUE, CD_VALUE, CD_VALUE);
+                    }
+                }
+            }
+        }
+
+        private void cast(Expression expression, ExplicitType explicitType) {
+            if (explicitType.local() != -1) {
+                code.aload(explicitType.local());
+            } else {
+                final Type type = explicitType.type();
+                // Primitive types and proven casts never convert the value
+                if (type == null || type instanceof Type.Primitive || provenCasts.get(expression) == type) return;
+                code.constantInstruction(constant(type, CD_TYPE));
+            }
+            code.aload(EXECUTOR);
+            runtime("cast", CD_VALUE, CD_VALUE, CD_TYPE, CD_EXECUTOR);
+        }
+
+        private @Nullable Value binary(String name, LiteralValue value) {
+            try {
+                // Binaries are read-only, the same value can be shared by every evaluation
+                final BinStandard standard = BinStandard.get(name);
+                return Value.Binary.of(standard, value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        // VARIABLES
+
+        private void load(String name, int variableDepth, int slot) {
+            if (closures == null && variableDepth >= functionDepth) {
+                final Integer local = variables.get(key(variableDepth, slot));
+                if (local == null) throw new Unsupported(name);
+                code.aload(local);
+            } else {
+                // Captured by the function or promoted, read from the frames of the executor
+                code.aload(WALKER).constantInstruction(variableDepth).constantInstruction(slot)
+                        .constantInstruction(name);
+                runtime("outer", CD_VALUE, CD_WALKER, CD_int, CD_int, CD_String);
+            }
+        }
+
+        private void store(int variableDepth, int slot) {
+            if (closures == null && variableDepth >= functionDepth) {
+                code.astore(variable(variableDepth, slot));
+            } else {
+                final int value = local();
+                code.astore(value)
+                        .aload(WALKER).constantInstruction(variableDepth).constantInstruction(slot).aload(value)
+                        .invokevirtual(CD_WALKER, "update", MethodTypeDesc.of(CD_void, CD_int, CD_int, CD_VALUE));
+            }
+        }
+
+        private int variable(int variableDepth, int slot) {
+            return variables.computeIfAbsent(key(variableDepth, slot), ignored -> local());
+        }
+
+        private static long key(int depth, int slot) {
+            return (long) depth << 32 | slot;
+        }
+
+        /**
+         * Allocates a local, never reused so that every local keeps a single type.
+         */
+        private int local() {
+            return nextLocal++;
+        }
+
+        private int local2() {
+            final int local = nextLocal;
+            nextLocal += 2;
+            return local;
+        }
+
+        private DynamicConstantDesc<?> constant(Object value, ClassDesc type) {
+            classData.add(value);
+            return DynamicConstantDesc.ofNamed(BSM_CLASS_DATA_AT, DEFAULT_NAME, type, classData.size() - 1);
+        }
+
+        private void runtime(String name, ClassDesc returnType, ClassDesc... parameterTypes) {
+            code.invokestatic(CD_RUNTIME, name, MethodTypeDesc.of(returnType, parameterTypes));
+        }
+    }
+}
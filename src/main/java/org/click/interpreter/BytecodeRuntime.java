@@ -0,0 +1,248 @@
+package org.click.interpreter;
+
+import org.click.BinStandard;
+import org.click.DeclarationType;
+import org.click.Type;
+import org.click.external.ExternalFunction;
+import org.click.value.Elements;
+import org.click.value.LiteralValue;
+import org.click.value.Value;
+import org.click.value.ValueCompute;
+import org.click.value.ValueType;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * Operations called by the classes generated by {@link BytecodeCompiler}, with the semantics of the closure compiler.
+ */
+final class BytecodeRuntime {
+    private static final MethodHandle RUN;
+    private static final MethodHandle NOT_FOUND;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            RUN = lookup.findVirtual(ExternalFunction.class, "run", MethodType.methodType(Value.class, Value[].class));
+            NOT_FOUND = lookup.findStatic(BytecodeRuntime.class, "externalNotFound",
+                    MethodType.methodType(Value.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BytecodeRuntime() {
+    }
+
+    /**
+     * Bootstrap of external function calls, the implementations are the first element of the class data.
+     */
+    static CallSite linkExternal(MethodHandles.Lookup lookup, String name, MethodType type) throws IllegalAccessException {
+        @SuppressWarnings("unchecked") final Map<String, ExternalFunction> externals =
+                MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, Map.class, 0);
+        final ExternalFunction function = externals.get(name);
+        final MethodHandle target;
+        if (function == null) {
+            // Only fail if the call is reached
+            target = MethodHandles.dropArguments(NOT_FOUND.bindTo(name), 0, type.parameterList());
+        } else {
+            target = RUN.bindTo(function).asCollector(Value[].class, type.parameterCount());
+        }
+        return new ConstantCallSite(target.asType(type));
+    }
+
+    private static Value externalNotFound(String name) {
+        throw new RuntimeException("External function impl not found: " + name);
+    }
+
+    static Value outer(ScopeWalker walker, int depth, int slot, String name) {
+        final Value value = walker.find(depth, slot);
+        if (value == null) throw new RuntimeException("Variable not found: " + name + " -> " + walker.names());
+        return value;
+    }
+
+    static Value declare(Value value, DeclarationType declarationType) {
+        if (value instanceof Value.FunctionDecl || value instanceof Value.StructDecl ||
+                value instanceof Value.EnumDecl || value instanceof Value.UnionDecl) {
+            if (declarationType != DeclarationType.CONSTANT) {
+                throw new RuntimeException("Type declaration must be constant");
+            }
+        }
+        return value;
+    }
+
+    static @Nullable Type assignmentType(@Nullable Value value) {
+        return value != null ? ValueType.extractAssignmentType(value) : null;
+    }
+
+    static boolean interrupted(Value value) {
+        return value instanceof Value.Interrupt;
+    }
+
+    /**
+     * Updates a variable through its access points, field names and evaluated indices, then publishes the mutation.
+     */
+    static Value assign(Executor executor, String name, Value tracked, Object[] accesses, Value updated) {
+        return share(executor, name, tracked, update(tracked, accesses, 0, updated));
+    }
+
+    static Value share(Executor executor, String name, Value tracked, Value updated) {
+        final Executor.SharedMutation sharedMutation = executor.sharedMutation(name);
+        if (sharedMutation != null) {
+            final long version = sharedMutation.append(executor, tracked, updated);
+            executor.observe(name, version);
+        }
+        return updated;
+    }
+
+    private static Value update(Value variable, Object[] accesses, int index, Value updated) {
+        if (index == accesses.length) return updated;
+        final Object access = accesses[index];
+        return switch (variable) {
+            case Value.Struct struct -> {
+                if (!(access instanceof String component))
+                    throw new RuntimeException("Cannot update variable: " + variable);
+                yield struct.with(component, update(struct.get(component), accesses, index + 1, updated));
+            }
+            case Value.Array array -> {
+                if (!(access instanceof Value indexValue))
+                    throw new RuntimeException("Cannot update variable: " + variable);
+                // Array elements are replaced as a whole
+                yield array.with((int) ValueType.requireInteger(indexValue), updated);
+            }
+            default -> throw new RuntimeException("Cannot update: " + variable + " " + Arrays.toString(accesses));
+        };
+    }
+
+    static boolean condition(Value value) {
+        if (!(value instanceof Value.BooleanLiteral booleanLiteral))
+            throw new RuntimeException("Condition must be a boolean");
+        return booleanLiteral.value();
+    }
+
+    static boolean enterLoop(Executor executor) {
+        final boolean previousLoop = executor.insideLoop;
+        executor.insideLoop = true;
+        return previousLoop;
+    }
+
+    static void exitLoop(Executor executor, boolean previousLoop) {
+        executor.insideLoop = previousLoop;
+    }
+
+    /**
+     * Returns whether a loop continues after its body returned a value.
+     */
+    static boolean iterate(Value value) {
+        return value instanceof Value.Continue || !(value instanceof Value.Break) && !(value instanceof Value.Interrupt);
+    }
+
+    static void contextual(Executor executor, Value element) {
+        executor.contextual = element;
+    }
+
+    /**
+     * Returns whether the element of a constraint satisfies its condition.
+     */
+    static boolean satisfies(Value condition, Executor executor) {
+        executor.contextual = null;
+        if (!(condition instanceof Value.BooleanLiteral(boolean result)))
+            throw new RuntimeException("Expected constant, got: " + condition);
+        return result;
+    }
+
+    static List<Value> elements(Value value) {
+        if (!(value instanceof Value.Array array)) throw new RuntimeException("Expected iterable, got: " + value);
+        return array.elements();
+    }
+
+    static long integer(Value value) {
+        return ValueType.requireInteger(value);
+    }
+
+    /**
+     * Returns the number of iterations of a range, checking its step as {@link Elements#range} does.
+     */
+    static long rangeSize(long start, long end, long step) {
+        return Elements.range(start, end, step).size();
+    }
+
+    static Value number(long value) {
+        return Value.NumberLiteral.of(value);
+    }
+
+    static Value cast(Value value, @Nullable Type explicitType, Executor executor) {
+        // Primitive types never convert the value
+        if (explicitType == null || explicitType instanceof Type.Primitive) return value;
+        return executor.cast(value, explicitType);
+    }
+
+    static Value literal(LiteralValue value, @Nullable Type explicitType) {
+        if (explicitType == null) throw new RuntimeException("String literal must have explicit type: " + value);
+        final BinStandard standard = BinStandard.get(explicitType.name());
+        return Value.Binary.of(standard, value);
+    }
+
+    static Value field(Value object, String component) {
+        return switch (object) {
+            case Value.Struct struct -> struct.get(component);
+            case Value.EnumDecl enumDecl -> {
+                final Value value = enumDecl.entries().get(component);
+                if (value == null) throw new RuntimeException("Enum entry not found: " + component);
+                yield value;
+            }
+            case Value.Array ignored -> throw new RuntimeException("Invalid enum access: " + component);
+            default -> throw new RuntimeException("Expected struct, got: " + object);
+        };
+    }
+
+    static Value index(Value object, Value index) {
+        return switch (object) {
+            case Value.Array array -> {
+                final int integer = (int) ValueType.requireInteger(index);
+                final List<Value> content = array.elements();
+                if (integer < 0 || integer >= content.size())
+                    throw new RuntimeException("Index out of bounds: " + integer + " in " + content);
+                yield content.get(integer);
+            }
+            case Value.Struct ignored -> throw new RuntimeException("Invalid struct access: " + index);
+            case Value.EnumDecl ignored -> throw new RuntimeException("Invalid enum access: " + index);
+            default -> throw new RuntimeException("Expected struct, got: " + object);
+        };
+    }
+
+    static Value slice(Value object, Value start, Value end, Value step) {
+        return ValueCompute.slice(object, start, end, step);
+    }
+
+    static Value not(Value value) {
+        if (!(value instanceof Value.BooleanLiteral booleanLiteral))
+            throw new RuntimeException("Expected boolean, got: " + value);
+        return Value.BooleanLiteral.of(!booleanLiteral.value());
+    }
+
+    static Value ternary(Value condition, Value thenValue, Value elseValue) {
+        if (!(condition instanceof Value.BooleanLiteral booleanLiteral))
+            throw new RuntimeException("Expected boolean, got: " + condition);
+        return booleanLiteral.value() ? thenValue : elseValue;
+    }
+
+    static Value range(Value start, Value end, Value step) {
+        return ValueCompute.range(start, end, step);
+    }
+
+    static Type parameterType(Value function, int index) {
+        final List<org.click.Ast.Parameter> parameters = switch (function) {
+            case Value.FunctionDecl functionDecl -> functionDecl.parameters();
+            case Value.ExternFunctionDecl externFunctionDecl -> externFunctionDecl.parameters();
+            default -> throw new IllegalStateException("Unexpected value: " + function);
+        };
+        return parameters.get(index).type();
+    }
+
+    static Value call(Executor executor, String name, Value function, Value[] arguments) {
+        return executor.interpret(name, function, Arrays.asList(arguments));
+    }
+}
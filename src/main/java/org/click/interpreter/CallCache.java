@@ -0,0 +1,74 @@
+package org.click.interpreter;
+
+import org.click.Type;
+import org.click.external.ExternalFunction;
+import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.click.Ast.Expression;
+import static org.click.Ast.Parameter;
+
+/**
+ * Monomorphic inline cache of a call site, remembering the last called function with its parameter types and
+ * external implementation.
+ * <p>
+ * The cache is guarded by the identity of the function bound to the called name, rebinding it to another value
+ * resolves the call again. Call sites are shared by every executor, targets are immutable and published at once.
+ */
+final class CallCache {
+    private volatile @Nullable Target target;
+
+    record Target(Value function, Map<String, ExternalFunction> externals, Type[] parameterTypes,
+                  @Nullable ExternalFunction external) {
+        Value invoke(Executor executor, String name, Value[] arguments) {
+            if (external != null) return external.run(arguments);
+            return executor.interpret(name, function, Arrays.asList(arguments));
+        }
+    }
+
+    Target resolve(Executor executor, Value function, String name) {
+        final Map<String, ExternalFunction> externals = executor.context().externals();
+        Target target = this.target;
+        if (target == null || target.function() != function || target.externals() != externals) {
+            final List<Parameter> parameters = switch (function) {
+                case Value.FunctionDecl functionDecl -> functionDecl.parameters();
+                case Value.ExternFunctionDecl externFunctionDecl -> externFunctionDecl.parameters();
+                default -> throw new IllegalStateException("Unexpected value: " + function);
+            };
+            final Type[] parameterTypes = parameters.stream().map(Parameter::type).toArray(Type[]::new);
+            // A missing implementation only fails once called, through the executor
+            final ExternalFunction external = function instanceof Value.ExternFunctionDecl ? externals.get(name) : null;
+            target = new Target(function, externals, parameterTypes, external);
+            this.target = target;
+        }
+        return target;
+    }
+
+    /**
+     * Caches of the call sites evaluated from the AST, by identity. Lookups read a snapshot without locking, a new
+     * site copies it.
+     */
+    static final class Sites {
+        private volatile Map<Expression.Call, CallCache> caches = new IdentityHashMap<>();
+
+        CallCache get(Expression.Call call) {
+            final CallCache cache = caches.get(call);
+            return cache != null ? cache : add(call);
+        }
+
+        private synchronized CallCache add(Expression.Call call) {
+            CallCache cache = caches.get(call);
+            if (cache == null) {
+                final Map<Expression.Call, CallCache> copy = new IdentityHashMap<>(caches);
+                copy.put(call, cache = new CallCache());
+                caches = copy;
+            }
+            return cache;
+        }
+    }
+}
@@ -0,0 +1,857 @@
+package org.click.interpreter;
+
+import org.click.BinStandard;
+import org.click.DeclarationType;
+import org.click.Token;
+import org.click.Type;
+import org.click.value.Elements;
+import org.click.value.LiteralValue;
+import org.click.value.Shape;
+import org.click.value.Value;
+import org.click.value.ValueCompute;
+import org.click.value.ValueOperator;
+import org.click.value.ValueType;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.click.Ast.*;
+
+/**
+ * Compiles resolved statements and expressions once into trees of closures, so that running them does not
+ * dispatch on the AST anymore.
+ * <p>
+ * Closures are stateless and shared by every executor, all runtime state is read from the executor they receive.
+ * Function bodies are compiled ahead of time and indexed by the identity of their scope.
+ * <p>
+ * When tiered, every function starts as closures and counts its invocations, and every infinite loop counts its
+ * iterations. Past a threshold the function compiler promotes them, a running loop switching to its promoted code
+ * between two iterations.
+ */
+final class ClosureCompiler {
+    private static final Value.Break BREAK = new Value.Break();
+    private static final Value.Continue CONTINUE = new Value.Continue();
+    // Invocations of a function and iterations of an infinite loop before their promotion
+    private static final int HOT_INVOCATIONS = 1_000;
+    private static final int HOT_ITERATIONS = 10_000;
+
+    @FunctionalInterface
+    interface Executable {
+        @Nullable Value execute(Executor executor);
+    }
+
+    @FunctionalInterface
+    interface Evaluable {
+        Value evaluate(Executor executor, @Nullable Type explicitType);
+    }
+
+    /**
+     * Compiles whole function bodies to another representation, returning null for unsupported functions.
+     */
+    @FunctionalInterface
+    interface FunctionCompiler {
+        @Nullable Executable compile(Value.FunctionDecl functionDecl);
+
+        /**
+         * Compiles a hot function, parts of it may run their closures.
+         */
+        default @Nullable Executable promote(Value.FunctionDecl functionDecl, ClosureCompiler closures) {
+            return compile(functionDecl);
+        }
+
+        /**
+         * Compiles the iterations of a hot loop, started once the loop scope is entered.
+         */
+        default @Nullable Executable promote(Statement.Loop loop, ClosureCompiler closures) {
+            return null;
+        }
+    }
+
+    private final Map<Scope, Executable> functions = new IdentityHashMap<>();
+    private final @Nullable FunctionCompiler functionCompiler;
+    // Closure of every compiled node when tiered, reused by promoted code
+    private final @Nullable Map<Object, Object> closures;
+    private final Map<Expression, Type> provenCasts;
+
+    ClosureCompiler(Map<Expression, Type> provenCasts) {
+        this(null, false, provenCasts);
+    }
+
+    /**
+     * Functions supported by the function compiler are compiled by it, the others to closures.
+     * If tiered, the function compiler is only used for hot functions and loops.
+     */
+    ClosureCompiler(@Nullable FunctionCompiler functionCompiler, boolean tiered, Map<Expression, Type> provenCasts) {
+        this.functionCompiler = functionCompiler;
+        this.closures = functionCompiler != null && tiered ? new IdentityHashMap<>() : null;
+        this.provenCasts = provenCasts;
+    }
+
+    /**
+     * Returns the compiled body of a function, or null if it was not part of the compiled program.
+     */
+    @Nullable Executable function(@Nullable Scope scope) {
+        return scope != null ? functions.get(scope) : null;
+    }
+
+    /**
+     * Returns the closure of a statement, or null if the compiler is not tiered.
+     */
+    @Nullable Executable closure(Statement statement) {
+        return closures != null ? (Executable) closures.get(statement) : null;
+    }
+
+    /**
+     * Returns the closure of an expression, or null if the compiler is not tiered.
+     */
+    @Nullable Evaluable closure(Expression expression) {
+        return closures != null ? (Evaluable) closures.get(expression) : null;
+    }
+
+    Executable compile(List<Statement> statements) {
+        final Executable[] executables = compileAll(statements);
+        return executor -> {
+            for (Executable executable : executables) {
+                final Value result = executable.execute(executor);
+                if (result != null) return result;
+            }
+            return null;
+        };
+    }
+
+    private Executable[] compileAll(List<Statement> statements) {
+        Executable[] executables = new Executable[statements.size()];
+        for (int i = 0; i < executables.length; i++) executables[i] = compile(statements.get(i));
+        return executables;
+    }
+
+    private Executable compile(Statement statement) {
+        final Executable executable = compileStatement(statement);
+        if (closures != null) closures.put(statement, executable);
+        return executable;
+    }
+
+    private Executable compileStatement(Statement statement) {
+        return switch (statement) {
+            case Statement.Declare declare -> {
+                final List<String> names = declare.names();
+                final int slot = declare.slot();
+                final DeclarationType declarationType = declare.declarationType();
+                final Type explicitType = declare.explicitType();
+                final Evaluable initializer = compile(declare.initializer());
+                yield executor -> {
+                    final Value evaluated = initializer.evaluate(executor, explicitType);
+                    assert evaluated != null;
+                    executor.registerMulti(names, slot, declarationType, evaluated);
+                    return null;
+                };
+            }
+            case Statement.Assign assign -> compileAssign(assign);
+            case Statement.Run run -> {
+                final Evaluable expression = compile(run.expression());
+                yield executor -> expression.evaluate(executor, null);
+            }
+            case Statement.Branch branch -> {
+                final Evaluable condition = compile(branch.condition());
+                final Executable thenBranch = compile(branch.thenBranch());
+                final Executable elseBranch = branch.elseBranch() != null ? compile(branch.elseBranch()) : null;
+                yield executor -> {
+                    final Value value = condition.evaluate(executor, null);
+                    if (!(value instanceof Value.BooleanLiteral booleanLiteral))
+                        throw new RuntimeException("Condition must be a boolean");
+                    if (booleanLiteral.value()) return thenBranch.execute(executor);
+                    return elseBranch != null ? elseBranch.execute(executor) : null;
+                };
+            }
+            case Statement.Loop loop -> compileLoop(loop);
+            case Statement.Break ignored -> executor -> {
+                if (!executor.insideLoop) throw new RuntimeException("Break statement outside of loop");
+                return BREAK;
+            };
+            case Statement.Continue ignored -> executor -> {
+                if (!executor.insideLoop) throw new RuntimeException("Continue statement outside of loop");
+                return CONTINUE;
+            };
+            case Statement.Join join -> {
+                final Executable block = compile(join.block());
+                yield executor -> {
+                    executor.enterScope();
+                    final Value value = block.execute(executor);
+                    executor.exitScope();
+                    return value;
+                };
+            }
+            case Statement.Spawn spawn -> {
+                final Scope scope = spawn.scope();
+                final Executable inner = compile(spawn.statement());
+                yield executor -> ExecutorSpawn.spawn(executor, scope, inner::execute);
+            }
+            case Statement.Block block -> {
+                final Scope scope = block.scope();
+                final Executable[] statements = compileAll(block.statements());
+                yield executor -> {
+                    final ScopeWalker walker = executor.walker();
+                    walker.enterBlock(scope);
+                    Value result = null;
+                    for (Executable inner : statements) {
+                        result = inner.execute(executor);
+                        if (result != null) break;
+                    }
+                    walker.exitBlock();
+                    return result;
+                };
+            }
+            case Statement.Return returnStatement -> {
+                if (returnStatement.expression() == null) yield executor -> null;
+                final Evaluable expression = compile(returnStatement.expression());
+                yield executor -> {
+                    final Executor.CurrentFunction currentFunction = executor.currentFunction();
+                    assert currentFunction != null : "Return statement outside of function";
+                    return expression.evaluate(executor, currentFunction.returnType());
+                };
+            }
+            // Parsed and resolved ahead of time
+            case Statement.LoadLibrary loadLibrary -> {
+                final Executable statements = compile(loadLibrary.statements());
+                yield executor -> {
+                    statements.execute(executor);
+                    return null;
+                };
+            }
+        };
+    }
+
+    private Executable compileAssign(Statement.Assign assign) {
+        final List<Statement.Assign.Target> targets = assign.targets();
+        final int count = targets.size();
+        final Evaluable expression = compile(assign.expression());
+        final String[] names = new String[count];
+        final int[] depths = new int[count];
+        final int[] slots = new int[count];
+        final Access[][] accesses = new Access[count][];
+        for (int i = 0; i < count; i++) {
+            final Statement.Assign.Target target = targets.get(i);
+            if (target.slot() == -1) {
+                final String name = target.name();
+                return executor -> {
+                    throw new RuntimeException("Variable not found: " + name);
+                };
+            }
+            names[i] = target.name();
+            depths[i] = target.depth();
+            slots[i] = target.slot();
+            accesses[i] = compileAccessPoints(target.accessPoints());
+        }
+        return executor -> {
+            final ScopeWalker walker = executor.walker();
+            Type explicitType = null;
+            if (count == 1) {
+                final Value targetValue = access(executor, walker.find(depths[0], slots[0]), accesses[0]);
+                // Missing fields have no value to take the type from
+                if (targetValue != null) explicitType = ValueType.extractAssignmentType(targetValue);
+            }
+            final Value evaluated = expression.evaluate(executor, explicitType);
+            if (evaluated instanceof Value.Interrupt) return evaluated;
+            for (int i = 0; i < count; i++) {
+                final String name = names[i];
+                final Value tracked = walker.find(depths[i], slots[i]);
+                assert tracked != null : "Variable not found: " + name;
+                final Value deconstructed = count > 1 ? ValueCompute.deconstruct(walker, evaluated, i) : evaluated;
+                final Value updatedVariable = update(executor, tracked, accesses[i], 0, deconstructed);
+                walker.update(depths[i], slots[i], updatedVariable);
+                final Executor.SharedMutation sharedMutation = executor.sharedMutation(name);
+                if (sharedMutation != null) {
+                    final long version = sharedMutation.append(executor, tracked, updatedVariable);
+                    executor.observe(name, version);
+                }
+            }
+            return null;
+        };
+    }
+
+    private Executable compileLoop(Statement.Loop loop) {
+        final Scope scope = loop.scope();
+        final Executable body = compile(loop.body());
+        final LoopBody loopBody;
+        if (loop.iterable() == null && closures != null) {
+            // Infinite loop, replaced by its promoted code between two iterations
+            final Counter counter = new Counter(HOT_ITERATIONS, () -> functionCompiler.promote(loop, this));
+            loopBody = (executor, ignored) -> {
+                while (true) {
+                    final Executable promoted = counter.count();
+                    if (promoted != null) {
+                        promoted.execute(executor);
+                        return;
+                    }
+                    if (!iterate(executor, body)) return;
+                }
+            };
+        } else if (loop.iterable() == null) {
+            // Infinite loop
+            loopBody = (executor, ignored) -> {
+                //noinspection StatementWithEmptyBody
+                while (iterate(executor, body)) ;
+            };
+        } else {
+            final List<Statement.Loop.Declaration> declarations = loop.declarations();
+            final LoopBody arrayBody;
+            if (declarations.isEmpty()) {
+                // No declaration
+                arrayBody = (executor, values) -> {
+                    for (Value ignored : values) {
+                        if (!iterate(executor, body)) break;
+                    }
+                };
+            } else if (declarations.size() == 1 && !declarations.get(0).ref()) {
+                // for-each loop
+                arrayBody = (executor, values) -> {
+                    final ScopeWalker walker = executor.walker();
+                    if (values instanceof Elements.Range range) {
+                        long value = range.start();
+                        for (int i = 0; i < range.size(); i++, value += range.step()) {
+                            walker.register(0, Value.NumberLiteral.of(value));
+                            if (!iterate(executor, body)) break;
+                        }
+                        return;
+                    }
+                    for (Value value : values) {
+                        walker.register(0, value);
+                        if (!iterate(executor, body)) break;
+                    }
+                };
+            } else if (declarations.size() == 2 && !declarations.get(0).ref() && !declarations.get(1).ref()) {
+                // for-each counted loop
+                arrayBody = (executor, values) -> {
+                    final ScopeWalker walker = executor.walker();
+                    int i = 0;
+                    for (Value value : values) {
+                        walker.register(0, Value.NumberLiteral.of(i++));
+                        walker.register(1, value);
+                        if (!iterate(executor, body)) break;
+                    }
+                };
+            } else {
+                // Ref loop
+                assert declarations.stream().allMatch(Statement.Loop.Declaration::ref) : "Invalid loop declaration: " + declarations;
+                final String[] refs = declarations.stream().map(Statement.Loop.Declaration::name).toArray(String[]::new);
+                arrayBody = (executor, values) -> {
+                    final ScopeWalker walker = executor.walker();
+                    for (Value value : values) {
+                        final Value.Struct struct = (Value.Struct) value;
+                        for (int i = 0; i < refs.length; i++) walker.register(i, struct.get(refs[i]));
+                        if (!iterate(executor, body)) break;
+                    }
+                };
+            }
+            if (loop.iterable() instanceof Expression.Constraint constraint) {
+                // Filter while iterating with the variables of the loop start, the parts are compiled on their own for
+                // the promoted loop
+                final Evaluable object = compile(constraint.object());
+                final Access[] accesses = compileAccessPoints(constraint.accessPoints());
+                final Evaluable condition = compile(constraint.expression());
+                loopBody = (executor, ignored) -> {
+                    final Value source = access(executor, object.evaluate(executor, null), accesses);
+                    arrayBody.run(executor, new Filter(executor.fork(), source, constraint.expression(),
+                            fork -> condition.evaluate(fork, null)));
+                };
+            } else {
+                final Evaluable iterable = compile(loop.iterable());
+                loopBody = (executor, ignored) -> {
+                    final Value value = iterable.evaluate(executor, null);
+                    if (!(value instanceof Value.Array array))
+                        throw new RuntimeException("Expected iterable, got: " + value);
+                    arrayBody.run(executor, array.elements());
+                };
+            }
+        }
+        return executor -> {
+            final boolean previousLoop = executor.insideLoop;
+            executor.insideLoop = true;
+            executor.walker().enterBlock(scope);
+            loopBody.run(executor, null);
+            executor.insideLoop = previousLoop;
+            executor.walker().exitBlock();
+            return null;
+        };
+    }
+
+    @FunctionalInterface
+    private interface LoopBody {
+        void run(Executor executor, Iterable<Value> values);
+    }
+
+    /**
+     * Counts the executions of some code, until its promotion at the threshold.
+     */
+    private static final class Counter {
+        private final int threshold;
+        private final Supplier<@Nullable Executable> promotion;
+        // Unsynchronized, lost increments delay the promotion but never skip the threshold
+        private int count;
+        private boolean attempted;
+        private volatile @Nullable Executable promoted;
+
+        Counter(int threshold, Supplier<@Nullable Executable> promotion) {
+            this.threshold = threshold;
+            this.promotion = promotion;
+        }
+
+        /**
+         * Returns the promoted code, or null while it is not hot or cannot be promoted.
+         */
+        @Nullable Executable count() {
+            final Executable promoted = this.promoted;
+            if (promoted == null && ++count == threshold) promote();
+            return this.promoted;
+        }
+
+        private synchronized void promote() {
+            if (attempted) return;
+            attempted = true;
+            this.promoted = promotion.get();
+        }
+    }
+
+    private static boolean iterate(Executor executor, Executable body) {
+        final Value value = body.execute(executor);
+        if (value instanceof Value.Continue) return true;
+        return !(value instanceof Value.Break) && !(value instanceof Value.Interrupt);
+    }
+
+    /**
+     * Every closure casts its own result to the explicit type, a shared wrapper would make all calls megamorphic.
+     */
+    private Evaluable compile(Expression expression) {
+        final Evaluable evaluable = compileExpression(expression);
+        if (closures != null) closures.put(expression, evaluable);
+        return evaluable;
+    }
+
+    private Evaluable compileExpression(Expression expression) {
+        final Type proven = provenCasts.get(expression);
+        return switch (expression) {
+            case Expression.Constant constant -> {
+                final Value value = constant.value();
+                if (value instanceof Value.FunctionDecl functionDecl) {
+                    // Local function
+                    compileFunction(functionDecl);
+                    yield (executor, explicitType) -> {
+                        final Executor lambdaExecutor = executor.fork(executor.async, executor.insideLoop);
+                        return cast(executor, new Value.FunctionDecl(functionDecl.parameters(), functionDecl.returnType(),
+                                functionDecl.body(), functionDecl.scope(), lambdaExecutor), explicitType, proven);
+                    };
+                } else if (value instanceof Value.UnionDecl unionDecl) {
+                    // Register inline structs
+                    yield (executor, explicitType) -> {
+                        for (Map.Entry<String, Value.StructDecl> entry : unionDecl.entries().entrySet()) {
+                            final Value.StructDecl structDecl = entry.getValue();
+                            if (structDecl != null) executor.walker().register(entry.getKey(), structDecl);
+                        }
+                        return cast(executor, value, explicitType, proven);
+                    };
+                }
+                yield (executor, explicitType) -> cast(executor, value, explicitType, proven);
+            }
+            case Expression.Literal literal -> {
+                final LiteralValue value = literal.value();
+                yield (executor, explicitType) -> {
+                    if (explicitType == null)
+                        throw new RuntimeException("String literal must have explicit type: " + literal);
+                    final BinStandard standard = BinStandard.get(explicitType.name());
+                    return cast(executor, Value.Binary.of(standard, value), explicitType, proven);
+                };
+            }
+            case Expression.Binary binary -> {
+                final Value value;
+                try {
+                    // Binaries are read-only, the same value can be shared by every evaluation
+                    final BinStandard standard = BinStandard.get(binary.name());
+                    value = Value.Binary.of(standard, binary.value());
+                } catch (IllegalArgumentException e) {
+                    // Only fail if the literal is reached
+                    yield (executor, ignored) -> {
+                        throw e;
+                    };
+                }
+                yield (executor, explicitType) -> cast(executor, value, explicitType, proven);
+            }
+            case Expression.Enum enumDeclaration -> {
+                final Type type = enumDeclaration.type();
+                final Map<String, Evaluable> entries = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : enumDeclaration.entries().entrySet()) {
+                    entries.put(entry.getKey(), compile(entry.getValue()));
+                }
+                yield (executor, explicitType) -> {
+                    Map<String, Value> evaluated = new HashMap<>();
+                    for (Map.Entry<String, Evaluable> entry : entries.entrySet()) {
+                        evaluated.put(entry.getKey(), entry.getValue().evaluate(executor, type));
+                    }
+                    return cast(executor, new Value.EnumDecl(type, evaluated), explicitType, proven);
+                };
+            }
+            case Expression.Variable variable -> {
+                final String name = variable.name();
+                final int depth = variable.depth();
+                final int slot = variable.slot();
+                yield (executor, explicitType) -> cast(executor, lookup(executor, name, depth, slot), explicitType, proven);
+            }
+            case Expression.Contextual ignored ->
+                    (executor, explicitType) -> cast(executor, executor.contextual, explicitType, proven);
+            case Expression.Access access -> {
+                final Evaluable object = compile(access.object());
+                final Access[] accesses = compileAccessPoints(access.accessPoints());
+                yield (executor, explicitType) ->
+                        cast(executor, access(executor, object.evaluate(executor, null), accesses), explicitType, proven);
+            }
+            case Expression.Constraint constraint -> {
+                final Evaluable object = compile(new Expression.Access(constraint.object(), constraint.accessPoints()));
+                final Evaluable condition = compile(constraint.expression());
+                yield (executor, explicitType) -> {
+                    final Filter filter = new Filter(executor, object.evaluate(executor, explicitType),
+                            constraint.expression(), fork -> condition.evaluate(fork, null));
+                    return cast(executor, filter.collect(), explicitType, proven);
+                };
+            }
+            case Expression.VariableAwait variableAwait -> {
+                final String name = variableAwait.name();
+                final int depth = variableAwait.depth();
+                final int slot = variableAwait.slot();
+                yield (executor, explicitType) -> {
+                    lookup(executor, name, depth, slot);
+                    final Executor.SharedMutation sharedMutation = executor.sharedMutation(name);
+                    if (sharedMutation == null) throw new RuntimeException("Variable not shared: " + name);
+                    return cast(executor, sharedMutation.await(executor, name), explicitType, proven);
+                };
+            }
+            case Expression.Call call -> {
+                final String name = call.name();
+                final int depth = call.depth();
+                final int slot = call.slot();
+                final List<Expression> expressions = ((Parameter.Passed.Positional) call.arguments()).expressions();
+                final Evaluable[] arguments = expressions.stream().map(this::compile).toArray(Evaluable[]::new);
+                final CallCache cache = new CallCache();
+                yield (executor, explicitType) -> {
+                    final Value function = lookup(executor, name, depth, slot);
+                    final CallCache.Target target = cache.resolve(executor, function, name);
+                    final Type[] types = target.parameterTypes();
+                    assert types.length == arguments.length : name + ": Expected " + types.length + " arguments, got " + arguments.length;
+                    final Value[] evaluated = new Value[arguments.length];
+                    for (int i = 0; i < arguments.length; i++) {
+                        evaluated[i] = arguments[i].evaluate(executor, types[i]);
+                    }
+                    return cast(executor, target.invoke(executor, name, evaluated), explicitType, proven);
+                };
+            }
+            case Expression.Select select -> {
+                final List<Statement.Block> blocks = select.blocks();
+                final List<List<Statement>> bodies = new ArrayList<>(blocks.size());
+                final List<Scope> scopes = new ArrayList<>(blocks.size());
+                for (Statement.Block block : blocks) {
+                    // Each block runs as the body of an anonymous function, with its own scope to index it
+                    final List<Statement> body = List.of(block);
+                    final Scope scope = new Scope(List.of());
+                    functions.put(scope, compile(body));
+                    bodies.add(body);
+                    scopes.add(scope);
+                }
+                yield (executor, explicitType) -> {
+                    List<Value.FunctionDecl> declarations = new ArrayList<>(bodies.size());
+                    for (int i = 0; i < bodies.size(); i++) {
+                        declarations.add(new Value.FunctionDecl(List.of(), explicitType, bodies.get(i), scopes.get(i), null));
+                    }
+                    return cast(executor, EvaluatorSelect.select(executor, declarations), explicitType, proven);
+                };
+            }
+            case Expression.Initialization initialization -> compileInitialization(initialization);
+            case Expression.Range range -> {
+                final Evaluable start = compile(range.start());
+                final Evaluable end = compile(range.end());
+                final Evaluable step = compile(range.step());
+                yield (executor, explicitType) -> cast(executor, ValueCompute.range(start.evaluate(executor, null),
+                        end.evaluate(executor, null), step.evaluate(executor, null)), explicitType, proven);
+            }
+            case Expression.Operation operation -> {
+                final Evaluable left = compile(operation.left());
+                final Evaluable right = compile(operation.right());
+                final Token.Type operator = operation.operator();
+                yield (executor, explicitType) -> {
+                    final Value leftValue = left.evaluate(executor, explicitType);
+                    final Value rightValue = right.evaluate(executor, explicitType);
+                    // Skip the type switch for the common number case
+                    final Value result = leftValue instanceof Value.NumberLiteral leftNumber &&
+                            rightValue instanceof Value.NumberLiteral rightNumber ?
+                            ValueOperator.operate(operator, leftNumber, rightNumber) :
+                            ValueOperator.operate(operator, leftValue, rightValue);
+                    return cast(executor, result, explicitType, proven);
+                };
+            }
+            case Expression.Unary unary -> {
+                final Token.Type operator = unary.operator();
+                final Evaluable inner = compile(unary.expression());
+                yield (executor, explicitType) -> {
+                    final Value value = inner.evaluate(executor, explicitType);
+                    if (operator != Token.Type.EXCLAMATION)
+                        throw new RuntimeException("Unsupported unary operator: " + operator);
+                    if (!(value instanceof Value.BooleanLiteral booleanLiteral))
+                        throw new RuntimeException("Expected boolean, got: " + value);
+                    return cast(executor, Value.BooleanLiteral.of(!booleanLiteral.value()), explicitType, proven);
+                };
+            }
+            case Expression.Ternary ternary -> {
+                final Evaluable condition = compile(ternary.condition());
+                final Evaluable thenBranch = compile(ternary.thenBranch());
+                final Evaluable elseBranch = compile(ternary.elseBranch());
+                yield (executor, explicitType) -> {
+                    // Both branches are evaluated, as in the tree-walking evaluator
+                    final Value conditionValue = condition.evaluate(executor, null);
+                    final Value thenValue = thenBranch.evaluate(executor, null);
+                    final Value elseValue = elseBranch.evaluate(executor, null);
+                    if (!(conditionValue instanceof Value.BooleanLiteral booleanLiteral))
+                        throw new RuntimeException("Expected boolean, got: " + conditionValue);
+                    return cast(executor, booleanLiteral.value() ? thenValue : elseValue, explicitType, proven);
+                };
+            }
+        };
+    }
+
+    private void compileFunction(Value.FunctionDecl functionDecl) {
+        final Scope scope = functionDecl.scope();
+        if (scope == null || functions.containsKey(scope)) return;
+        if (closures != null) {
+            final Executable closure = compile(functionDecl.body());
+            final Counter counter = new Counter(HOT_INVOCATIONS, () -> functionCompiler.promote(functionDecl, this));
+            functions.put(scope, executor -> {
+                final Executable promoted = counter.count();
+                return (promoted != null ? promoted : closure).execute(executor);
+            });
+            return;
+        }
+        final Executable compiled = functionCompiler != null ? functionCompiler.compile(functionDecl) : null;
+        functions.put(scope, compiled != null ? compiled : compile(functionDecl.body()));
+    }
+
+    private Evaluable compileInitialization(Expression.Initialization initialization) {
+        final Type proven = provenCasts.get(initialization);
+        final Type type = initialization.type();
+        final Parameter.Passed passed = initialization.parameters();
+        final Evaluable[] positional;
+        final Map<String, Evaluable> named;
+        final Evaluable supplied;
+        switch (passed) {
+            case Parameter.Passed.Positional positionalPassed -> {
+                positional = positionalPassed.expressions().stream().map(this::compile).toArray(Evaluable[]::new);
+                named = null;
+                supplied = null;
+            }
+            case Parameter.Passed.Named namedPassed -> {
+                positional = null;
+                named = new HashMap<>();
+                for (Map.Entry<String, Expression> entry : namedPassed.entries().entrySet()) {
+                    named.put(entry.getKey(), compile(entry.getValue()));
+                }
+                supplied = null;
+            }
+            case Parameter.Passed.Supplied suppliedPassed -> {
+                positional = null;
+                named = null;
+                supplied = compile(suppliedPassed.expression());
+            }
+        }
+        final boolean pure = passed instanceof Parameter.Passed.Supplied(Expression expression) && Parallel.pure(expression);
+        return (executor, explicitType) -> {
+            final Type initializedType = Objects.requireNonNullElse(type, explicitType);
+            return cast(executor, switch (initializedType) {
+                case Type.Identifier identifier -> {
+                    // Struct initialization
+                    final String name = identifier.name();
+                    final Value.StructDecl struct = (Value.StructDecl) executor.walker().find(name);
+                    final List<Parameter> parameters = struct.parameters();
+                    final Value[] evaluated = new Value[parameters.size()];
+                    if (named != null) {
+                        // Point {.x: 1, .y: 2}
+                        for (Map.Entry<String, Evaluable> entry : named.entrySet()) {
+                            final int index = Evaluator.field(struct, name, entry.getKey());
+                            evaluated[index] = entry.getValue().evaluate(executor, parameters.get(index).type());
+                        }
+                    } else if (positional != null) {
+                        // Point {1, 2}
+                        for (int i = 0; i < positional.length; i++) {
+                            evaluated[i] = positional[i].evaluate(executor, parameters.get(i).type());
+                        }
+                    }
+                    yield new Value.Struct(name, struct.shape(), evaluated);
+                }
+                case Type.Array arrayType -> {
+                    // Array initialization
+                    final long length = arrayType.length();
+                    final Type elementType = arrayType.type();
+                    final List<Value> values;
+                    if (positional != null) {
+                        if (positional.length > 0) {
+                            // [5]int {1, 2, 3, 4, 5}
+                            final Value[] evaluated = new Value[positional.length];
+                            for (int i = 0; i < evaluated.length; i++) {
+                                evaluated[i] = positional[i].evaluate(executor, elementType);
+                            }
+                            values = Arrays.asList(evaluated);
+                        } else {
+                            // Default value
+                            values = Elements.defaults(elementType, (int) Math.max(length, 0));
+                        }
+                    } else if (supplied != null && pure && length >= Parallel.THRESHOLD) {
+                        // [5]int @ + 1, split across the pool
+                        values = Parallel.generate(executor, (int) length, fork -> supplied.evaluate(fork, null));
+                    } else if (supplied != null) {
+                        // [5]int @ + 1
+                        final Value[] evaluated = new Value[(int) Math.max(length, 0)];
+                        for (int i = 0; i < length; i++) {
+                            executor.contextual = Value.NumberLiteral.of(i);
+                            evaluated[i] = supplied.evaluate(executor, null);
+                            executor.contextual = null;
+                        }
+                        values = Arrays.asList(evaluated);
+                    } else {
+                        throw new RuntimeException("Invalid array initialization: " + initialization);
+                    }
+                    yield new Value.Array(arrayType, values);
+                }
+                default -> throw new RuntimeException("Invalid initialization: " + initialization + " " + explicitType);
+            }, explicitType, proven);
+        };
+    }
+
+    private static Value cast(Executor executor, Value value, @Nullable Type explicitType, @Nullable Type proven) {
+        // Primitive types and proven casts never convert the value
+        if (explicitType == null || explicitType == proven || explicitType instanceof Type.Primitive) return value;
+        return executor.cast(value, explicitType);
+    }
+
+    private static Value lookup(Executor executor, String name, int depth, int slot) {
+        final ScopeWalker walker = executor.walker();
+        final Value value = slot != -1 ? walker.find(depth, slot) : walker.find(name);
+        if (value == null) {
+            throw new RuntimeException("Variable not found: " + name + " -> " + walker.names());
+        }
+        return value;
+    }
+
+    // ACCESS POINTS
+
+    private sealed interface Access {
+        /**
+         * Field access remembering the index of the field in the last struct shape read, the pair is published at once.
+         */
+        final class Field implements Access {
+            private record Slot(Shape shape, int index) {
+            }
+
+            private final String component;
+            private @Nullable Slot slot;
+
+            Field(String component) {
+                this.component = component;
+            }
+
+            String component() {
+                return component;
+            }
+
+            int index(Value.Struct struct) {
+                Slot slot = this.slot;
+                if (slot == null || slot.shape() != struct.shape()) {
+                    slot = new Slot(struct.shape(), struct.shape().index(component));
+                    this.slot = slot;
+                }
+                return slot.index();
+            }
+
+            @Override
+            public String toString() {
+                return "Field[component=" + component + "]";
+            }
+        }
+
+        record Index(Evaluable index, Expression expression) implements Access {
+        }
+
+        record Slice(Evaluable start, Evaluable end, Evaluable step) implements Access {
+        }
+    }
+
+    private Access[] compileAccessPoints(List<AccessPoint> accessPoints) {
+        Access[] accesses = new Access[accessPoints.size()];
+        for (int i = 0; i < accesses.length; i++) {
+            accesses[i] = switch (accessPoints.get(i)) {
+                case AccessPoint.Field field -> new Access.Field(field.component());
+                case AccessPoint.Index(Expression.Range range, Type ignored) ->
+                        new Access.Slice(compile(range.start()), compile(range.end()), compile(range.step()));
+                case AccessPoint.Index index -> new Access.Index(compile(index.expression()), index.expression());
+            };
+        }
+        return accesses;
+    }
+
+    private static Value access(Executor executor, Value object, Access[] accesses) {
+        Value result = object;
+        for (Access access : accesses) {
+            if (access instanceof Access.Slice(Evaluable start, Evaluable end, Evaluable step)) {
+                result = ValueCompute.slice(result, start.evaluate(executor, null), end.evaluate(executor, null),
+                        step.evaluate(executor, null));
+                continue;
+            }
+            result = switch (result) {
+                case Value.Struct struct -> {
+                    if (!(access instanceof Access.Field field))
+                        throw new RuntimeException("Invalid struct access: " + access);
+                    final int fieldIndex = field.index(struct);
+                    yield fieldIndex != -1 ? struct.get(fieldIndex) : null;
+                }
+                case Value.EnumDecl enumDecl -> {
+                    if (!(access instanceof Access.Field field))
+                        throw new RuntimeException("Invalid enum access: " + access);
+                    final Value value = enumDecl.entries().get(field.component());
+                    if (value == null) throw new RuntimeException("Enum entry not found: " + field.component());
+                    yield value;
+                }
+                case Value.Array array -> {
+                    if (!(access instanceof Access.Index indexAccess))
+                        throw new RuntimeException("Invalid enum access: " + access);
+                    final Value index = indexAccess.index().evaluate(executor, null);
+                    final int integer = (int) ValueType.requireInteger(index);
+                    final List<Value> content = array.elements();
+                    if (integer < 0 || integer >= content.size())
+                        throw new RuntimeException("Index out of bounds: " + integer + " in " + content + " -> " + indexAccess.expression());
+                    yield content.get(integer);
+                }
+                default -> throw new RuntimeException("Expected struct, got: " + object);
+            };
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link ValueCompute#updateVariable}, with compiled index expressions.
+     */
+    private static Value update(Executor executor, Value variable, Access[] accesses, int index, Value updated) {
+        if (index == accesses.length) return updated;
+        final Access access = accesses[index];
+        return switch (variable) {
+            case Value.Struct struct -> {
+                if (!(access instanceof Access.Field field))
+                    throw new RuntimeException("Cannot update variable: " + variable);
+                final int fieldIndex = field.index(struct);
+                if (fieldIndex == -1) throw new RuntimeException("Field not found: " + field.component() + " in " + struct.name());
+                yield struct.with(fieldIndex, update(executor, struct.get(fieldIndex), accesses, index + 1, updated));
+            }
+            case Value.Array array -> {
+                if (!(access instanceof Access.Index indexAccess))
+                    throw new RuntimeException("Cannot update variable: " + variable);
+                final int targetIndex = (int) ValueType.requireInteger(indexAccess.index().evaluate(executor, null));
+                // Array elements are replaced as a whole
+                yield array.with(targetIndex, updated);
+            }
+            default -> throw new RuntimeException("Cannot update: " + variable + " " + Arrays.toString(accesses));
+        };
+    }
+}
@@ -3,25 +3,24 @@ package org.click.interpreter;
 import org.click.BinStandard;
 import org.click.Token;
 import org.click.Type;
+import org.click.value.Elements;
 import org.click.value.LiteralValue;
 import org.click.value.Value;
+import org.click.value.ValueCompute;
 import org.click.value.ValueOperator;
 import org.click.value.ValueType;
 
-import java.lang.foreign.MemorySegment;
 import java.util.*;
-import java.util.stream.LongStream;
 
 import static org.click.Ast.*;
 
 public final class Evaluator {
     private final Executor executor;
-    private final ScopeWalker<Value> walker;
-    private Value contextual;
+    private final ScopeWalker walker;
 
     private final EvaluatorSelect evaluatorSelect;
 
-    public Evaluator(Executor executor, ScopeWalker<Value> walker) {
+    public Evaluator(Executor executor, ScopeWalker walker) {
         this.executor = executor;
         this.walker = walker;
 
@@ -36,7 +35,7 @@ public final class Evaluator {
                     // Local function
                     final Executor lambdaExecutor = this.executor.fork(executor.async, executor.insideLoop);
                     yield new Value.FunctionDecl(functionDecl.parameters(),
-                            functionDecl.returnType(), functionDecl.body(), lambdaExecutor);
+                            functionDecl.returnType(), functionDecl.body(), functionDecl.scope(), lambdaExecutor);
                 } else if (value instanceof Value.UnionDecl unionDecl) {
                     // Register inline structs
                     for (Map.Entry<String, Value.StructDecl> entry : unionDecl.entries().entrySet()) {
@@ -52,15 +51,13 @@ public final class Evaluator {
                     throw new RuntimeException("String literal must have explicit type: " + literal);
                 final LiteralValue value = literal.value();
                 final BinStandard standard = BinStandard.get(explicitType.name());
-                final MemorySegment bitmap = standard.serialize(value);
-                yield new Value.Binary(standard, bitmap);
+                yield Value.Binary.of(standard, value);
             }
             case Expression.Binary binary -> {
                 final String name = binary.name();
                 final LiteralValue value = binary.value();
                 final BinStandard standard = BinStandard.get(name);
-                final MemorySegment bitmap = standard.serialize(value);
-                yield new Value.Binary(standard, bitmap);
+                yield Value.Binary.of(standard, value);
             }
             case Expression.Enum enumDeclaration -> {
                 final Type type = enumDeclaration.type();
@@ -70,25 +67,23 @@ public final class Evaluator {
                 }
                 yield new Value.EnumDecl(type, evaluated);
             }
-            case Expression.Variable variable -> {
-                final String name = variable.name();
-                final Value value = walker.find(name);
-                if (value == null) {
-                    throw new RuntimeException("Variable not found: " + name + " -> " + walker.currentScope().tracked().keySet());
-                }
-                yield value;
-            }
-            case Expression.Contextual ignored -> this.contextual;
+            case Expression.Variable variable -> lookup(variable.name(), variable.depth(), variable.slot());
+            case Expression.Contextual ignored -> executor.contextual;
             case Expression.Access access -> {
                 final Value expression = evaluate(access.object(), null);
                 Value result = expression;
                 for (AccessPoint accessPoint : access.accessPoints()) {
+                    if (accessPoint instanceof AccessPoint.Index index && index.expression() instanceof Expression.Range range) {
+                        // array[start..end]
+                        result = ValueCompute.slice(result, evaluate(range.start(), null), evaluate(range.end(), null),
+                                evaluate(range.step(), null));
+                        continue;
+                    }
                     result = switch (result) {
                         case Value.Struct struct -> {
                             if (!(accessPoint instanceof AccessPoint.Field fieldAccess))
                                 throw new RuntimeException("Invalid struct access: " + access);
-                            final String name = fieldAccess.component();
-                            yield struct.parameters().get(name);
+                            yield struct.get(fieldAccess.component());
                         }
                         case Value.EnumDecl enumDecl -> {
                             if (!(accessPoint instanceof AccessPoint.Field fieldAccess))
@@ -115,57 +110,29 @@ public final class Evaluator {
             }
             case Expression.Constraint constraint -> {
                 final Value result = evaluate(new Expression.Access(constraint.object(), constraint.accessPoints()), explicitType);
-                if (result instanceof Value.Array array) {
-                    List<Value> filtered = new ArrayList<>();
-                    for (Value element : array.elements()) {
-                        this.contextual = element;
-                        final Value condition = evaluate(constraint.expression(), null);
-                        if (!(condition instanceof Value.BooleanLiteral booleanLiteral)) {
-                            throw new RuntimeException("Expected constant, got: " + condition);
-                        }
-                        if (booleanLiteral.value()) filtered.add(element);
-                    }
-                    this.contextual = null;
-                    // Lose length information
-                    final Type.Array arrayType = new Type.Array(array.arrayType().type(), -1);
-                    yield new Value.Array(arrayType, filtered);
-                } else {
-                    throw new RuntimeException("Expected array, got: " + result);
-                }
+                final Expression condition = constraint.expression();
+                yield new Filter(executor, result, condition, fork -> fork.evaluate(condition, null)).collect();
             }
             case Expression.VariableAwait variableAwait -> {
                 final String name = variableAwait.name();
-                final Value value = walker.find(name);
-                if (value == null) {
-                    throw new RuntimeException("Variable not found: " + name + " -> " + walker.currentScope().tracked().keySet());
-                }
-                final Executor.SharedMutation sharedMutation = executor.sharedMutations.get(name);
+                lookup(name, variableAwait.depth(), variableAwait.slot());
+                final Executor.SharedMutation sharedMutation = executor.sharedMutation(name);
                 if (sharedMutation == null) throw new RuntimeException("Variable not shared: " + name);
-                yield sharedMutation.await(value);
+                yield sharedMutation.await(executor, name);
             }
             case Expression.Call call -> {
                 final String name = call.name();
                 final List<Expression> expressions = ((Parameter.Passed.Positional) call.arguments()).expressions();
-                final Value function = executor.walker().find(name);
-                assert function != null : "Function " + name + " not found";
+                final Value function = lookup(name, call.depth(), call.slot());
+                final CallCache.Target target = executor.context().callCaches().get(call).resolve(executor, function, name);
+                final Type[] types = target.parameterTypes();
+                assert types.length == expressions.size() : name + ": Expected " + types.length + " arguments, got " + expressions.size();
 
-                final List<Type> types = switch (function) {
-                    case Value.FunctionDecl functionDecl ->
-                            functionDecl.parameters().stream().map(Parameter::type).toList();
-                    case Value.ExternFunctionDecl externFunctionDecl ->
-                            externFunctionDecl.parameters().stream().map(Parameter::type).toList();
-                    default -> throw new IllegalStateException("Unexpected value: " + function);
-                };
-                assert types.size() == expressions.size() : name + ": Expected " + types.size() + " arguments, got " + expressions.size();
-
-                List<Value> evaluated = new ArrayList<>();
-                for (int i = 0; i < expressions.size(); i++) {
-                    final Type type = types.get(i);
-                    final Expression expression = expressions.get(i);
-                    final Value value = executor.evaluate(expression, type);
-                    evaluated.add(value);
+                final Value[] evaluated = new Value[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    evaluated[i] = executor.evaluate(expressions.get(i), types[i]);
                 }
-                yield executor.interpret(name, evaluated);
+                yield target.invoke(executor, name, evaluated);
             }
             case Expression.Select select -> this.evaluatorSelect.evaluate(select, explicitType);
             case Expression.Initialization initialization -> {
@@ -177,26 +144,21 @@ public final class Evaluator {
                         final String name = identifier.name();
                         final Value.StructDecl struct = (Value.StructDecl) walker.find(name);
                         final List<Parameter> parameters = struct.parameters();
-                        Map<String, Value> evaluated = new HashMap<>();
+                        final Value[] evaluated = new Value[parameters.size()];
                         if (passed instanceof Parameter.Passed.Named named) {
                             // Point {.x: 1, .y: 2}
                             for (Map.Entry<String, Expression> entry : named.entries().entrySet()) {
-                                final String key = entry.getKey();
-                                final Expression value = entry.getValue();
-                                final Value evaluatedValue = evaluate(value, parameters.stream().filter(p -> p.name().equals(key)).findFirst().get().type());
-                                evaluated.put(key, evaluatedValue);
+                                final int index = field(struct, name, entry.getKey());
+                                evaluated[index] = evaluate(entry.getValue(), parameters.get(index).type());
                             }
                         } else if (passed instanceof Parameter.Passed.Positional positional) {
                             // Point {1, 2}
                             final List<Expression> expressions = positional.expressions();
                             for (int i = 0; i < expressions.size(); i++) {
-                                final Expression expression = expressions.get(i);
-                                final Parameter parameter = parameters.get(i);
-                                final Value evaluatedValue = evaluate(expression, parameter.type());
-                                evaluated.put(parameter.name(), evaluatedValue);
+                                evaluated[i] = evaluate(expressions.get(i), parameters.get(i).type());
                             }
                         }
-                        yield new Value.Struct(name, evaluated);
+                        yield new Value.Struct(name, struct.shape(), evaluated);
                     }
                     case Type.Array arrayType -> {
                         // Array initialization
@@ -213,19 +175,22 @@ public final class Evaluator {
                                             .map(expression -> executor.evaluate(expression, elementType)).toList();
                                 } else {
                                     // Default value
-                                    final Value defaultValue = ValueType.defaultValue(elementType);
-                                    evaluated = LongStream.range(0, length).mapToObj(i -> defaultValue).toList();
+                                    evaluated = Elements.defaults(elementType, (int) Math.max(length, 0));
                                 }
                                 yield evaluated;
                             }
                             case Parameter.Passed.Supplied supplied -> {
                                 // [5]int @ + 1
+                                final Expression expression = supplied.expression();
+                                if (length >= Parallel.THRESHOLD && Parallel.pure(expression)) {
+                                    yield Parallel.generate(executor, (int) length, fork -> fork.evaluate(expression, null));
+                                }
                                 final List<Value> evaluated = new ArrayList<>();
                                 for (int i = 0; i < length; i++) {
-                                    this.contextual = new Value.NumberLiteral(i);
+                                    executor.contextual = Value.NumberLiteral.of(i);
                                     final Value value = evaluate(supplied.expression(), null);
                                     evaluated.add(value);
-                                    this.contextual = null;
+                                    executor.contextual = null;
                                 }
                                 yield evaluated;
                             }
@@ -241,14 +206,7 @@ public final class Evaluator {
                 final Value start = evaluate(init.start(), null);
                 final Value end = evaluate(init.end(), null);
                 final Value step = evaluate(init.step(), null);
-                final long startValue = ValueType.requireInteger(start);
-                final long endValue = ValueType.requireInteger(end);
-                final long stepValue = ValueType.requireInteger(step);
-                final List<Value> values = new ArrayList<>();
-                for (long i = startValue; i < endValue; i += stepValue) {
-                    values.add(new Value.NumberLiteral(i));
-                }
-                yield new Value.Array(new Type.Array(Type.NUMBER, values.size()), values);
+                yield ValueCompute.range(start, end, step);
             }
             case Expression.Operation operation -> {
                 final Value left = evaluate(operation.left(), explicitType);
@@ -259,7 +217,7 @@ public final class Evaluator {
                 final Value value = evaluate(unary.expression(), explicitType);
                 if (unary.operator() == Token.Type.EXCLAMATION) {
                     if (value instanceof Value.BooleanLiteral booleanLiteral) {
-                        yield new Value.BooleanLiteral(!booleanLiteral.value());
+                        yield Value.BooleanLiteral.of(!booleanLiteral.value());
                     } else {
                         throw new RuntimeException("Expected boolean, got: " + value);
                     }
@@ -277,11 +235,23 @@ public final class Evaluator {
                 yield booleanLiteral.value() ? thenBranch : elseBranch;
             }
         };
-        final Value casted = cast(rawValue, explicitType);
+        // Proven casts never convert the value
+        final boolean proven = explicitType instanceof Type.Identifier &&
+                executor.context().provenCasts().get(argument) == explicitType;
+        final Value casted = proven ? rawValue : cast(rawValue, explicitType);
         //Objects.requireNonNull(casted, "Failed to evaluate: " + rawValue + " : " + argument);
         return casted;
     }
 
+    private Value lookup(String name, int depth, int slot) {
+        // Unresolved names are only expected from expressions built at runtime
+        final Value value = slot != -1 ? walker.find(depth, slot) : walker.find(name);
+        if (value == null) {
+            throw new RuntimeException("Variable not found: " + name + " -> " + walker.names());
+        }
+        return value;
+    }
+
     Value cast(Value value, Type target) {
         if (target == null) {
             // No type defined, use inferred type
@@ -318,9 +288,9 @@ public final class Evaluator {
             // Constrained type check
             if (trackedType instanceof Value.DistinctDecl distinctDecl) {
                 final Value casted = cast(value, distinctDecl.type());
-                this.contextual = casted;
+                executor.contextual = casted;
                 final Value.BooleanLiteral constraintResult = (Value.BooleanLiteral) evaluate(distinctDecl.constraint(), null);
-                this.contextual = null;
+                executor.contextual = null;
                 if (!constraintResult.value())
                     throw new RuntimeException("Value does not satisfy constraint: " + value);
                 return casted;
@@ -332,4 +302,13 @@ public final class Evaluator {
         // Valid type, no conversion needed
         return value;
     }
+
+    /**
+     * Returns the index of a named field in the layout of a struct.
+     */
+    static int field(Value.StructDecl struct, String name, String field) {
+        final int index = struct.shape().index(field);
+        if (index == -1) throw new RuntimeException("Field not found: " + field + " in " + name);
+        return index;
+    }
 }
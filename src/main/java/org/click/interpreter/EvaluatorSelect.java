@@ -5,24 +5,35 @@ import org.click.value.Value;
 import org.click.value.ValueCompute;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.click.Ast.Expression;
+import static org.click.Ast.Scope;
 import static org.click.Ast.Statement;
 
-public record EvaluatorSelect(Executor executor, ScopeWalker<Value> walker) {
+public record EvaluatorSelect(Executor executor, ScopeWalker walker) {
     Value evaluate(Expression.Select select, @Nullable Type explicitType) {
         final List<Statement.Block> blocks = select.blocks();
-        // Run every statement in a virtual thread and start the block of the first one that finishes
+        List<Value.FunctionDecl> declarations = new ArrayList<>(blocks.size());
+        for (Statement.Block block : blocks) {
+            declarations.add(new Value.FunctionDecl(List.of(), explicitType, List.of(block), Scope.EMPTY, null));
+        }
+        return select(executor, declarations);
+    }
+
+    /**
+     * Runs every declaration in a virtual thread and keeps the result of the first one that finishes.
+     */
+    static Value select(Executor parent, List<Value.FunctionDecl> declarations) {
         AtomicReference<Selection> selectionRef = new AtomicReference<>();
-        Thread[] threads = new Thread[blocks.size()];
+        Thread[] threads = new Thread[declarations.size()];
         CountDownLatch latch = new CountDownLatch(1);
         for (int i = 0; i < threads.length; i++) {
-            final Statement.Block block = blocks.get(i);
-            final Executor executor = executor().fork(true, executor().insideLoop);
-            final Value.FunctionDecl decl = new Value.FunctionDecl(List.of(), explicitType, List.of(block), null);
+            final Value.FunctionDecl decl = declarations.get(i);
+            final Executor executor = parent.fork(true, parent.insideLoop);
             threads[i] = Thread.ofVirtual().unstarted(() -> {
                 if (selectionRef.get() != null) return;
                 final Value result = executor.interpret("select", decl, List.of());
@@ -42,7 +53,7 @@ public record EvaluatorSelect(Executor executor, ScopeWalker<Value> walker) {
         for (Thread thread : threads) thread.interrupt();
         final Selection selection = selectionRef.get();
         assert selection != null;
-        ValueCompute.update(walker, selection.executor().walker());
+        ValueCompute.update(parent.walker(), selection.executor().walker());
         return selection.value();
     }
 
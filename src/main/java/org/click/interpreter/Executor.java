@@ -1,17 +1,16 @@
 package org.click.interpreter;
 
-import org.click.Scanner;
-import org.click.*;
+import org.click.DeclarationType;
+import org.click.Type;
 import org.click.external.ExternalFunction;
+import org.click.value.Arenas;
 import org.click.value.Value;
 import org.click.value.ValueCompute;
 import org.click.value.ValueType;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -20,12 +19,17 @@ import static org.click.Ast.*;
 
 public final class Executor {
     private final VM.Context context;
-    private final ScopeWalker<Value> walker;
+    private final ScopeWalker walker;
     final boolean async;
     boolean insideLoop;
     boolean interrupted;
+    // Value of `@` in constraints and supplied initializations
+    Value contextual;
     JoinScope joinScope;
-    final Map<String, SharedMutation> sharedMutations;
+    // Copied on first write, forks share the maps of their parent
+    private Map<String, SharedMutation> sharedMutations;
+    private Map<String, Long> sharedVersions;
+    private boolean sharedOwned;
 
     private final Evaluator interpreter;
     private final ExecutorLoop interpreterLoop;
@@ -33,47 +37,51 @@ public final class Executor {
 
     private CurrentFunction currentFunction = null;
 
-    record SharedMutation(AtomicReference<Value> ref, ReentrantLock writeLock,
+    record SharedMutation(AtomicReference<Value> ref, AtomicLong version, ReentrantLock writeLock,
                           ReentrantLock readLock, Condition condition) {
         public SharedMutation(Value initial) {
-            this(new AtomicReference<>(initial), new ReentrantLock(), new ReentrantLock(), null);
+            this(new AtomicReference<>(initial), new AtomicLong(), new ReentrantLock(), new ReentrantLock(), null);
         }
 
         public SharedMutation {
             condition = readLock.newCondition();
         }
 
-        void append(Executor executor, Value previous, Value next) {
+        long append(Executor executor, Value previous, Value next) {
+            // Outlives the region of the writer
+            next = Arenas.promote(next);
             writeLock.lock();
+            final Value value;
             if (executor.async) {
                 final Value current = ref.get();
                 final Value delta = ValueCompute.delta(previous, next);
-                final Value merged = ValueCompute.mergeDelta(current, delta);
-                ref.set(merged);
+                value = ValueCompute.mergeDelta(current, delta);
             } else {
-                ref.set(next);
+                value = next;
             }
-            writeLock.unlock();
+            // Publish value and version together so that awaiting threads never miss an update
             readLock.lock();
+            ref.set(value);
+            final long version = this.version.incrementAndGet();
             condition.signalAll();
             readLock.unlock();
+            writeLock.unlock();
+            return version;
         }
 
-        Value await(Value value) {
-            Value current = ref.get();
-            if (!value.equals(current)) return current;
-            // Wait for update
+        Value await(Executor executor, String name) {
             this.readLock.lock();
             try {
-                current = ref.get();
-                if (!value.equals(current)) return current;
-                condition.await();
+                // Wait for an update the executor has not observed yet, even if it wrote the same value
+                final long observed = executor.sharedVersions.get(name);
+                while (version.get() == observed) condition.await();
+                executor.observe(name, version.get());
+                return ref.get();
             } catch (InterruptedException e) {
                 return new Value.Interrupt();
             } finally {
                 this.readLock.unlock();
             }
-            return ref.get();
         }
     }
 
@@ -84,14 +92,15 @@ public final class Executor {
                            List<Value> evaluatedParameters) {
     }
 
-    public Executor(VM.Context context, boolean async, boolean insideLoop,
-                    JoinScope joinScope, Map<String, SharedMutation> sharedMutations) {
+    private Executor(VM.Context context, boolean async, boolean insideLoop, JoinScope joinScope,
+                     Map<String, SharedMutation> sharedMutations, Map<String, Long> sharedVersions) {
         this.context = context;
         this.walker = context.walker();
         this.async = async;
         this.insideLoop = insideLoop;
         this.joinScope = joinScope;
-        this.sharedMutations = new HashMap<>(sharedMutations);
+        this.sharedMutations = sharedMutations;
+        this.sharedVersions = sharedVersions;
 
         this.interpreter = new Evaluator(this, walker);
 
@@ -100,14 +109,14 @@ public final class Executor {
     }
 
     public Executor(VM.Context context) {
-        this(context, false, false, new JoinScope(new Phaser(1), new ArrayList<>()), Map.of());
+        this(context, false, false, new JoinScope(new Phaser(1), new ArrayList<>()), Map.of(), Map.of());
     }
 
     public VM.Context context() {
         return context;
     }
 
-    public ScopeWalker<Value> walker() {
+    public ScopeWalker walker() {
         return walker;
     }
 
@@ -115,22 +124,27 @@ public final class Executor {
         return currentFunction;
     }
 
+    /**
+     * Returns a fork in the same mode, sharing the frames until either writes.
+     */
+    public Executor fork() {
+        return fork(async, insideLoop);
+    }
+
     public Executor fork(boolean async, boolean insideLoop) {
-        final ScopeWalker<Value> copy = new ScopeWalker<>();
-        final VM.Context context = new VM.Context(this.context.directory(), copy, this.context.externals());
-        final Executor executor = new Executor(context, async, insideLoop, joinScope, sharedMutations);
-        copy.enterBlock();
-        this.walker.currentScope().tracked().forEach(copy::register);
-        return executor;
+        final ScopeWalker copy = walker.fork();
+        final VM.Context context = new VM.Context(this.context.directory(), copy, this.context.externals(),
+                this.context.compiler(), this.context.provenCasts(), this.context.callCaches());
+        this.sharedOwned = false;
+        return new Executor(context, async, insideLoop, joinScope, sharedMutations, sharedVersions);
     }
 
     public Value interpret(String name, Value.FunctionDecl declaration, List<Value> parameters) {
-        walker.enterBlock();
+        walker.enterBlock(declaration.scope());
         for (int i = 0; i < parameters.size(); i++) {
-            final Parameter parameter = declaration.parameters().get(i);
             final Value value = parameters.get(i);
             assert value != null;
-            walker.register(parameter.name(), value);
+            walker.register(i, value);
         }
 
         enterScope();
@@ -138,9 +152,15 @@ public final class Executor {
         currentFunction = new CurrentFunction(name, declaration.parameters(),
                 declaration.returnType(), parameters);
         Value result = null;
-        for (Statement statement : declaration.body()) {
-            result = interpret(statement);
-            if (result != null) break;
+        final ClosureCompiler compiler = context.compiler();
+        final ClosureCompiler.Executable compiled = compiler != null ? compiler.function(declaration.scope()) : null;
+        if (compiled != null) {
+            result = compiled.execute(this);
+        } else {
+            for (Statement statement : declaration.body()) {
+                result = interpret(statement);
+                if (result != null) break;
+            }
         }
         currentFunction = previousFunction;
         exitScope();
@@ -158,7 +178,7 @@ public final class Executor {
     void exitScope() {
         this.joinScope.phaser.arriveAndAwaitAdvance();
         // Merge
-        final List<ScopeWalker<Value>> walkers = joinScope.spawns().stream().map(Executor::walker).toList();
+        final List<ScopeWalker> walkers = joinScope.spawns().stream().map(Executor::walker).toList();
         ValueCompute.merge(walker, walkers);
         // Restore
         joinScope = previousJoinScope;
@@ -166,6 +186,11 @@ public final class Executor {
 
     public Value interpret(String name, List<Value> parameters) {
         final Value function = walker.find(name);
+        if (function == null) throw new RuntimeException("Function not found: " + name);
+        return interpret(name, function, parameters);
+    }
+
+    public Value interpret(String name, Value function, List<Value> parameters) {
         return switch (function) {
             case Value.FunctionDecl functionDecl -> {
                 final Executor callExecutor = Objects.requireNonNullElse(functionDecl.lambdaExecutor(), this);
@@ -182,24 +207,50 @@ public final class Executor {
         };
     }
 
+    SharedMutation sharedMutation(String name) {
+        return sharedMutations.get(name);
+    }
+
+    void observe(String name, long version) {
+        ownShared();
+        this.sharedVersions.put(name, version);
+    }
+
+    private void ownShared() {
+        if (sharedOwned) return;
+        this.sharedMutations = new HashMap<>(sharedMutations);
+        this.sharedVersions = new HashMap<>(sharedVersions);
+        this.sharedOwned = true;
+    }
+
     public Value evaluate(Expression expression, Type explicitType) {
         return interpreter.evaluate(expression, explicitType);
     }
 
-    public void registerMulti(List<String> names, DeclarationType declarationType, Value value) {
+    Value cast(Value value, Type explicitType) {
+        return interpreter.cast(value, explicitType);
+    }
+
+    public void registerMulti(List<String> names, int slot, DeclarationType declarationType, Value value) {
         if (value instanceof Value.FunctionDecl || value instanceof Value.StructDecl ||
                 value instanceof Value.EnumDecl || value instanceof Value.UnionDecl) {
             if (declarationType != DeclarationType.CONSTANT) {
                 throw new RuntimeException("Type declaration must be constant");
             }
         }
+        assert slot != -1 : "Unresolved declaration: " + names;
+        final int depth = walker.depth();
         for (int i = 0; i < names.size(); i++) {
             final String name = names.get(i);
-            if (walker.find(name) != null)
+            if (walker.find(depth, slot + i) != null)
                 throw new RuntimeException("Variable already declared: " + name);
             final Value deconstructed = names.size() > 1 ? ValueCompute.deconstruct(walker, value, i) : value;
-            walker.register(name, deconstructed);
-            if (declarationType == DeclarationType.SHARED) this.sharedMutations.put(name, new SharedMutation(value));
+            walker.register(slot + i, deconstructed);
+            if (declarationType == DeclarationType.SHARED) {
+                ownShared();
+                this.sharedMutations.put(name, new SharedMutation(value));
+                this.sharedVersions.put(name, 0L);
+            }
         }
     }
 
@@ -227,31 +278,40 @@ public final class Executor {
                 final Expression initializer = declare.initializer();
                 final Value evaluated = interpreter.evaluate(initializer, declare.explicitType());
                 assert evaluated != null;
-                registerMulti(names, declare.declarationType(), evaluated);
+                registerMulti(names, declare.slot(), declare.declarationType(), evaluated);
                 yield null;
             }
             case Statement.Assign assign -> {
                 final List<Statement.Assign.Target> assignTargets = assign.targets();
                 final int count = assignTargets.size();
                 Type explicitType = null;
+                for (Statement.Assign.Target target : assignTargets) {
+                    if (target.slot() == -1) throw new RuntimeException("Variable not found: " + target.name());
+                }
                 if (count == 1) {
                     final Statement.Assign.Target target = assignTargets.get(0);
-                    final String name = target.name();
-                    final Value targetValue = evaluate(new Expression.Access(new Expression.Variable(name), target.accessPoints()), null);
-                    explicitType = ValueType.extractAssignmentType(targetValue);
+                    final Expression.Variable variable = new Expression.Variable(target.name(), target.depth(), target.slot());
+                    final List<AccessPoint> accessPoints = target.accessPoints();
+                    final Value targetValue = accessPoints.isEmpty() ? evaluate(variable, null) :
+                            evaluate(new Expression.Access(variable, accessPoints), null);
+                    // Missing fields have no value to take the type from
+                    if (targetValue != null) explicitType = ValueType.extractAssignmentType(targetValue);
                 }
                 final Value evaluated = interpreter.evaluate(assign.expression(), explicitType);
                 if (evaluated instanceof Value.Interrupt) yield evaluated;
                 for (int i = 0; i < count; i++) {
                     final Statement.Assign.Target target = assignTargets.get(i);
                     final String name = target.name();
-                    final Value tracked = walker.find(name);
+                    final Value tracked = walker.find(target.depth(), target.slot());
                     assert tracked != null : "Variable not found: " + name;
                     final Value deconstructed = count > 1 ? ValueCompute.deconstruct(walker, evaluated, i) : evaluated;
                     final Value updatedVariable = ValueCompute.updateVariable(this, tracked, target.accessPoints(), deconstructed);
-                    walker.update(name, updatedVariable);
+                    walker.update(target.depth(), target.slot(), updatedVariable);
                     var sharedMutation = sharedMutations.get(name);
-                    if (sharedMutation != null) sharedMutation.append(this, tracked, updatedVariable);
+                    if (sharedMutation != null) {
+                        final long version = sharedMutation.append(this, tracked, updatedVariable);
+                        observe(name, version);
+                    }
                 }
                 yield null;
             }
@@ -287,7 +347,7 @@ public final class Executor {
             }
             case Statement.Spawn spawn -> this.interpreterSpawn.interpret(spawn);
             case Statement.Block block -> {
-                this.walker.enterBlock();
+                this.walker.enterBlock(block.scope());
                 Value result = null;
                 for (Statement inner : block.statements()) {
                     result = interpret(inner);
@@ -306,17 +366,8 @@ public final class Executor {
                 yield null;
             }
             case Statement.LoadLibrary loadLibrary -> {
-                final String filePath = loadLibrary.path();
-                final String source;
-                try {
-                    final Path path = this.context.directory().resolve(filePath);
-                    source = Files.readString(path);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                final List<Token> tokens = new Scanner(source).scanTokens();
-                final List<Statement> statements = new Parser(tokens).parse();
-                interpret(statements);
+                // Parsed and resolved ahead of time
+                interpret(loadLibrary.statements());
                 yield null;
             }
         };
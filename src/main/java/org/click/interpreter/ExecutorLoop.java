@@ -1,25 +1,31 @@
 package org.click.interpreter;
 
-import org.click.Type;
+import org.click.value.Elements;
 import org.click.value.Value;
 
 import java.util.List;
 
+import static org.click.Ast.Expression;
 import static org.click.Ast.Statement;
 
-public record ExecutorLoop(Executor executor, ScopeWalker<Value> walker) {
+public record ExecutorLoop(Executor executor, ScopeWalker walker) {
     Value interpret(Statement.Loop loop) {
         var previousLoop = executor.insideLoop;
         executor.insideLoop = true;
-        this.walker.enterBlock();
+        this.walker.enterBlock(loop.scope());
         if (loop.iterable() == null) {
             // Infinite loop
             //noinspection StatementWithEmptyBody
             while (iterate(loop.body())) ;
+        } else if (loop.iterable() instanceof Expression.Constraint constraint) {
+            // Filter while iterating, with the variables of the loop start
+            final Value source = executor.evaluate(new Expression.Access(constraint.object(), constraint.accessPoints()), null);
+            final Expression condition = constraint.expression();
+            loop(loop, new Filter(executor.fork(), source, condition, fork -> fork.evaluate(condition, null)));
         } else {
             final Value iterable = executor.evaluate(loop.iterable(), null);
             if (iterable instanceof Value.Array arrayRef) {
-                loop(loop, arrayRef);
+                loop(loop, arrayRef.elements());
             } else {
                 throw new RuntimeException("Expected iterable, got: " + iterable);
             }
@@ -35,44 +41,40 @@ public record ExecutorLoop(Executor executor, ScopeWalker<Value> walker) {
         return !(value instanceof Value.Break) && !(value instanceof Value.Interrupt);
     }
 
-    private void loop(Statement.Loop loop, Value.Array array) {
+    private void loop(Statement.Loop loop, Iterable<Value> values) {
         final List<Statement.Loop.Declaration> declarations = loop.declarations();
         final Statement body = loop.body();
-        final Type.Array arrayType = array.arrayType();
-        final List<Value> values = array.elements();
         if (!declarations.isEmpty()) {
             if (declarations.size() == 1 && !declarations.get(0).ref()) {
                 // for-each loop
-                final String variableName = declarations.get(0).name();
-                walker.register(variableName, null);
+                if (values instanceof Elements.Range range) {
+                    long value = range.start();
+                    for (int i = 0; i < range.size(); i++, value += range.step()) {
+                        walker.register(0, Value.NumberLiteral.of(value));
+                        if (!iterate(body)) break;
+                    }
+                    return;
+                }
                 for (Value value : values) {
-                    walker.update(variableName, value);
+                    walker.register(0, value);
                     if (!iterate(body)) break;
                 }
             } else if (declarations.size() == 2 && !declarations.get(0).ref() && !declarations.get(1).ref()) {
                 // for-each counted loop
-                final String indexName = declarations.get(0).name();
-                final String variableName = declarations.get(1).name();
-                walker.register(indexName, null);
-                walker.register(variableName, null);
-                for (int i = 0; i < values.size(); i++) {
-                    final Value value = values.get(i);
-                    walker.update(indexName, new Value.NumberLiteral(i));
-                    walker.update(variableName, value);
+                int i = 0;
+                for (Value value : values) {
+                    walker.register(0, Value.NumberLiteral.of(i++));
+                    walker.register(1, value);
                     if (!iterate(body)) break;
                 }
             } else {
                 // Ref loop
                 assert declarations.stream().allMatch(Statement.Loop.Declaration::ref) : "Invalid loop declaration: " + declarations;
                 List<String> refs = declarations.stream().map(Statement.Loop.Declaration::name).toList();
-                for (Statement.Loop.Declaration declaration : declarations) {
-                    final String name = declaration.name();
-                    walker.register(name, new Value.NumberLiteral(0));
-                }
                 for (Value value : values) {
-                    for (String refName : refs) {
-                        final Value refValue = ((Value.Struct) value).parameters().get(refName);
-                        walker.update(refName, refValue);
+                    for (int i = 0; i < refs.size(); i++) {
+                        final Value refValue = ((Value.Struct) value).get(refs.get(i));
+                        walker.register(i, refValue);
                     }
                     if (!iterate(body)) break;
                 }
@@ -1,20 +1,34 @@
 package org.click.interpreter;
 
+import org.click.value.Arenas;
 import org.click.value.Value;
 
 import java.util.concurrent.Phaser;
+import java.util.function.Consumer;
 
+import static org.click.Ast.Scope;
 import static org.click.Ast.Statement;
 
-public record ExecutorSpawn(Executor executor, ScopeWalker<Value> walker) {
+public record ExecutorSpawn(Executor executor, ScopeWalker walker) {
     Value interpret(Statement.Spawn spawn) {
-        final Executor executor = executor().fork(true, false);
+        return spawn(executor, spawn.scope(), fork -> fork.interpret(spawn.statement()));
+    }
+
+    static Value spawn(Executor parent, Scope scope, Consumer<Executor> body) {
+        final Executor executor = parent.fork(true, false);
         final Executor.JoinScope joinScope = executor.joinScope;
         final Phaser phaser = joinScope.phaser();
         joinScope.spawns().add(executor);
         phaser.register(); // Prevent the join scope from exiting before the spawned task finishes
+        final Arenas.Region region = Arenas.open();
         Thread.startVirtualThread(() -> {
-            executor.interpret(spawn.statement());
+            region.run(() -> {
+                executor.walker().enterBlock(scope);
+                body.accept(executor);
+                executor.walker().exitBlock();
+                // Variables merged at the join outlive the region
+                Arenas.promote(executor.walker());
+            });
             phaser.arriveAndDeregister();
         });
         return null;
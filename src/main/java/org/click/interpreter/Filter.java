@@ -0,0 +1,128 @@
+package org.click.interpreter;
+
+import org.click.Token;
+import org.click.Type;
+import org.click.value.Elements;
+import org.click.value.Kernels;
+import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static org.click.Ast.AccessPoint;
+import static org.click.Ast.Expression;
+
+/**
+ * Elements of an array satisfying a {@code where} condition, tested while iterated.
+ * <p>
+ * Loops over a constraint consume it directly: the condition of an element is evaluated right before its iteration
+ * and no intermediate array is allocated. The condition still sees the variables as they were when the loop started,
+ * it is evaluated by a fork taken before the first iteration. Other uses collect it into an array: comparisons of
+ * numbers with a constant or variable run as a kernel, other large filters in parallel when the condition is pure.
+ */
+final class Filter implements Iterable<Value> {
+    private final Executor executor;
+    private final Value.Array source;
+    private final Expression expression;
+    // Evaluates the expression with an executor holding the element as its contextual value
+    private final Function<Executor, Value> condition;
+
+    Filter(Executor executor, Value source, Expression expression, Function<Executor, Value> condition) {
+        if (!(source instanceof Value.Array array)) throw new RuntimeException("Expected array, got: " + source);
+        this.executor = executor;
+        this.source = array;
+        this.expression = expression;
+        this.condition = condition;
+    }
+
+    /**
+     * Returns the satisfying elements as an array, losing the length information.
+     */
+    Value.Array collect() {
+        final List<Value> elements = source.elements();
+        List<Value> filtered = compare(elements);
+        if (filtered == null && elements.size() >= Parallel.THRESHOLD && Parallel.pure(expression)) {
+            filtered = Parallel.filter(executor, elements, condition);
+        }
+        if (filtered == null) {
+            filtered = new ArrayList<>();
+            for (Value element : this) filtered.add(element);
+        }
+        return new Value.Array(new Type.Array(source.arrayType().type(), -1), filtered);
+    }
+
+    /**
+     * Returns the elements satisfying a comparison with a number, or null if the condition or the elements do not fit
+     * the kernel.
+     */
+    private @Nullable List<Value> compare(List<Value> elements) {
+        if (!(expression instanceof Expression.Operation(Expression left, Token.Type operator, Expression right)))
+            return null;
+        final boolean flipped = right instanceof Expression.Contextual;
+        if (!flipped && !(left instanceof Expression.Contextual)) return null;
+        final Expression bound = flipped ? left : right;
+        if (!(bound instanceof Expression.Constant) && !(bound instanceof Expression.Variable)) return null;
+        if (!(executor.evaluate(bound, null) instanceof Value.NumberLiteral number) || !number.isLong()) return null;
+        final long[] longs = Elements.longs(elements);
+        if (longs == null) return null;
+        final long[] satisfying = Kernels.filter(flipped ? Kernels.flip(operator) : operator, longs, number.longValue());
+        return satisfying != null ? Elements.ofLongs(satisfying) : null;
+    }
+
+    /**
+     * Returns whether a condition only reads the contextual value and constants, so that the loop body cannot change
+     * its result.
+     */
+    static boolean contextual(Expression expression) {
+        return switch (expression) {
+            case Expression.Constant ignored -> true;
+            case Expression.Literal ignored -> true;
+            case Expression.Binary ignored -> true;
+            case Expression.Contextual ignored -> true;
+            case Expression.Access access -> contextual(access.object()) && access.accessPoints().stream()
+                    .allMatch(accessPoint -> accessPoint instanceof AccessPoint.Field);
+            case Expression.Operation operation -> contextual(operation.left()) && contextual(operation.right());
+            case Expression.Unary unary -> contextual(unary.expression());
+            default -> false;
+        };
+    }
+
+    static boolean test(Executor executor, Value element, Function<Executor, Value> condition) {
+        executor.contextual = element;
+        final Value value = condition.apply(executor);
+        executor.contextual = null;
+        if (!(value instanceof Value.BooleanLiteral(boolean result))) {
+            throw new RuntimeException("Expected constant, got: " + value);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<Value> iterator() {
+        final Iterator<Value> elements = source.elements().iterator();
+        return new Iterator<>() {
+            private Value next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && elements.hasNext()) {
+                    final Value element = elements.next();
+                    if (test(executor, element, condition)) next = element;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Value next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                final Value element = next;
+                next = null;
+                return element;
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package org.click.interpreter;
+
+import org.click.value.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.click.Ast.*;
+
+/**
+ * Data-parallel evaluation of {@code @} expressions over large arrays, on the common fork-join pool.
+ * <p>
+ * Elements are split in contiguous chunks, each evaluated by a fork of the executor holding its own contextual value,
+ * and the chunk results are concatenated in order. Only pure expressions are split: they read variables but neither
+ * call functions nor wait on shared ones.
+ */
+final class Parallel {
+    // Below this many elements the forks cost more than they save
+    static final int THRESHOLD = 1 << 16;
+    private static final int CHUNKS = Runtime.getRuntime().availableProcessors() * 4;
+
+    private Parallel() {
+    }
+
+    /**
+     * Returns whether an expression can be evaluated concurrently from forks of an executor.
+     */
+    static boolean pure(Expression expression) {
+        return switch (expression) {
+            case Expression.Constant ignored -> true;
+            case Expression.Literal ignored -> true;
+            case Expression.Binary ignored -> true;
+            case Expression.Variable ignored -> true;
+            case Expression.Contextual ignored -> true;
+            case Expression.Access access -> pure(access.object()) && pure(access.accessPoints());
+            case Expression.Range range -> pure(range.start()) && pure(range.end()) && pure(range.step());
+            case Expression.Operation operation -> pure(operation.left()) && pure(operation.right());
+            case Expression.Unary unary -> pure(unary.expression());
+            case Expression.Ternary ternary ->
+                    pure(ternary.condition()) && pure(ternary.thenBranch()) && pure(ternary.elseBranch());
+            default -> false;
+        };
+    }
+
+    private static boolean pure(List<AccessPoint> accessPoints) {
+        return accessPoints.stream().allMatch(accessPoint -> !(accessPoint instanceof AccessPoint.Index index) ||
+                pure(index.expression()));
+    }
+
+    /**
+     * Returns the values of an expression for each index up to the length.
+     */
+    static List<Value> generate(Executor executor, int length, Function<Executor, Value> supplier) {
+        final List<Value[]> chunks = split(executor, length, (fork, from, to) -> {
+            final Value[] values = new Value[to - from];
+            for (int i = from; i < to; i++) {
+                fork.contextual = Value.NumberLiteral.of(i);
+                values[i - from] = supplier.apply(fork);
+            }
+            return values;
+        });
+        final List<Value> result = new ArrayList<>(length);
+        for (Value[] chunk : chunks) result.addAll(Arrays.asList(chunk));
+        return result;
+    }
+
+    /**
+     * Returns the elements satisfying a condition, in their original order.
+     */
+    static List<Value> filter(Executor executor, List<Value> elements, Function<Executor, Value> condition) {
+        final List<List<Value>> chunks = split(executor, elements.size(), (fork, from, to) -> {
+            final List<Value> satisfying = new ArrayList<>();
+            for (Value element : elements.subList(from, to)) {
+                if (Filter.test(fork, element, condition)) satisfying.add(element);
+            }
+            return satisfying;
+        });
+        final List<Value> result = new ArrayList<>(chunks.stream().mapToInt(List::size).sum());
+        for (List<Value> chunk : chunks) result.addAll(chunk);
+        return result;
+    }
+
+    private static <T> List<T> split(Executor executor, int size, Chunk<T> chunk) {
+        final int chunkSize = Math.max(1, (size + CHUNKS - 1) / CHUNKS);
+        // Forked beforehand, forking marks the frames of the executor as shared
+        final Executor[] forks = new Executor[(size + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < forks.length; i++) forks[i] = executor.fork(false, executor.insideLoop);
+        return IntStream.range(0, forks.length).parallel()
+                .mapToObj(i -> chunk.evaluate(forks[i], i * chunkSize, Math.min(size, (i + 1) * chunkSize)))
+                .toList();
+    }
+
+    @FunctionalInterface
+    private interface Chunk<T> {
+        T evaluate(Executor fork, int from, int to);
+    }
+}
@@ -0,0 +1,317 @@
+package org.click.interpreter;
+
+import org.click.DeclarationType;
+import org.click.Token;
+import org.click.Type;
+import org.click.external.ExternalFunction;
+import org.click.value.LiteralValue;
+import org.click.value.Value;
+import org.click.value.ValueOperator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Function body lowered by {@link RegisterCompiler} to register bytecode, executed by a single dispatch loop.
+ * <p>
+ * Instructions are an opcode followed by its operands in {@link #code}. Values live in a {@code Value[]} register
+ * file whose first registers are the parameters and last registers the constants, copied from {@link #registers}.
+ * Explicit types of assignments and calls live in a {@code Type[]} file, and loop counters in a {@code long[]} file.
+ */
+record RegisterCode(int depth, int parameters, Value[] registers, int typeRegisters, int longRegisters,
+                    int[] code, Object[] constants) implements ClosureCompiler.Executable {
+    static final int MOVE = 0;
+    static final int OUTER = 1;
+    static final int STORE_OUTER = 2;
+    static final int OPERATE = 3;
+    static final int NOT = 4;
+    static final int TERNARY = 5;
+    static final int CAST = 6;
+    static final int CAST_DYNAMIC = 7;
+    static final int LITERAL = 8;
+    static final int FIELD = 9;
+    static final int INDEX = 10;
+    static final int RANGE = 11;
+    static final int PARAMETER_TYPE = 12;
+    static final int CALL = 13;
+    static final int EXTERN = 14;
+    static final int DECLARE = 15;
+    static final int ASSIGNMENT_TYPE = 16;
+    static final int SHARE = 17;
+    static final int UPDATE = 18;
+    static final int JUMP = 19;
+    static final int JUMP_FALSE = 20;
+    static final int RESULT = 21;
+    static final int INTERRUPT = 22;
+    static final int RETURN_NULL = 23;
+    static final int ENTER_LOOP = 24;
+    static final int EXIT_LOOP = 25;
+    static final int RANGE_INIT = 26;
+    static final int JUMP_NOT_LESS = 27;
+    static final int LONG_ADD = 28;
+    static final int LONG_INCREMENT = 29;
+    static final int LONG_CLEAR = 30;
+    static final int NUMBER = 31;
+    static final int ELEMENTS = 32;
+    static final int JUMP_END = 33;
+    static final int ELEMENT = 34;
+    static final int SLICE = 35;
+
+    /**
+     * Name and operand kinds of each opcode: r value register, t type register, l long register, k constant,
+     * o operator, i immediate and @ jump target, where -1 leaves the function.
+     */
+    private static final String[] FORMATS = {
+            "MOVE rr", "OUTER riik", "STORE_OUTER iir", "OPERATE rrro", "NOT rr", "TERNARY rrrr",
+            "CAST rrk", "CAST_DYNAMIC rrt", "LITERAL rkt", "FIELD rrk", "INDEX rrr", "RANGE rrrr",
+            "PARAMETER_TYPE tri", "CALL rrkri", "EXTERN rkri", "DECLARE rri", "ASSIGNMENT_TYPE tr", "SHARE rkrr",
+            "UPDATE rkrrrik", "JUMP @", "JUMP_FALSE r@", "RESULT r@@", "INTERRUPT r@", "RETURN_NULL ",
+            "ENTER_LOOP l", "EXIT_LOOP l", "RANGE_INIT lllrrr", "JUMP_NOT_LESS ll@", "LONG_ADD ll",
+            "LONG_INCREMENT l", "LONG_CLEAR l", "NUMBER rl", "ELEMENTS rr", "JUMP_END rl@", "ELEMENT rrl",
+            "SLICE rrrrr"
+    };
+
+    private static final Token.Type[] OPERATORS = Token.Type.values();
+    private static final DeclarationType[] DECLARATION_TYPES = DeclarationType.values();
+    private static final Type[] NO_TYPES = new Type[0];
+    private static final long[] NO_LONGS = new long[0];
+
+    static int size(int opcode) {
+        return FORMATS[opcode].length() - FORMATS[opcode].indexOf(' ');
+    }
+
+    static char kind(int opcode, int operand) {
+        return FORMATS[opcode].charAt(FORMATS[opcode].indexOf(' ') + operand);
+    }
+
+    @Override
+    public Value execute(Executor executor) {
+        final ScopeWalker walker = executor.walker();
+        final int[] code = this.code;
+        final Object[] constants = this.constants;
+        final Value[] r = registers.clone();
+        final Type[] types = typeRegisters > 0 ? new Type[typeRegisters] : NO_TYPES;
+        final long[] longs = longRegisters > 0 ? new long[longRegisters] : NO_LONGS;
+        for (int i = 0; i < parameters; i++) r[i] = walker.find(depth, i);
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case MOVE -> {
+                    r[code[pc + 1]] = r[code[pc + 2]];
+                    pc += 3;
+                }
+                case OUTER -> {
+                    r[code[pc + 1]] = BytecodeRuntime.outer(walker, code[pc + 2], code[pc + 3], (String) constants[code[pc + 4]]);
+                    pc += 5;
+                }
+                case STORE_OUTER -> {
+                    walker.update(code[pc + 1], code[pc + 2], r[code[pc + 3]]);
+                    pc += 4;
+                }
+                case OPERATE -> {
+                    r[code[pc + 1]] = ValueOperator.operate(OPERATORS[code[pc + 4]], r[code[pc + 2]], r[code[pc + 3]]);
+                    pc += 5;
+                }
+                case NOT -> {
+                    r[code[pc + 1]] = BytecodeRuntime.not(r[code[pc + 2]]);
+                    pc += 3;
+                }
+                case TERNARY -> {
+                    r[code[pc + 1]] = BytecodeRuntime.ternary(r[code[pc + 2]], r[code[pc + 3]], r[code[pc + 4]]);
+                    pc += 5;
+                }
+                case CAST -> {
+                    r[code[pc + 1]] = executor.cast(r[code[pc + 2]], (Type) constants[code[pc + 3]]);
+                    pc += 4;
+                }
+                case CAST_DYNAMIC -> {
+                    r[code[pc + 1]] = BytecodeRuntime.cast(r[code[pc + 2]], types[code[pc + 3]], executor);
+                    pc += 4;
+                }
+                case LITERAL -> {
+                    r[code[pc + 1]] = BytecodeRuntime.literal((LiteralValue) constants[code[pc + 2]], types[code[pc + 3]]);
+                    pc += 4;
+                }
+                case FIELD -> {
+                    r[code[pc + 1]] = BytecodeRuntime.field(r[code[pc + 2]], (String) constants[code[pc + 3]]);
+                    pc += 4;
+                }
+                case INDEX -> {
+                    r[code[pc + 1]] = BytecodeRuntime.index(r[code[pc + 2]], r[code[pc + 3]]);
+                    pc += 4;
+                }
+                case SLICE -> {
+                    r[code[pc + 1]] = BytecodeRuntime.slice(r[code[pc + 2]], r[code[pc + 3]], r[code[pc + 4]], r[code[pc + 5]]);
+                    pc += 6;
+                }
+                case RANGE -> {
+                    r[code[pc + 1]] = BytecodeRuntime.range(r[code[pc + 2]], r[code[pc + 3]], r[code[pc + 4]]);
+                    pc += 5;
+                }
+                case PARAMETER_TYPE -> {
+                    types[code[pc + 1]] = BytecodeRuntime.parameterType(r[code[pc + 2]], code[pc + 3]);
+                    pc += 4;
+                }
+                case CALL -> {
+                    final int arguments = code[pc + 4];
+                    r[code[pc + 1]] = BytecodeRuntime.call(executor, (String) constants[code[pc + 3]], r[code[pc + 2]],
+                            Arrays.copyOfRange(r, arguments, arguments + code[pc + 5]));
+                    pc += 6;
+                }
+                case EXTERN -> {
+                    final Object function = constants[code[pc + 2]];
+                    if (!(function instanceof ExternalFunction externalFunction))
+                        throw new RuntimeException("External function impl not found: " + function);
+                    final int arguments = code[pc + 3];
+                    r[code[pc + 1]] = externalFunction.run(Arrays.copyOfRange(r, arguments, arguments + code[pc + 4]));
+                    pc += 5;
+                }
+                case DECLARE -> {
+                    r[code[pc + 1]] = BytecodeRuntime.declare(r[code[pc + 2]], DECLARATION_TYPES[code[pc + 3]]);
+                    pc += 4;
+                }
+                case ASSIGNMENT_TYPE -> {
+                    types[code[pc + 1]] = BytecodeRuntime.assignmentType(r[code[pc + 2]]);
+                    pc += 3;
+                }
+                case SHARE -> {
+                    r[code[pc + 1]] = BytecodeRuntime.share(executor, (String) constants[code[pc + 2]],
+                            r[code[pc + 3]], r[code[pc + 4]]);
+                    pc += 5;
+                }
+                case UPDATE -> {
+                    // Field names come from the constant template, indices from consecutive registers
+                    final Object[] accesses = ((Object[]) constants[code[pc + 7]]).clone();
+                    final int indices = code[pc + 5];
+                    for (int i = 0; i < code[pc + 6]; i++) {
+                        if (accesses[i] == null) accesses[i] = r[indices + i];
+                    }
+                    r[code[pc + 1]] = BytecodeRuntime.assign(executor, (String) constants[code[pc + 2]],
+                            r[code[pc + 3]], accesses, r[code[pc + 4]]);
+                    pc += 8;
+                }
+                case JUMP -> pc = code[pc + 1];
+                case JUMP_FALSE -> pc = BytecodeRuntime.condition(r[code[pc + 1]]) ? pc + 3 : code[pc + 2];
+                case RESULT -> {
+                    final Value value = r[code[pc + 1]];
+                    if (value == null) {
+                        pc += 4;
+                    } else if (code[pc + 2] == -1) {
+                        return value;
+                    } else {
+                        pc = BytecodeRuntime.iterate(value) ? code[pc + 2] : code[pc + 3];
+                    }
+                }
+                case INTERRUPT -> {
+                    final Value value = r[code[pc + 1]];
+                    if (!BytecodeRuntime.interrupted(value)) {
+                        pc += 3;
+                    } else if (code[pc + 2] == -1) {
+                        return value;
+                    } else {
+                        pc = code[pc + 2];
+                    }
+                }
+                case RETURN_NULL -> {
+                    return null;
+                }
+                case ENTER_LOOP -> {
+                    longs[code[pc + 1]] = BytecodeRuntime.enterLoop(executor) ? 1 : 0;
+                    pc += 2;
+                }
+                case EXIT_LOOP -> {
+                    BytecodeRuntime.exitLoop(executor, longs[code[pc + 1]] != 0);
+                    pc += 2;
+                }
+                case RANGE_INIT -> {
+                    // The loop counts its iterations, the value after the last one may overflow
+                    final long start = BytecodeRuntime.integer(r[code[pc + 4]]);
+                    final long end = BytecodeRuntime.integer(r[code[pc + 5]]);
+                    final long step = BytecodeRuntime.integer(r[code[pc + 6]]);
+                    longs[code[pc + 1]] = start;
+                    longs[code[pc + 2]] = BytecodeRuntime.rangeSize(start, end, step);
+                    longs[code[pc + 3]] = step;
+                    pc += 7;
+                }
+                case JUMP_NOT_LESS -> pc = longs[code[pc + 1]] < longs[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                case LONG_ADD -> {
+                    longs[code[pc + 1]] += longs[code[pc + 2]];
+                    pc += 3;
+                }
+                case LONG_INCREMENT -> {
+                    longs[code[pc + 1]]++;
+                    pc += 2;
+                }
+                case NUMBER -> {
+                    r[code[pc + 1]] = Value.NumberLiteral.of(longs[code[pc + 2]]);
+                    pc += 3;
+                }
+                case ELEMENTS -> {
+                    final Value iterable = r[code[pc + 2]];
+                    BytecodeRuntime.elements(iterable);
+                    r[code[pc + 1]] = iterable;
+                    pc += 3;
+                }
+                case JUMP_END -> {
+                    final List<Value> elements = ((Value.Array) r[code[pc + 1]]).elements();
+                    pc = longs[code[pc + 2]] < elements.size() ? pc + 4 : code[pc + 3];
+                }
+                case ELEMENT -> {
+                    final List<Value> elements = ((Value.Array) r[code[pc + 2]]).elements();
+                    r[code[pc + 1]] = elements.get((int) longs[code[pc + 3]]);
+                    pc += 4;
+                }
+                case LONG_CLEAR -> {
+                    longs[code[pc + 1]] = 0;
+                    pc += 2;
+                }
+                default -> throw new IllegalStateException("Invalid opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Returns one line per instruction, prefixed by its offset.
+     */
+    String disassemble() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("; depth ").append(depth).append(", ").append(parameters).append(" parameters, ")
+                .append(registers.length).append(" registers, ").append(typeRegisters).append(" type registers, ")
+                .append(longRegisters).append(" long registers\n");
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] != null) builder.append("; r").append(i).append(" = ").append(describe(registers[i])).append('\n');
+        }
+        int pc = 0;
+        while (pc < code.length) {
+            final String format = FORMATS[code[pc]];
+            final int separator = format.indexOf(' ');
+            builder.append(String.format("%04d: ", pc)).append(format, 0, separator);
+            for (int i = separator + 1; i < format.length(); i++) {
+                final int operand = code[pc + i - separator];
+                builder.append(i == separator + 1 ? " " : ", ").append(switch (format.charAt(i)) {
+                    case 'r' -> "r" + operand;
+                    case 't' -> "t" + operand;
+                    case 'l' -> "l" + operand;
+                    case 'k' -> "#" + operand + " " + describe(constants[operand]);
+                    case 'o' -> OPERATORS[operand].name();
+                    case '@' -> operand == -1 ? "exit" : String.format("%04d", operand);
+                    default -> Integer.toString(operand);
+                });
+            }
+            builder.append('\n');
+            pc += size(code[pc]);
+        }
+        return builder.toString();
+    }
+
+    private static String describe(Object constant) {
+        return switch (constant) {
+            case String string -> '"' + string + '"';
+            case Value.NumberLiteral number -> number.value().toPlainString();
+            case Value.BooleanLiteral bool -> Boolean.toString(bool.value());
+            case Object[] accesses -> Arrays.toString(accesses);
+            case ExternalFunction ignored -> "extern";
+            default -> constant.toString();
+        };
+    }
+}
@@ -0,0 +1,554 @@
+package org.click.interpreter;
+
+import org.click.BinStandard;
+import org.click.DeclarationType;
+import org.click.Token;
+import org.click.Type;
+import org.click.external.ExternalFunction;
+import org.click.value.LiteralValue;
+import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static org.click.Ast.*;
+import static org.click.interpreter.RegisterCode.*;
+
+/**
+ * Lowers function bodies to {@link RegisterCode}, for the same subset of the language as {@link BytecodeCompiler}.
+ * <p>
+ * Variables get fixed registers, parameters first, and temporaries are allocated as a stack above them.
+ */
+final class RegisterCompiler implements ClosureCompiler.FunctionCompiler {
+    private final Map<String, ExternalFunction> externals;
+    private final Map<Integer, Value.ExternFunctionDecl> externDeclarations;
+    private final Map<Expression, Type> provenCasts;
+
+    RegisterCompiler(Map<String, ExternalFunction> externals, List<Statement> program,
+                     Map<Expression, Type> provenCasts) {
+        this.externals = externals;
+        this.externDeclarations = BytecodeCompiler.externDeclarations(program);
+        this.provenCasts = provenCasts;
+    }
+
+    @Override
+    public @Nullable RegisterCode compile(Value.FunctionDecl functionDecl) {
+        final Scope scope = functionDecl.scope();
+        if (scope == null || scope.depth() < 1) return null;
+        try {
+            return new Lowering(functionDecl).lower();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        Unsupported(Object construct) {
+            super("Unsupported: " + construct, null, false, false);
+        }
+    }
+
+    /**
+     * Explicit type of an expression, either known at compile time or held in a type register.
+     */
+    private record ExplicitType(@Nullable Type type, int register) {
+        static final ExplicitType NONE = new ExplicitType(null, -1);
+
+        static ExplicitType of(@Nullable Type type) {
+            return type != null ? new ExplicitType(type, -1) : NONE;
+        }
+
+        boolean converts() {
+            return register != -1 || type != null && !(type instanceof Type.Primitive);
+        }
+    }
+
+    private record LoopLabels(int next, int end) {
+    }
+
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final class Lowering {
+        private final Value.FunctionDecl functionDecl;
+        private final int functionDepth;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Value, Integer> constantRegisters = new LinkedHashMap<>();
+        // Register of each variable, by depth and slot
+        private final Map<Long, Integer> variables = new HashMap<>();
+        private int[] code = new int[64];
+        private int size;
+        private final List<Integer> labels = new ArrayList<>();
+        private final List<Integer> fixups = new ArrayList<>();
+        private int top, maxRegisters;
+        private int typeTop, maxTypes;
+        private int longs;
+        private int depth;
+        private @Nullable LoopLabels loop;
+        // Whether the next instruction can be reached from the previous one
+        private boolean reachable = true;
+
+        Lowering(Value.FunctionDecl functionDecl) {
+            this.functionDecl = functionDecl;
+            this.functionDepth = Objects.requireNonNull(functionDecl.scope()).depth();
+            this.depth = functionDepth;
+        }
+
+        RegisterCode lower() {
+            for (int i = 0; i < functionDecl.parameters().size(); i++) allocate(functionDepth, i);
+            collectVariables(functionDecl.body(), functionDepth);
+            this.top = this.maxRegisters = variables.size();
+            statements(functionDecl.body());
+            emit(RETURN_NULL);
+            for (int fixup : fixups) code[fixup] = labels.get(code[fixup]);
+            // Constants are placed after the temporaries
+            Value[] registers = new Value[maxRegisters + constantRegisters.size()];
+            for (Map.Entry<Value, Integer> entry : constantRegisters.entrySet()) {
+                registers[maxRegisters + entry.getValue()] = entry.getKey();
+            }
+            for (int pc = 0; pc < size; pc += size(code[pc])) {
+                for (int i = 1; i < size(code[pc]); i++) {
+                    if (kind(code[pc], i) == 'r' && code[pc + i] < 0) code[pc + i] = maxRegisters - 1 - code[pc + i];
+                }
+            }
+            return new RegisterCode(functionDepth, functionDecl.parameters().size(), registers, maxTypes, longs,
+                    Arrays.copyOf(code, size), constants.toArray());
+        }
+
+        private void collectVariables(List<Statement> statements, int depth) {
+            for (Statement statement : statements) collectVariables(statement, depth);
+        }
+
+        private void collectVariables(Statement statement, int depth) {
+            switch (statement) {
+                case Statement.Declare declare -> allocate(depth, declare.slot());
+                case Statement.Block block -> collectVariables(block.statements(), depth + 1);
+                case Statement.Branch branch -> {
+                    collectVariables(branch.thenBranch(), depth);
+                    if (branch.elseBranch() != null) collectVariables(branch.elseBranch(), depth);
+                }
+                case Statement.Loop loopStatement -> {
+                    final List<Statement.Loop.Declaration> declarations = loopStatement.declarations();
+                    if (declarations != null) {
+                        for (int i = 0; i < declarations.size(); i++) allocate(depth + 1, i);
+                    }
+                    collectVariables(loopStatement.body(), depth + 1);
+                }
+                default -> {
+                }
+            }
+        }
+
+        // STATEMENTS
+
+        private void statements(List<Statement> statements) {
+            for (Statement statement : statements) statement(statement, true);
+        }
+
+        /**
+         * Declarations are only lowered directly inside blocks, where they always run before being read.
+         */
+        private void statement(Statement statement, boolean declarations) {
+            final int mark = top, typeMark = typeTop;
+            switch (statement) {
+                case Statement.Declare declare -> {
+                    if (!declarations || declare.names().size() != 1 ||
+                            declare.declarationType() == DeclarationType.SHARED) throw new Unsupported(declare);
+                    final int register = variable(depth, declare.slot());
+                    expression(declare.initializer(), ExplicitType.of(declare.explicitType()), register);
+                    // Only variables can hold invalid declarations
+                    if (declare.declarationType() != DeclarationType.CONSTANT)
+                        emit(DECLARE, register, register, declare.declarationType().ordinal());
+                }
+                case Statement.Assign assign -> assign(assign);
+                case Statement.Run run -> result(operand(run.expression(), ExplicitType.NONE));
+                case Statement.Branch branch -> {
+                    final int elseLabel = newLabel();
+                    final int endLabel = newLabel();
+                    emit(JUMP_FALSE, operand(branch.condition(), ExplicitType.NONE), elseLabel);
+                    statement(branch.thenBranch(), false);
+                    if (reachable) emit(JUMP, endLabel);
+                    bind(elseLabel);
+                    if (branch.elseBranch() != null) statement(branch.elseBranch(), false);
+                    bind(endLabel);
+                }
+                case Statement.Loop loopStatement -> loop(loopStatement);
+                case Statement.Break ignored -> {
+                    if (loop == null) throw new Unsupported(statement);
+                    emit(JUMP, loop.end());
+                }
+                case Statement.Continue ignored -> {
+                    if (loop == null) throw new Unsupported(statement);
+                    emit(JUMP, loop.next());
+                }
+                case Statement.Block block -> {
+                    depth++;
+                    statements(block.statements());
+                    depth--;
+                }
+                case Statement.Return returnStatement -> {
+                    // Empty returns do not stop the function
+                    if (returnStatement.expression() != null)
+                        result(operand(returnStatement.expression(), ExplicitType.of(functionDecl.returnType())));
+                }
+                case Statement.Join ignored -> throw new Unsupported(statement);
+                case Statement.Spawn ignored -> throw new Unsupported(statement);
+                case Statement.LoadLibrary ignored -> throw new Unsupported(statement);
+            }
+            this.top = mark;
+            this.typeTop = typeMark;
+        }
+
+        /**
+         * A non-null statement result ends the function or the current loop iteration.
+         */
+        private void result(int register) {
+            if (loop == null) {
+                emit(RESULT, register, -1, -1);
+            } else {
+                emit(RESULT, register, loop.next(), loop.end());
+            }
+        }
+
+        private void assign(Statement.Assign assign) {
+            if (assign.targets().size() != 1) throw new Unsupported(assign);
+            final Statement.Assign.Target target = assign.targets().getFirst();
+            final String name = target.name();
+            final List<AccessPoint> accessPoints = target.accessPoints();
+            if (target.slot() == -1) throw new Unsupported(assign);
+            // The explicit type is taken from the current value
+            final int type = typeTemp();
+            emit(ASSIGNMENT_TYPE, type, accessPoints(load(name, target.depth(), target.slot()), accessPoints));
+            final int evaluated = temp();
+            expression(assign.expression(), new ExplicitType(null, type), evaluated);
+            if (interruptible(assign.expression())) emit(INTERRUPT, evaluated, loop != null ? loop.end() : -1);
+            final int tracked = load(name, target.depth(), target.slot());
+            final boolean local = target.depth() >= functionDepth;
+            final int updated = local ? tracked : temp();
+            if (accessPoints.isEmpty()) {
+                emit(SHARE, updated, constant(name), tracked, evaluated);
+            } else {
+                final int indices = temps(accessPoints.size());
+                final Object[] template = new Object[accessPoints.size()];
+                for (int i = 0; i < accessPoints.size(); i++) {
+                    switch (accessPoints.get(i)) {
+                        case AccessPoint.Field field -> template[i] = field.component();
+                        case AccessPoint.Index index -> expression(index.expression(), ExplicitType.NONE, indices + i);
+                    }
+                }
+                emit(UPDATE, updated, constant(name), tracked, evaluated, indices, accessPoints.size(), constant(template));
+            }
+            if (!local) emit(STORE_OUTER, target.depth(), target.slot(), updated);
+        }
+
+        private void loop(Statement.Loop loopStatement) {
+            final List<Statement.Loop.Declaration> declarations =
+                    Objects.requireNonNullElse(loopStatement.declarations(), List.of());
+            if (declarations.size() > 2 || declarations.stream().anyMatch(Statement.Loop.Declaration::ref))
+                throw new Unsupported(loopStatement);
+            final int head = newLabel();
+            final LoopLabels labels = new LoopLabels(newLabel(), newLabel());
+            final int previousLoop = longs++;
+            emit(ENTER_LOOP, previousLoop);
+            depth++;
+            final Expression iterable = loopStatement.iterable();
+            if (iterable == null) {
+                // Infinite loop
+                bind(head);
+                bind(labels.next());
+                body(loopStatement, labels);
+                emit(JUMP, head);
+            } else if (iterable instanceof Expression.Range range) {
+                // Ranges are iterated without being materialized
+                final int current = longs++, size = longs++, step = longs++, count = longs++;
+                final int start = operand(range.start(), ExplicitType.NONE);
+                final int endValue = operand(range.end(), ExplicitType.NONE);
+                final int stepValue = operand(range.step(), ExplicitType.NONE);
+                emit(RANGE_INIT, current, size, step, start, endValue, stepValue);
+                emit(LONG_CLEAR, count);
+                bind(head);
+                emit(JUMP_NOT_LESS, count, size, labels.end());
+                if (declarations.size() == 2) emit(NUMBER, variable(depth, 0), count);
+                if (!declarations.isEmpty()) emit(NUMBER, variable(depth, declarations.size() - 1), current);
+                body(loopStatement, labels);
+                bind(labels.next());
+                emit(LONG_ADD, current, step);
+                emit(LONG_INCREMENT, count);
+                emit(JUMP, head);
+            } else {
+                final int values = temp();
+                final int index = longs++;
+                expression(iterable, ExplicitType.NONE, values);
+                emit(ELEMENTS, values, values);
+                emit(LONG_CLEAR, index);
+                bind(head);
+                emit(JUMP_END, values, index, labels.end());
+                if (declarations.size() == 2) emit(NUMBER, variable(depth, 0), index);
+                if (!declarations.isEmpty()) emit(ELEMENT, variable(depth, declarations.size() - 1), values, index);
+                body(loopStatement, labels);
+                bind(labels.next());
+                emit(LONG_INCREMENT, index);
+                emit(JUMP, head);
+            }
+            bind(labels.end());
+            depth--;
+            emit(EXIT_LOOP, previousLoop);
+        }
+
+        private void body(Statement.Loop loopStatement, LoopLabels labels) {
+            final LoopLabels outerLoop = this.loop;
+            this.loop = labels;
+            // The loop scope is only entered once, declarations directly in it are not lowered
+            statement(loopStatement.body(), false);
+            this.loop = outerLoop;
+        }
+
+        // EXPRESSIONS
+
+        /**
+         * Returns the register holding the value of an expression, variables are used in place when not cast.
+         */
+        private int operand(Expression expression, ExplicitType explicitType) {
+            if (!converts(expression, explicitType)) {
+                final int register = direct(expression);
+                if (register != NONE) return register;
+            }
+            final int register = temp();
+            expression(expression, explicitType, register);
+            return register;
+        }
+
+        private boolean converts(Expression expression, ExplicitType explicitType) {
+            return explicitType.converts() &&
+                    (explicitType.type() == null || provenCasts.get(expression) != explicitType.type());
+        }
+
+        /**
+         * Returns the register already holding the value of a local variable or constant, or {@link #NONE}.
+         */
+        private int direct(Expression expression) {
+            return switch (expression) {
+                case Expression.Constant constant -> {
+                    final Value value = constant.value();
+                    if (!(value instanceof Value.NumberLiteral) && !(value instanceof Value.BooleanLiteral) &&
+                            !(value instanceof Value.Binary)) throw new Unsupported(expression);
+                    yield constantRegister(value);
+                }
+                case Expression.Binary binary -> constantRegister(binary(binary.name(), binary.value(), expression));
+                case Expression.Variable variable when variable.slot() != -1 && variable.depth() >= functionDepth ->
+                        variable(variable.depth(), variable.slot());
+                default -> NONE;
+            };
+        }
+
+        /**
+         * Stores the value of an expression, cast to its explicit type, in the target register.
+         */
+        private void expression(Expression expression, ExplicitType explicitType, int target) {
+            final int mark = top;
+            int source = direct(expression);
+            if (source == NONE) {
+                source = target;
+                switch (expression) {
+                    case Expression.Literal literal -> {
+                        if (explicitType.register() != -1) {
+                            emit(LITERAL, target, constant(literal.value()), explicitType.register());
+                        } else {
+                            final Type type = explicitType.type();
+                            if (type == null) throw new Unsupported(expression);
+                            source = constantRegister(binary(type.name(), literal.value(), expression));
+                        }
+                    }
+                    case Expression.Variable variable -> {
+                        if (variable.slot() == -1) throw new Unsupported(expression);
+                        outer(target, variable.name(), variable.depth(), variable.slot());
+                    }
+                    case Expression.Access access ->
+                            source = accessPoints(operand(access.object(), ExplicitType.NONE), access.accessPoints());
+                    case Expression.Call call -> call(call, target);
+                    case Expression.Range range -> emit(RANGE, target,
+                            operand(range.start(), ExplicitType.NONE),
+                            operand(range.end(), ExplicitType.NONE),
+                            operand(range.step(), ExplicitType.NONE));
+                    case Expression.Operation operation -> {
+                        final int left = operand(operation.left(), explicitType);
+                        final int right = operand(operation.right(), explicitType);
+                        emit(OPERATE, target, left, right, operation.operator().ordinal());
+                    }
+                    case Expression.Unary unary -> {
+                        if (unary.operator() != Token.Type.EXCLAMATION) throw new Unsupported(expression);
+                        emit(NOT, target, operand(unary.expression(), explicitType));
+                    }
+                    case Expression.Ternary ternary -> {
+                        // Both branches are evaluated, as in the tree-walking evaluator
+                        final int condition = operand(ternary.condition(), ExplicitType.NONE);
+                        final int thenValue = operand(ternary.thenBranch(), ExplicitType.NONE);
+                        final int elseValue = operand(ternary.elseBranch(), ExplicitType.NONE);
+                        emit(TERNARY, target, condition, thenValue, elseValue);
+                    }
+                    default -> throw new Unsupported(expression);
+                }
+            }
+            this.top = mark;
+            if (explicitType.register() != -1) {
+                emit(CAST_DYNAMIC, target, source, explicitType.register());
+            } else if (converts(expression, explicitType)) {
+                emit(CAST, target, source, constant(explicitType.type()));
+            } else if (source != target) {
+                emit(MOVE, target, source);
+            }
+        }
+
+        /**
+         * Returns whether the value of an expression can be an interrupt, which only functions return.
+         */
+        private static boolean interruptible(Expression expression) {
+            return switch (expression) {
+                case Expression.Call ignored -> true;
+                case Expression.Ternary ternary ->
+                        interruptible(ternary.thenBranch()) || interruptible(ternary.elseBranch());
+                default -> false;
+            };
+        }
+
+        private void call(Expression.Call call, int target) {
+            if (!(call.arguments() instanceof Parameter.Passed.Positional(List<Expression> arguments)) || call.slot() == -1)
+                throw new Unsupported(call);
+            final Value.ExternFunctionDecl extern = call.depth() == 0 ? externDeclarations.get(call.slot()) : null;
+            if (extern != null) {
+                final List<Parameter> parameters = extern.parameters();
+                if (parameters.size() != arguments.size()) throw new Unsupported(call);
+                outer(temp(), call.name(), call.depth(), call.slot());
+                final int window = temps(arguments.size());
+                for (int i = 0; i < arguments.size(); i++) {
+                    expression(arguments.get(i), ExplicitType.of(parameters.get(i).type()), window + i);
+                }
+                // Resolved once, a missing implementation only fails if the call is reached
+                final ExternalFunction function = externals.get(call.name());
+                emit(EXTERN, target, constant(function != null ? function : call.name()), window, arguments.size());
+                return;
+            }
+            final int function = call.depth() >= functionDepth ?
+                    load(call.name(), call.depth(), call.slot()) : outer(temp(), call.name(), call.depth(), call.slot());
+            final int window = temps(arguments.size());
+            for (int i = 0; i < arguments.size(); i++) {
+                final int type = typeTemp();
+                emit(PARAMETER_TYPE, type, function, i);
+                expression(arguments.get(i), new ExplicitType(null, type), window + i);
+            }
+            emit(CALL, target, function, constant(call.name()), window, arguments.size());
+        }
+
+        /**
+         * Applies access points to the value of a register, returning the register of the result.
+         */
+        private int accessPoints(int object, List<AccessPoint> accessPoints) {
+            int result = object;
+            for (AccessPoint accessPoint : accessPoints) {
+                final int register = temp();
+                switch (accessPoint) {
+                    case AccessPoint.Field field -> emit(FIELD, register, result, constant(field.component()));
+                    case AccessPoint.Index(Expression.Range range, Type ignored) -> emit(SLICE, register, result,
+                            operand(range.start(), ExplicitType.NONE),
+                            operand(range.end(), ExplicitType.NONE),
+                            operand(range.step(), ExplicitType.NONE));
+                    case AccessPoint.Index index ->
+                            emit(INDEX, register, result, operand(index.expression(), ExplicitType.NONE));
+                }
+                result = register;
+            }
+            return result;
+        }
+
+        private Value binary(String name, LiteralValue value, Expression expression) {
+            try {
+                // Binaries are read-only, the same value can be shared by every evaluation
+                final BinStandard standard = BinStandard.get(name);
+                return Value.Binary.of(standard, value);
+            } catch (IllegalArgumentException e) {
+                throw new Unsupported(expression);
+            }
+        }
+
+        // REGISTERS
+
+        private int load(String name, int variableDepth, int slot) {
+            if (variableDepth < functionDepth) return outer(temp(), name, variableDepth, slot);
+            return variable(variableDepth, slot);
+        }
+
+        /**
+         * Reads a variable captured by the function from the frames of its executor.
+         */
+        private int outer(int target, String name, int variableDepth, int slot) {
+            emit(OUTER, target, variableDepth, slot, constant(name));
+            return target;
+        }
+
+        private void allocate(int variableDepth, int slot) {
+            variables.putIfAbsent(key(variableDepth, slot), variables.size());
+        }
+
+        private int variable(int variableDepth, int slot) {
+            final Integer register = variables.get(key(variableDepth, slot));
+            if (register == null) throw new Unsupported("variable " + slot + " at depth " + variableDepth);
+            return register;
+        }
+
+        private static long key(int depth, int slot) {
+            return (long) depth << 32 | slot;
+        }
+
+        private int temp() {
+            return temps(1);
+        }
+
+        private int temps(int count) {
+            final int register = top;
+            this.top += count;
+            this.maxRegisters = Math.max(maxRegisters, top);
+            return register;
+        }
+
+        private int typeTemp() {
+            this.maxTypes = Math.max(maxTypes, typeTop + 1);
+            return typeTop++;
+        }
+
+        /**
+         * Returns the register of a constant value, negative until the final register count is known.
+         */
+        private int constantRegister(Value value) {
+            return -1 - constantRegisters.computeIfAbsent(value, ignored -> constantRegisters.size());
+        }
+
+        private int constant(Object value) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        // CODE
+
+        private void emit(int opcode, int... operands) {
+            assert operands.length == size(opcode) - 1 : "Invalid operands for opcode " + opcode;
+            if (size + operands.length + 1 > code.length) this.code = Arrays.copyOf(code, code.length * 2);
+            code[size] = opcode;
+            this.reachable = opcode != JUMP;
+            for (int i = 0; i < operands.length; i++) {
+                final int position = size + 1 + i;
+                code[position] = operands[i];
+                if (operands[i] != -1 && kind(opcode, i + 1) == '@') fixups.add(position);
+            }
+            this.size += operands.length + 1;
+        }
+
+        private int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        private void bind(int label) {
+            labels.set(label, size);
+            this.reachable = true;
+        }
+    }
+}
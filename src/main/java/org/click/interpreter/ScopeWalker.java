@@ -1,76 +1,138 @@
 package org.click.interpreter;
 
+import org.click.value.Value;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.UnknownNullability;
 
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
-public final class ScopeWalker<T> {
-    final ArrayDeque<Scope> scopes = new ArrayDeque<>();
+import static org.click.Ast.Scope;
 
-    public void enterBlock() {
-        final Scope currentScope = scopes.peek();
-        if (currentScope == null) {
-            this.scopes.push(new Scope(new HashMap<>()));
-        } else {
-            this.scopes.push(new Scope(currentScope));
-        }
+/**
+ * Stack of frames indexed by absolute depth, as computed by {@link org.click.Resolver}.
+ * <p>
+ * Forks share their frames with the original walker, a frame is only copied by the first walker writing to it.
+ */
+public final class ScopeWalker {
+    private Frame[] frames;
+    private int depth = -1;
+
+    public ScopeWalker() {
+        this.frames = new Frame[8];
+    }
+
+    private ScopeWalker(Frame[] frames, int depth) {
+        this.frames = frames;
+        this.depth = depth;
+    }
+
+    public void enterBlock(@NotNull Scope scope) {
+        if (++depth == frames.length) this.frames = Arrays.copyOf(frames, depth * 2);
+        this.frames[depth] = new Frame(scope);
     }
 
     public void exitBlock() {
-        this.scopes.pop();
+        this.frames[depth--] = null;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public Scope scope(int depth) {
+        return frames[depth].scope;
+    }
+
+    public @UnknownNullability Value find(int depth, int slot) {
+        return frames[depth].values[slot];
     }
 
-    public void register(@NotNull String name, @UnknownNullability T value) {
-        currentScope().register(name, value);
+    public void update(int depth, int slot, @NotNull Value value) {
+        Objects.requireNonNull(value);
+        ownedFrame(depth).values[slot] = value;
     }
 
-    public void update(@NotNull String name, @NotNull T value) {
-        currentScope().update(name, value);
+    public void register(int slot, @UnknownNullability Value value) {
+        ownedFrame(depth).values[slot] = value;
     }
 
-    public @UnknownNullability T find(@NotNull String name) {
-        return currentScope().tracked.get(name);
+    /**
+     * Registers a variable in the current frame by name, for declarations that only exist at runtime.
+     */
+    public void register(@NotNull String name, @UnknownNullability Value value) {
+        final int slot = frames[depth].scope.slot(name);
+        if (slot == -1) throw new RuntimeException("Variable not resolved: " + name);
+        register(slot, value);
     }
 
-    public @NotNull Scope currentScope() {
-        final Scope currentScope = scopes.peek();
-        assert currentScope != null;
-        return currentScope;
+    /**
+     * Looks up a variable by name from the innermost frame, used for type names and entry points.
+     */
+    public @Nullable Value find(@NotNull String name) {
+        for (int i = depth; i >= 0; i--) {
+            final Frame frame = frames[i];
+            final int slot = frame.scope.slot(name);
+            if (slot != -1 && frame.values[slot] != null) return frame.values[slot];
+        }
+        return null;
     }
 
-    public final class Scope {
-        final @Nullable Scope parent;
-        final @NotNull Map<String, T> tracked;
+    public List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i <= depth; i++) {
+            final Frame frame = frames[i];
+            for (int slot = 0; slot < frame.values.length; slot++) {
+                if (frame.values[slot] != null) names.add(frame.scope.names().get(slot));
+            }
+        }
+        return names;
+    }
 
-        public Scope(@NotNull Map<String, T> tracked) {
-            this.parent = null;
-            this.tracked = tracked;
+    /**
+     * Returns whether both walkers still share the same frame at the given depth, meaning that neither wrote to it.
+     */
+    public boolean sharesFrame(ScopeWalker other, int depth) {
+        return depth <= this.depth && depth <= other.depth && frames[depth] == other.frames[depth];
+    }
+
+    ScopeWalker fork() {
+        for (int i = 0; i <= depth; i++) {
+            final Frame frame = frames[i];
+            if (!frame.shared) frame.shared = true;
         }
+        return new ScopeWalker(frames.clone(), depth);
+    }
 
-        Scope(Scope scope) {
-            this.parent = scope;
-            this.tracked = new HashMap<>(scope.tracked);
+    private Frame ownedFrame(int depth) {
+        Frame frame = frames[depth];
+        if (frame.shared) {
+            frame = frame.copy();
+            this.frames[depth] = frame;
         }
+        return frame;
+    }
 
-        public Map<String, T> tracked() {
-            return Map.copyOf(tracked);
+    private static final class Frame {
+        final Scope scope;
+        final Value[] values;
+        // Set once the frame is visible to another walker, it must then never be written again
+        boolean shared;
+
+        Frame(Scope scope) {
+            this(scope, new Value[scope.size()]);
         }
 
-        void register(String name, T value) {
-            this.tracked.put(name, value);
+        Frame(Scope scope, Value[] values) {
+            this.scope = scope;
+            this.values = values;
         }
 
-        void update(String name, T value) {
-            Objects.requireNonNull(value);
-            this.tracked.put(name, value);
-            if (parent != null) {
-                parent.update(name, value);
-            }
+        Frame copy() {
+            return new Frame(scope, values.clone());
         }
     }
 }
@@ -1,20 +1,57 @@
 package org.click.interpreter;
 
+import org.click.Optimizer;
+import org.click.Resolver;
+import org.click.Type;
+import org.click.TypeChecker;
 import org.click.external.ExternalFunction;
 import org.click.value.Value;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
+import static org.click.Ast.Expression;
 import static org.click.Ast.Statement;
 
 public final class VM {
     private final Context context;
     private final Executor executor;
 
-    public record Context(Path directory, ScopeWalker<Value> walker,
-                          Map<String, ExternalFunction> externals) {
+    /**
+     * Execution engine, both share the same runtime and semantics.
+     */
+    public enum Mode {
+        /**
+         * Walks the AST on every evaluation.
+         */
+        AST,
+        /**
+         * Compiles the program once into closures, see {@link ClosureCompiler}.
+         */
+        CLOSURE,
+        /**
+         * Lowers functions to register bytecode when possible and the rest to closures, see {@link RegisterCode}.
+         */
+        REGISTER,
+        /**
+         * Compiles functions to JVM bytecode when possible and the rest to closures, see {@link BytecodeCompiler}.
+         */
+        BYTECODE,
+        /**
+         * Starts with closures, then compiles hot functions and infinite loops to JVM bytecode while they run.
+         */
+        TIERED
+    }
+
+    /**
+     * @param provenCasts expressions whose cast to the mapped type never converts the value, see {@link TypeChecker}
+     */
+    public record Context(Path directory, ScopeWalker walker,
+                          Map<String, ExternalFunction> externals,
+                          @Nullable ClosureCompiler compiler,
+                          Map<Expression, Type> provenCasts, CallCache.Sites callCaches) {
         public Context {
             externals = Map.copyOf(externals);
         }
@@ -22,16 +59,47 @@ public final class VM {
 
     public VM(Path directory, List<Statement> statements,
               Map<String, ExternalFunction> externals) {
-        this.context = new Context(directory, new ScopeWalker<>(), externals);
+        this(directory, statements, externals, Mode.AST);
+    }
+
+    public VM(Path directory, List<Statement> statements,
+              Map<String, ExternalFunction> externals, Mode mode) {
+        final Statement.Block program = new Optimizer().optimize(new Resolver(directory).resolve(statements));
+        final Map<Expression, Type> provenCasts = new TypeChecker().check(program);
+        final ClosureCompiler compiler = switch (mode) {
+            case AST -> null;
+            case CLOSURE -> new ClosureCompiler(provenCasts);
+            case REGISTER -> new ClosureCompiler(
+                    new RegisterCompiler(externals, program.statements(), provenCasts), false, provenCasts);
+            case BYTECODE -> new ClosureCompiler(
+                    new BytecodeCompiler(externals, program.statements(), provenCasts), false, provenCasts);
+            case TIERED -> new ClosureCompiler(
+                    new BytecodeCompiler(externals, program.statements(), provenCasts), true, provenCasts);
+        };
+        this.context = new Context(directory, new ScopeWalker(), externals, compiler, provenCasts,
+                new CallCache.Sites());
         this.executor = new Executor(context);
-        this.context.walker.enterBlock();
-        this.executor.interpret(statements);
+        this.context.walker.enterBlock(program.scope());
+        if (compiler != null) {
+            compiler.compile(program.statements()).execute(executor);
+        } else {
+            this.executor.interpret(program.statements());
+        }
     }
 
     public Value interpret(String function, List<Value> parameters) {
         return executor.interpret(function, parameters);
     }
 
+    /**
+     * Returns the register bytecode of a function, or null if it was not lowered by {@link Mode#REGISTER}.
+     */
+    public @Nullable String disassemble(String function) {
+        final ClosureCompiler compiler = context.compiler();
+        if (compiler == null || !(context.walker().find(function) instanceof Value.FunctionDecl functionDecl)) return null;
+        return compiler.function(functionDecl.scope()) instanceof RegisterCode code ? code.disassemble() : null;
+    }
+
     public void stop() {
         this.context.walker().exitBlock();
     }
@@ -0,0 +1,183 @@
+package org.click.value;
+
+import org.click.Type;
+import org.click.interpreter.Executor;
+import org.click.interpreter.ScopeWalker;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lifetimes of the off-heap memory of values.
+ * <p>
+ * Spawned bodies run in a region whose arena is closed once they and the spawns they started finished, freeing their
+ * memory deterministically instead of waiting for the garbage collector. Elsewhere memory is automatic. Values
+ * escaping a region, stored in a shared variable or left in the frames merged at the join, are first promoted: their
+ * scoped memory is copied to automatic memory, including the memory captured by lambdas.
+ */
+public final class Arenas {
+    private static final ThreadLocal<Region> CURRENT = new ThreadLocal<>();
+
+    private Arenas() {
+    }
+
+    static MemorySegment allocate(long size) {
+        final Region region = CURRENT.get();
+        return region != null ? region.arena().allocate(size) : Arena.ofAuto().allocate(size);
+    }
+
+    /**
+     * Returns a region nested in the one of the current thread, to be entered by a spawned thread.
+     */
+    public static Region open() {
+        final Region parent = CURRENT.get();
+        if (parent != null) parent.users.incrementAndGet();
+        return new Region(parent);
+    }
+
+    /**
+     * Returns the value with the memory of the current region and its parents copied to automatic memory.
+     */
+    public static Value promote(Value value) {
+        final Region region = CURRENT.get();
+        if (region == null || !region.allocated()) return value;
+        return promote(region, value);
+    }
+
+    /**
+     * Promotes the variables of a walker in place.
+     */
+    public static void promote(ScopeWalker walker) {
+        final Region region = CURRENT.get();
+        if (region == null || !region.allocated()) return;
+        promote(region, walker, null);
+    }
+
+    /**
+     * Promotes the variables of a walker, forking its executor on the first change if any, or returns null if none
+     * changed.
+     */
+    private static @Nullable Executor promote(Region region, ScopeWalker walker, @Nullable Executor executor) {
+        Executor fork = null;
+        for (int depth = 0; depth <= walker.depth(); depth++) {
+            final int size = walker.scope(depth).size();
+            for (int slot = 0; slot < size; slot++) {
+                ScopeWalker target = fork != null ? fork.walker() : walker;
+                final Value value = target.find(depth, slot);
+                if (value == null) continue;
+                final Value promoted = promote(region, value);
+                if (promoted == value) continue;
+                if (executor != null && fork == null) target = (fork = executor.fork()).walker();
+                target.update(depth, slot, promoted);
+            }
+        }
+        return fork;
+    }
+
+    private static Value promote(Region region, Value value) {
+        return switch (value) {
+            case Value.Array array -> {
+                final List<Value> elements = array.elements();
+                final MemorySegment segment = Elements.memory(elements);
+                if (segment != null) {
+                    if (!region.owns(segment)) yield array;
+                    final MemorySegment copy = Arena.ofAuto().allocate(segment.byteSize());
+                    copy.copyFrom(segment);
+                    yield new Value.Array(array.arrayType(), Elements.bytes(copy));
+                }
+                if (array.arrayType().type() instanceof Type.Primitive || elements instanceof Elements.Range) {
+                    yield array;
+                }
+                Value[] promoted = null;
+                for (int i = 0; i < elements.size(); i++) {
+                    final Value element = elements.get(i);
+                    final Value result = promote(region, element);
+                    if (result == element) continue;
+                    if (promoted == null) promoted = elements.toArray(Value[]::new);
+                    promoted[i] = result;
+                }
+                yield promoted != null ? new Value.Array(array.arrayType(), List.of(promoted)) : array;
+            }
+            case Value.Struct struct -> {
+                Value.Struct promoted = struct;
+                for (int i = 0; i < struct.shape().size(); i++) {
+                    final Value field = struct.get(i);
+                    if (field == null) continue;
+                    final Value result = promote(region, field);
+                    if (result != field) promoted = promoted.with(i, result);
+                }
+                yield promoted;
+            }
+            case Value.FunctionDecl function when function.lambdaExecutor() != null -> {
+                // Captured variables are read when the lambda is called, possibly after the region closed
+                final Executor executor = function.lambdaExecutor();
+                final Executor promoted = promote(region, executor.walker(), executor);
+                yield promoted != null ? new Value.FunctionDecl(function.parameters(), function.returnType(),
+                        function.body(), function.scope(), promoted) : function;
+            }
+            case Value.Union union -> {
+                final Value promoted = promote(region, union.value());
+                yield promoted != union.value() ? new Value.Union(union.name(), promoted) : union;
+            }
+            default -> value;
+        };
+    }
+
+    /**
+     * Memory of a spawned body, the arena is only created on the first allocation.
+     */
+    public static final class Region {
+        private final @Nullable Region parent;
+        // The body and each unfinished spawn it started
+        private final AtomicInteger users = new AtomicInteger(1);
+        private volatile @Nullable Arena arena;
+
+        private Region(@Nullable Region parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * Runs a body on the current thread with its allocations in the region, then leaves it.
+         */
+        public void run(Runnable body) {
+            CURRENT.set(this);
+            try {
+                body.run();
+            } finally {
+                CURRENT.remove();
+                release();
+            }
+        }
+
+        private Arena arena() {
+            Arena arena = this.arena;
+            if (arena == null) this.arena = arena = Arena.ofShared();
+            return arena;
+        }
+
+        private boolean allocated() {
+            for (Region region = this; region != null; region = region.parent) {
+                if (region.arena != null) return true;
+            }
+            return false;
+        }
+
+        private boolean owns(MemorySegment segment) {
+            for (Region region = this; region != null; region = region.parent) {
+                final Arena arena = region.arena;
+                if (arena != null && segment.scope().equals(arena.scope())) return true;
+            }
+            return false;
+        }
+
+        private void release() {
+            if (users.decrementAndGet() != 0) return;
+            final Arena arena = this.arena;
+            if (arena != null) arena.close();
+            if (parent != null) parent.release();
+        }
+    }
+}
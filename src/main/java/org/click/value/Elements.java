@@ -0,0 +1,464 @@
+package org.click.value;
+
+import org.click.BinStandard;
+import org.click.Type;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Immutable storage of array elements, as a persistent vector of fixed-size leaves.
+ * <p>
+ * The vector is a trie branching on 5 bits of the index, updating an element copies the path to its leaf and shares
+ * the rest. Leaves are specialized from the element type: numbers fitting 64 bits are stored in a {@code long[]} and
+ * booleans in a {@code boolean[]}, boxed when read, other leaves hold values. Default-initialized arrays share a
+ * single node per level until updated.
+ * <p>
+ * Arrays of {@code i8} are instead a single off-heap segment, read as {@link BinStandard#I8} binaries and updated in
+ * place, the previous versions keeping the bytes overwritten. The segment is handed to the externals as is, such as
+ * network reads filling it in place: the array is mutable from there, the values holding it and its slices see the
+ * new bytes. Its lifetime is managed by {@link Arenas}.
+ * <p>
+ * Slices are views sharing the storage of their parent, and ranges compute their elements when read.
+ */
+public final class Elements {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Type BYTE = Type.of("i8");
+
+    public static List<Value> copyOf(Type elementType, List<Value> elements) {
+        if (elements instanceof Vector || elements instanceof Bytes || elements instanceof Range) return elements;
+        if (elementType.equals(BYTE) && elements.stream().allMatch(Elements::isByte)) {
+            final MemorySegment segment = Arenas.allocate(elements.size());
+            for (int i = 0; i < elements.size(); i++) segment.set(ValueLayout.JAVA_BYTE, i, toByte(elements.get(i)));
+            return new Bytes(segment);
+        }
+        final int size = elements.size();
+        final Object[] leaves = new Object[Math.max(1, (size + MASK) >>> BITS)];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = leaf(elementType, elements.subList(i << BITS, Math.min(size, (i + 1) << BITS)));
+        }
+        return vector(size, leaves);
+    }
+
+    /**
+     * Returns number elements from their primitive values.
+     */
+    public static List<Value> ofLongs(long[] values) {
+        final Object[] leaves = new Object[Math.max(1, (values.length + MASK) >>> BITS)];
+        for (int i = 0; i < leaves.length; i++) leaves[i] = Arrays.copyOfRange(values, i << BITS, (i + 1) << BITS);
+        return vector(values.length, leaves);
+    }
+
+    /**
+     * Returns a copy of the elements as primitive values, or null if they are not all stored as longs.
+     */
+    public static long @Nullable [] longs(List<Value> elements) {
+        if (!(elements instanceof Range) && !(elements instanceof Vector)) return null;
+        final long[] result = new long[elements.size()];
+        switch (elements) {
+            case Range range -> {
+                for (int i = 0; i < result.length; i++) result[i] = range.start + i * range.step;
+            }
+            case Vector vector -> {
+                for (int i = 0; i < result.length; ) {
+                    final int index = vector.offset + i;
+                    if (!(vector.leaf(index) instanceof long[] leaf)) return null;
+                    final int count = Math.min(WIDTH - (index & MASK), result.length - i);
+                    System.arraycopy(leaf, index & MASK, result, i, count);
+                    i += count;
+                }
+            }
+            default -> throw new IllegalStateException("Unexpected elements: " + elements);
+        }
+        return result;
+    }
+
+    private static Vector vector(int size, Object[] leaves) {
+        Object[] nodes = leaves;
+        int shift = 0;
+        while (nodes.length > 1) {
+            Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOfRange(nodes, i << BITS, (i + 1) << BITS);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new Vector(size, shift, nodes[0], 0);
+    }
+
+    /**
+     * Returns the elements of a default-initialized array.
+     */
+    public static List<Value> defaults(Type elementType, int size) {
+        if (elementType.equals(BYTE)) return new Bytes(Arenas.allocate(size));
+        return filled(size, ValueType.defaultValue(elementType));
+    }
+
+    /**
+     * Returns the memory of byte elements to be read or filled in place, or null if they are not stored off-heap.
+     * <p>
+     * The elements stop being updated in place: their next update copies them, leaving the memory to the arrays
+     * sharing it.
+     */
+    public static @Nullable MemorySegment segment(List<Value> elements) {
+        return elements instanceof Bytes bytes ? bytes.share() : null;
+    }
+
+    /**
+     * Returns the memory of byte elements to be read without copying, or null if they are not stored off-heap.
+     */
+    static @Nullable MemorySegment memory(List<Value> elements) {
+        return elements instanceof Bytes bytes ? bytes.memory() : null;
+    }
+
+    /**
+     * Returns byte elements reading a segment, taking ownership of it.
+     */
+    static List<Value> bytes(MemorySegment segment) {
+        return new Bytes(segment);
+    }
+
+    /**
+     * Returns elements repeating a single value, without allocating per element.
+     */
+    public static List<Value> filled(int size, Value value) {
+        Object node = leaf(value);
+        int shift = 0;
+        for (int count = (size + MASK) >>> BITS; count > 1; count = (count + MASK) >>> BITS) {
+            final Object[] parent = new Object[WIDTH];
+            Arrays.fill(parent, node);
+            node = parent;
+            shift += BITS;
+        }
+        return new Vector(size, shift, node, 0);
+    }
+
+    /**
+     * Returns the numbers from start, inclusive, to end, exclusive, without storing them.
+     */
+    public static Range range(long start, long end, long step) {
+        if (step <= 0) throw new RuntimeException("Range step must be positive, got: " + step);
+        // The distance between the bounds only fits a long as unsigned
+        final long size = start < end ? Long.divideUnsigned(end - start - 1, step) + 1 : 0;
+        if (Long.compareUnsigned(size, Integer.MAX_VALUE) > 0) {
+            throw new RuntimeException("Range too large: " + start + ".." + end);
+        }
+        return new Range(start, step, (int) size);
+    }
+
+    /**
+     * Returns a view of the elements between two indexes, the first inclusive and the second exclusive.
+     */
+    public static List<Value> slice(Type elementType, List<Value> elements, int from, int to) {
+        Objects.checkFromToIndex(from, to, elements.size());
+        return switch (copyOf(elementType, elements)) {
+            case Range range -> new Range(range.start + from * range.step, range.step, to - from);
+            case Bytes bytes -> {
+                // The view and its parent share their memory, both are copied by their next update
+                final Bytes slice = new Bytes(bytes.share().asSlice(from, to - from));
+                slice.share();
+                yield slice;
+            }
+            case Vector vector -> new Vector(to - from, vector.shift, vector.root, vector.offset + from);
+            default -> throw new IllegalStateException("Unexpected elements: " + elements);
+        };
+    }
+
+    /**
+     * Returns a copy of the elements with one replaced, sharing everything but the path to its leaf.
+     */
+    public static List<Value> with(Type elementType, List<Value> elements, int index, Value value) {
+        Objects.checkIndex(index, elements.size());
+        if (elements instanceof Bytes bytes) {
+            if (!isByte(value)) throw new RuntimeException("Expected byte, got: " + value);
+            return bytes.with(index, toByte(value));
+        }
+        final Vector vector = (Vector) copyOf(elementType, elements);
+        return new Vector(vector.size, vector.shift,
+                set(vector.root, vector.shift, vector.offset + index, Objects.requireNonNull(value)), vector.offset);
+    }
+
+    private static Object set(Object node, int level, int index, Value value) {
+        if (level == 0) return setLeaf(node, index & MASK, value);
+        final Object[] copy = ((Object[]) node).clone();
+        final int slot = (index >>> level) & MASK;
+        copy[slot] = set(copy[slot], level - BITS, index, value);
+        return copy;
+    }
+
+    private static Object setLeaf(Object leaf, int index, Value value) {
+        if (leaf instanceof long[] longs && value instanceof Value.NumberLiteral number && number.isLong()) {
+            final long[] copy = longs.clone();
+            copy[index] = number.longValue();
+            return copy;
+        }
+        if (leaf instanceof boolean[] booleans && value instanceof Value.BooleanLiteral(boolean bool)) {
+            final boolean[] copy = booleans.clone();
+            copy[index] = bool;
+            return copy;
+        }
+        // The value does not fit the specialized leaf
+        final Value[] copy = new Value[WIDTH];
+        for (int i = 0; i < WIDTH; i++) copy[i] = get(leaf, i);
+        copy[index] = value;
+        return copy;
+    }
+
+    private static Object leaf(Type elementType, List<Value> elements) {
+        if (elementType == Type.NUMBER && elements.stream()
+                .allMatch(element -> element instanceof Value.NumberLiteral number && number.isLong())) {
+            final long[] leaf = new long[WIDTH];
+            for (int i = 0; i < elements.size(); i++) leaf[i] = ((Value.NumberLiteral) elements.get(i)).longValue();
+            return leaf;
+        }
+        if (elementType == Type.BOOL && elements.stream().allMatch(Value.BooleanLiteral.class::isInstance)) {
+            final boolean[] leaf = new boolean[WIDTH];
+            for (int i = 0; i < elements.size(); i++) leaf[i] = ((Value.BooleanLiteral) elements.get(i)).value();
+            return leaf;
+        }
+        final Value[] leaf = new Value[WIDTH];
+        for (int i = 0; i < elements.size(); i++) leaf[i] = Objects.requireNonNull(elements.get(i));
+        return leaf;
+    }
+
+    private static Object leaf(Value value) {
+        return switch (value) {
+            case Value.NumberLiteral number when number.isLong() -> {
+                final long[] leaf = new long[WIDTH];
+                Arrays.fill(leaf, number.longValue());
+                yield leaf;
+            }
+            case Value.BooleanLiteral(boolean bool) -> {
+                final boolean[] leaf = new boolean[WIDTH];
+                Arrays.fill(leaf, bool);
+                yield leaf;
+            }
+            default -> {
+                final Value[] leaf = new Value[WIDTH];
+                Arrays.fill(leaf, value);
+                yield leaf;
+            }
+        };
+    }
+
+    private static Value get(Object leaf, int index) {
+        return switch (leaf) {
+            case long[] longs -> Value.NumberLiteral.of(longs[index]);
+            case boolean[] booleans -> Value.BooleanLiteral.of(booleans[index]);
+            default -> ((Value[]) leaf)[index];
+        };
+    }
+
+    private static boolean isByte(Value value) {
+        return value instanceof Value.Binary binary && binary.standard() == BinStandard.I8 ||
+                value instanceof Value.NumberLiteral number && number.isLong() &&
+                        number.longValue() >= Byte.MIN_VALUE && number.longValue() <= Byte.MAX_VALUE;
+    }
+
+    private static byte toByte(Value value) {
+        if (value instanceof Value.Binary binary) return (byte) binary.bits();
+        return (byte) ((Value.NumberLiteral) value).longValue();
+    }
+
+    /**
+     * Arithmetic sequence of numbers, loops iterate it with a counter.
+     */
+    public static final class Range extends AbstractList<Value> implements RandomAccess {
+        private final long start;
+        private final long step;
+        private final int size;
+
+        Range(long start, long step, int size) {
+            this.start = start;
+            this.step = step;
+            this.size = size;
+        }
+
+        public long start() {
+            return start;
+        }
+
+        public long step() {
+            return step;
+        }
+
+        @Override
+        public Value get(int index) {
+            Objects.checkIndex(index, size);
+            return Value.NumberLiteral.of(start + index * step);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Versions of byte elements updated in place.
+     * <p>
+     * The newest version reads the segment of its storage, updating it writes the byte in place and leaves the
+     * previous version with the overwritten byte and its successor, so the updates of an array nobody else holds never
+     * copy while its aliases keep reading their own bytes. A previous version is copied to its own storage when
+     * updated, handed out, or read behind too many changes. A storage whose memory was handed out, or holding changes
+     * for more than an eighth of its bytes, is copied by the next update instead.
+     */
+    private static final class Bytes extends AbstractList<Value> implements RandomAccess {
+        // Serializes the reads and updates of the versions sharing a storage
+        private final Object lock;
+        private volatile Version version;
+
+        Bytes(MemorySegment segment) {
+            this(new Object(), new Version(new Storage(segment)));
+        }
+
+        private Bytes(Object lock, Version version) {
+            this.lock = lock;
+            this.version = version;
+        }
+
+        @Override
+        public Value get(int index) {
+            Objects.checkIndex(index, size());
+            synchronized (lock) {
+                Version current = version;
+                for (int steps = 0; current.next != null; current = current.next) {
+                    if (current.index == index) return Value.Binary.I8(current.previous);
+                    if (++steps == WIDTH) {
+                        current = materialize();
+                        break;
+                    }
+                }
+                return Value.Binary.I8(current.storage.segment.get(ValueLayout.JAVA_BYTE, index));
+            }
+        }
+
+        @Override
+        public int size() {
+            return (int) version.storage.segment.byteSize();
+        }
+
+        Bytes with(int index, byte value) {
+            synchronized (lock) {
+                final Version current = version.next != null ? materialize() : version;
+                final Storage storage = current.storage;
+                final MemorySegment segment = storage.segment;
+                if (storage.shared || storage.changes > segment.byteSize() >>> 3) {
+                    final MemorySegment copy = Arenas.allocate(segment.byteSize());
+                    copy.copyFrom(segment);
+                    copy.set(ValueLayout.JAVA_BYTE, index, value);
+                    return new Bytes(copy);
+                }
+                final Version next = new Version(storage);
+                current.index = index;
+                current.previous = segment.get(ValueLayout.JAVA_BYTE, index);
+                current.next = next;
+                storage.changes++;
+                segment.set(ValueLayout.JAVA_BYTE, index, value);
+                return new Bytes(lock, next);
+            }
+        }
+
+        /**
+         * Returns the memory of this version, to be read without copying.
+         */
+        MemorySegment memory() {
+            synchronized (lock) {
+                return (version.next != null ? materialize() : version).storage.segment;
+            }
+        }
+
+        /**
+         * Returns the memory of this version to be shared as is, detached from the previous versions first.
+         */
+        MemorySegment share() {
+            synchronized (lock) {
+                if (version.next != null || version.storage.changes > 0) materialize();
+                final Storage storage = version.storage;
+                storage.shared = true;
+                return storage.segment;
+            }
+        }
+
+        // Copies this version to its own storage, undoing the changes since, from the newest
+        private Version materialize() {
+            final List<Version> changes = new ArrayList<>();
+            Version current = version;
+            for (; current.next != null; current = current.next) changes.add(current);
+            // The version may be held by the frames of a parent region, the copy has to outlive this one
+            final MemorySegment copy = Arena.ofAuto().allocate(current.storage.segment.byteSize());
+            copy.copyFrom(current.storage.segment);
+            for (Version change : changes.reversed()) copy.set(ValueLayout.JAVA_BYTE, change.index, change.previous);
+            return version = new Version(new Storage(copy));
+        }
+
+        private static final class Storage {
+            private final MemorySegment segment;
+            // Changes recorded by the previous versions
+            private int changes;
+            // Whether the memory is also read or written through a slice or an external
+            private boolean shared;
+
+            Storage(MemorySegment segment) {
+                this.segment = segment;
+            }
+        }
+
+        private static final class Version {
+            private final Storage storage;
+            // Set once updated: the successor, and the byte it overwrote
+            private @Nullable Version next;
+            private int index;
+            private byte previous;
+
+            Version(Storage storage) {
+                this.storage = storage;
+            }
+        }
+    }
+
+    private static final class Vector extends AbstractList<Value> implements RandomAccess {
+        private final int size;
+        // Bits of the index consumed above the leaves
+        private final int shift;
+        private final Object root;
+        // Index of the first element in the trie, for slices
+        private final int offset;
+
+        Vector(int size, int shift, Object root, int offset) {
+            this.size = size;
+            this.shift = shift;
+            this.root = root;
+            this.offset = offset;
+        }
+
+        @Override
+        public Value get(int index) {
+            Objects.checkIndex(index, size);
+            index += offset;
+            return Elements.get(leaf(index), index & MASK);
+        }
+
+        private Object leaf(int index) {
+            Object node = root;
+            for (int level = shift; level > 0; level -= BITS) node = ((Object[]) node)[(index >>> level) & MASK];
+            return node;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
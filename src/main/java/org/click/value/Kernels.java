@@ -0,0 +1,217 @@
+package org.click.value;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.click.Token;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Element-wise kernels over numbers stored as longs, vectorized with the incubating Vector API when its module is
+ * resolved and run as plain loops otherwise.
+ * <p>
+ * Arithmetic returns null as soon as an element may overflow, the caller then retries it element by element with the
+ * exact semantics of {@link ValueOperator}.
+ */
+public final class Kernels {
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private Kernels() {
+    }
+
+    /**
+     * Returns the operation of two arrays of the same length, or null.
+     */
+    public static long @Nullable [] operate(Token.Type operator, long[] left, long[] right) {
+        if (!arithmetic(operator)) return null;
+        return VECTORIZED ? Simd.operate(operator, left, right) : Scalar.operate(operator, left, right);
+    }
+
+    /**
+     * Returns the operation of each element of an array with a number, on the right unless reversed, or null.
+     */
+    public static long @Nullable [] operate(Token.Type operator, long[] left, long right, boolean reversed) {
+        if (!arithmetic(operator)) return null;
+        final long[] result = VECTORIZED ? Simd.operate(operator, left, right) : Scalar.operate(operator, left, right);
+        // Subtraction is the only supported operation that does not commute
+        if (result != null && reversed && operator == Token.Type.MINUS) {
+            for (int i = 0; i < result.length; i++) {
+                if (result[i] == Long.MIN_VALUE) return null;
+                result[i] = -result[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the elements satisfying a comparison with a number on the right, or null if the operator is not one.
+     */
+    public static long @Nullable [] filter(Token.Type operator, long[] elements, long bound) {
+        if (!comparison(operator)) return null;
+        return VECTORIZED ? Simd.filter(operator, elements, bound) : Scalar.filter(operator, elements, bound);
+    }
+
+    /**
+     * Returns the comparison with swapped operands, such as {@code <} for {@code >}.
+     */
+    public static Token.Type flip(Token.Type operator) {
+        return switch (operator) {
+            case LESS -> Token.Type.GREATER;
+            case LESS_EQUAL -> Token.Type.GREATER_EQUAL;
+            case GREATER -> Token.Type.LESS;
+            case GREATER_EQUAL -> Token.Type.LESS_EQUAL;
+            default -> operator;
+        };
+    }
+
+    private static boolean arithmetic(Token.Type operator) {
+        // Division leaves the longs when inexact
+        return operator == Token.Type.PLUS || operator == Token.Type.MINUS || operator == Token.Type.STAR;
+    }
+
+    private static boolean comparison(Token.Type operator) {
+        return switch (operator) {
+            case EQUAL_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    // Only loaded with the module
+    private static final class Simd {
+        private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+        // Products of operands in the int range fit a long
+        private static final long SAFE_FACTOR = Integer.MAX_VALUE;
+
+        static long @Nullable [] operate(Token.Type operator, long[] left, long[] right) {
+            final long[] result = new long[left.length];
+            final int bound = SPECIES.loopBound(left.length);
+            VectorMask<Long> overflow = SPECIES.maskAll(false);
+            for (int i = 0; i < bound; i += SPECIES.length()) {
+                final LongVector a = LongVector.fromArray(SPECIES, left, i);
+                final LongVector b = LongVector.fromArray(SPECIES, right, i);
+                final LongVector r = apply(operator, a, b);
+                overflow = overflow.or(overflow(operator, a, b, r));
+                r.intoArray(result, i);
+            }
+            if (overflow.anyTrue()) return null;
+            return Scalar.operate(operator, left, right, 0, result, bound);
+        }
+
+        static long @Nullable [] operate(Token.Type operator, long[] left, long right) {
+            final long[] result = new long[left.length];
+            final int bound = SPECIES.loopBound(left.length);
+            final LongVector b = LongVector.broadcast(SPECIES, right);
+            VectorMask<Long> overflow = SPECIES.maskAll(false);
+            for (int i = 0; i < bound; i += SPECIES.length()) {
+                final LongVector a = LongVector.fromArray(SPECIES, left, i);
+                final LongVector r = apply(operator, a, b);
+                overflow = overflow.or(overflow(operator, a, b, r));
+                r.intoArray(result, i);
+            }
+            if (overflow.anyTrue()) return null;
+            return Scalar.operate(operator, left, null, right, result, bound);
+        }
+
+        static long[] filter(Token.Type operator, long[] elements, long bound) {
+            final VectorOperators.Comparison comparison = switch (operator) {
+                case EQUAL_EQUAL -> VectorOperators.EQ;
+                case LESS -> VectorOperators.LT;
+                case LESS_EQUAL -> VectorOperators.LE;
+                case GREATER -> VectorOperators.GT;
+                default -> VectorOperators.GE;
+            };
+            final long[] result = new long[elements.length];
+            int count = 0;
+            final int loopBound = SPECIES.loopBound(elements.length);
+            int i = 0;
+            for (; i < loopBound; i += SPECIES.length()) {
+                long lanes = LongVector.fromArray(SPECIES, elements, i).compare(comparison, bound).toLong();
+                while (lanes != 0) {
+                    result[count++] = elements[i + Long.numberOfTrailingZeros(lanes)];
+                    lanes &= lanes - 1;
+                }
+            }
+            for (; i < elements.length; i++) {
+                if (Scalar.compare(operator, elements[i], bound)) result[count++] = elements[i];
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private static LongVector apply(Token.Type operator, LongVector a, LongVector b) {
+            return switch (operator) {
+                case PLUS -> a.add(b);
+                case MINUS -> a.sub(b);
+                default -> a.mul(b);
+            };
+        }
+
+        /**
+         * Returns the lanes whose result may have wrapped around.
+         */
+        private static VectorMask<Long> overflow(Token.Type operator, LongVector a, LongVector b, LongVector r) {
+            return switch (operator) {
+                // The sign of the result differs from both operands
+                case PLUS -> a.lanewise(VectorOperators.XOR, r).and(b.lanewise(VectorOperators.XOR, r))
+                        .compare(VectorOperators.LT, 0);
+                // The operands differ in sign and the result differs from the first
+                case MINUS -> a.lanewise(VectorOperators.XOR, b).and(a.lanewise(VectorOperators.XOR, r))
+                        .compare(VectorOperators.LT, 0);
+                default -> a.compare(VectorOperators.GT, SAFE_FACTOR).or(a.compare(VectorOperators.LT, -SAFE_FACTOR))
+                        .or(b.compare(VectorOperators.GT, SAFE_FACTOR)).or(b.compare(VectorOperators.LT, -SAFE_FACTOR));
+            };
+        }
+    }
+
+    private static final class Scalar {
+        static long @Nullable [] operate(Token.Type operator, long[] left, long[] right) {
+            return operate(operator, left, right, 0, new long[left.length], 0);
+        }
+
+        static long @Nullable [] operate(Token.Type operator, long[] left, long right) {
+            return operate(operator, left, null, right, new long[left.length], 0);
+        }
+
+        /**
+         * Completes the result from an index, with the right operand from the array if any, or returns null on
+         * overflow.
+         */
+        static long @Nullable [] operate(Token.Type operator, long[] left, long @Nullable [] rights, long right,
+                                         long[] result, int from) {
+            try {
+                for (int i = from; i < result.length; i++) {
+                    if (rights != null) right = rights[i];
+                    result[i] = switch (operator) {
+                        case PLUS -> Math.addExact(left[i], right);
+                        case MINUS -> Math.subtractExact(left[i], right);
+                        default -> Math.multiplyExact(left[i], right);
+                    };
+                }
+            } catch (ArithmeticException e) {
+                return null;
+            }
+            return result;
+        }
+
+        static long[] filter(Token.Type operator, long[] elements, long bound) {
+            final long[] result = new long[elements.length];
+            int count = 0;
+            for (long element : elements) {
+                if (compare(operator, element, bound)) result[count++] = element;
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        static boolean compare(Token.Type operator, long left, long right) {
+            return switch (operator) {
+                case EQUAL_EQUAL -> left == right;
+                case LESS -> left < right;
+                case LESS_EQUAL -> left <= right;
+                case GREATER -> left > right;
+                default -> left >= right;
+            };
+        }
+    }
+}
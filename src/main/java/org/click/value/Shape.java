@@ -0,0 +1,36 @@
+package org.click.value;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field layout of a struct declaration, shared by all its instances.
+ * <p>
+ * Field values are stored by their index in declaration order.
+ */
+public record Shape(List<String> names, Map<String, Integer> indexes) {
+    public Shape(List<String> names) {
+        this(names, indexNames(names));
+    }
+
+    public Shape {
+        names = List.copyOf(names);
+        indexes = Map.copyOf(indexes);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public int index(String name) {
+        final Integer index = indexes.get(name);
+        return index != null ? index : -1;
+    }
+
+    private static Map<String, Integer> indexNames(List<String> names) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) indexes.put(names.get(i), i);
+        return indexes;
+    }
+}
@@ -7,7 +7,12 @@ import org.click.interpreter.Executor;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
 
@@ -24,24 +29,25 @@ public sealed interface Value {
     }
 
     record FunctionDecl(List<Parameter> parameters, Type returnType, List<Statement> body,
-                        @Nullable Executor lambdaExecutor) implements Value {
+                        @Nullable Ast.Scope scope, @Nullable Executor lambdaExecutor) implements Value {
         public FunctionDecl {
             parameters = List.copyOf(parameters);
             body = List.copyOf(body);
         }
     }
 
-    record StructDecl(List<Parameter> parameters) implements Value {
+    record StructDecl(List<Parameter> parameters, Shape shape) implements Value {
+        public StructDecl(List<Parameter> parameters) {
+            this(parameters, new Shape(parameters.stream().map(Parameter::name).toList()));
+        }
+
         public StructDecl {
             parameters = List.copyOf(parameters);
         }
 
         public Type get(String name) {
-            for (Parameter parameter : parameters) {
-                if (parameter.name().equals(name))
-                    return parameter.type();
-            }
-            return null;
+            final int index = shape.index(name);
+            return index != -1 ? parameters.get(index).type() : null;
         }
     }
 
@@ -68,53 +74,391 @@ public sealed interface Value {
     record Interrupt() implements Value {
     }
 
-    record NumberLiteral(BigDecimal value) implements Value {
+    /**
+     * Number stored as a long when it is an integer fitting 64 bits, and as a BigDecimal otherwise.
+     * <p>
+     * Both representations of the same number are equal, operations promote to BigDecimal on overflow.
+     */
+    final class NumberLiteral implements Value {
+        private static final NumberLiteral[] CACHE = new NumberLiteral[1024 + 128];
+
+        static {
+            for (int i = 0; i < CACHE.length; i++) CACHE[i] = new NumberLiteral(i - 128L, null);
+        }
+
+        private final long longValue;
+        private final @Nullable BigDecimal decimal;
+
+        private NumberLiteral(long longValue, @Nullable BigDecimal decimal) {
+            this.longValue = longValue;
+            this.decimal = decimal;
+        }
+
+        public NumberLiteral(long value) {
+            this(value, null);
+        }
+
+        public NumberLiteral(BigDecimal value) {
+            this(value.longValue(), isLong(value) ? null : value);
+        }
+
         public NumberLiteral(Number value) {
-            this(new BigDecimal(value.toString()));
+            this(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ?
+                    BigDecimal.valueOf(value.longValue()) : new BigDecimal(value.toString()));
         }
 
         public NumberLiteral(String value) {
             this(new BigDecimal(value));
         }
+
+        public static NumberLiteral of(long value) {
+            if (value >= -128 && value < CACHE.length - 128) return CACHE[(int) value + 128];
+            return new NumberLiteral(value, null);
+        }
+
+        public boolean isLong() {
+            return decimal == null;
+        }
+
+        private static boolean isLong(BigDecimal value) {
+            return value.scale() == 0 && value.unscaledValue().bitLength() < 64;
+        }
+
+        /**
+         * Returns the integer value, only exact when {@link #isLong()}.
+         */
+        public long longValue() {
+            return decimal == null ? longValue : decimal.longValue();
+        }
+
+        public BigDecimal value() {
+            return decimal == null ? BigDecimal.valueOf(longValue) : decimal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NumberLiteral that)) return false;
+            if (decimal == null && that.decimal == null) return longValue == that.longValue;
+            return value().equals(that.value());
+        }
+
+        @Override
+        public int hashCode() {
+            return value().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "NumberLiteral[value=" + (decimal == null ? Long.toString(longValue) : decimal.toString()) + "]";
+        }
     }
 
     record BooleanLiteral(boolean value) implements Value {
+        public static final BooleanLiteral TRUE = new BooleanLiteral(true);
+        public static final BooleanLiteral FALSE = new BooleanLiteral(false);
+
+        public static BooleanLiteral of(boolean value) {
+            return value ? TRUE : FALSE;
+        }
     }
 
-    record Binary(BinStandard standard, MemorySegment segment) implements Value {
-        public Binary {
-            segment = segment.asReadOnly();
+    /**
+     * Binary value of a standard, read-only.
+     * <p>
+     * Integers of fixed-width standards are held as their sign-extended bits, their segment is only created when read,
+     * so that arithmetic on them does not allocate memory.
+     * <p>
+     * Concatenations are ropes of their operands, flattened into a single segment when first read as a whole. Writers
+     * able to gather can read the {@link #pieces()} instead.
+     * <p>
+     * The hash of the content is computed once, on the pieces without flattening them, and compared before the bytes.
+     */
+    final class Binary implements Value {
+        // Operands shorter than this are copied instead of referenced
+        private static final long FLAT_CONCATENATION = 64;
+        // Bytes hashed at once by the vectorized array hash, and the factor it gives the hash preceding them
+        private static final int HASH_CHUNK = 1 << 12;
+        private static final int HASH_CHUNK_FACTOR = power(31, HASH_CHUNK);
+
+        private final BinStandard standard;
+        private final long bits;
+        private final long size;
+        // Either a segment, a rope, or null for a fixed-width integer not read as memory yet
+        private @Nullable Object content;
+        // Content hash of variable-width binaries, zero until computed
+        private int hash;
+
+        private record Rope(Binary left, Binary right) {
+        }
+
+        public Binary(BinStandard standard, MemorySegment segment) {
+            this.standard = standard;
+            this.content = segment.asReadOnly();
+            this.size = segment.byteSize();
+            this.bits = standard.width() > 0 ? standard.read(segment) : 0;
+        }
+
+        private Binary(BinStandard standard, long bits) {
+            this.standard = standard;
+            this.bits = standard.wrap(bits);
+            this.size = standard.width();
+        }
+
+        private Binary(BinStandard standard, Rope rope) {
+            this.standard = standard;
+            this.bits = 0;
+            this.size = rope.left.size + rope.right.size;
+            this.content = rope;
         }
 
         public static Binary UTF8(String string) {
-            return serialize(BinStandard.UTF8, new LiteralValue.Text(string));
+            return new Binary(BinStandard.UTF8, BinStandard.UTF8.serialize(new LiteralValue.Text(string)));
         }
 
         public static Binary I32(int num) {
-            return serialize(BinStandard.I32, new LiteralValue.Number(num));
+            return new Binary(BinStandard.I32, num);
+        }
+
+        public static Binary I64(long num) {
+            return new Binary(BinStandard.I64, num);
+        }
+
+        public static Binary I8(byte num) {
+            return new Binary(BinStandard.I8, num);
+        }
+
+        /**
+         * Returns the integer of a fixed-width standard, truncated to its width.
+         */
+        public static Binary of(BinStandard standard, long bits) {
+            if (standard.width() <= 0) throw new IllegalArgumentException("Not a fixed-width standard: " + standard.name());
+            return new Binary(standard, bits);
+        }
+
+        /**
+         * Returns the serialized literal, without a segment for fixed-width integers.
+         */
+        public static Binary of(BinStandard standard, LiteralValue literal) {
+            if (standard.width() > 0 && literal instanceof LiteralValue.Number number) {
+                return new Binary(standard, number.value().longValue());
+            }
+            return new Binary(standard, standard.serialize(literal));
+        }
+
+        /**
+         * Returns the bytes of both binaries one after the other, without copying them unless short.
+         */
+        public static Binary concat(Binary left, Binary right) {
+            if (left.standard != right.standard)
+                throw new RuntimeException("Cannot concatenate " + left.standard.name() + " and " + right.standard.name());
+            if (left.size == 0) return right;
+            if (right.size == 0) return left;
+            if (left.size + right.size <= FLAT_CONCATENATION) {
+                final MemorySegment segment = MemorySegment.ofArray(new byte[(int) (left.size + right.size)]);
+                MemorySegment.copy(left.segment(), 0, segment, 0, left.size);
+                MemorySegment.copy(right.segment(), 0, segment, left.size, right.size);
+                return new Binary(left.standard, segment);
+            }
+            return new Binary(left.standard, new Rope(left, right));
+        }
+
+        public BinStandard standard() {
+            return standard;
+        }
+
+        /**
+         * Returns the sign-extended integer of a fixed-width standard.
+         */
+        public long bits() {
+            if (standard.width() <= 0) throw new UnsupportedOperationException("Not a fixed-width standard: " + standard.name());
+            return bits;
+        }
+
+        public long byteSize() {
+            return size;
         }
 
-        private static Binary serialize(BinStandard standard, LiteralValue literalValue) {
-            final MemorySegment segment = standard.serialize(literalValue);
-            return new Binary(standard, segment);
+        /**
+         * Returns the contiguous memory of the binary, flattening it if it is a rope.
+         */
+        public MemorySegment segment() {
+            final Object content = this.content;
+            if (content instanceof MemorySegment segment) return segment;
+            final MemorySegment segment;
+            if (content instanceof Rope) {
+                if (size > Integer.MAX_VALUE) throw new RuntimeException("Binary too large: " + size);
+                segment = MemorySegment.ofArray(new byte[(int) size]);
+                long offset = 0;
+                for (MemorySegment piece : pieces()) {
+                    MemorySegment.copy(piece, 0, segment, offset, piece.byteSize());
+                    offset += piece.byteSize();
+                }
+            } else {
+                segment = standard.write(bits);
+            }
+            final MemorySegment readOnly = segment.asReadOnly();
+            this.content = readOnly;
+            return readOnly;
+        }
+
+        /**
+         * Returns the memory of the binary in order, as the segments of a rope or as a single one.
+         */
+        public List<MemorySegment> pieces() {
+            final List<MemorySegment> pieces = new ArrayList<>();
+            final Deque<Binary> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                final Binary binary = pending.pop();
+                if (binary.content instanceof Rope(Binary left, Binary right)) {
+                    pending.push(right);
+                    pending.push(left);
+                } else {
+                    pieces.add(binary.segment());
+                }
+            }
+            return pieces;
         }
 
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
-            if (!(o instanceof Binary binary)) return false;
-            return Objects.equals(standard, binary.standard) && segment.mismatch(binary.segment) == -1;
+            if (!(o instanceof Binary binary) || !Objects.equals(standard, binary.standard)) return false;
+            if (standard.width() > 0) return bits == binary.bits;
+            if (size != binary.size) return false;
+            if (hash != 0 && binary.hash != 0 && hash != binary.hash) return false;
+            return segment().mismatch(binary.segment()) == -1;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(standard, segment);
+            if (standard.width() > 0) return 31 * standard.hashCode() + Long.hashCode(bits);
+            int hash = this.hash;
+            if (hash == 0) this.hash = hash = 31 * standard.hashCode() + contentHash();
+            return hash;
+        }
+
+        /**
+         * Returns the hash of the bytes as {@link Arrays#hashCode(byte[])} would, chunk by chunk.
+         */
+        private int contentHash() {
+            int hash = 1;
+            byte[] chunk = null;
+            for (MemorySegment piece : pieces()) {
+                final long length = piece.byteSize();
+                long offset = 0;
+                for (; length - offset >= HASH_CHUNK; offset += HASH_CHUNK) {
+                    if (chunk == null) chunk = new byte[HASH_CHUNK];
+                    MemorySegment.copy(piece, ValueLayout.JAVA_BYTE, offset, chunk, 0, HASH_CHUNK);
+                    // The array hash starts from one, weighted like the hash so far
+                    hash = (hash - 1) * HASH_CHUNK_FACTOR + Arrays.hashCode(chunk);
+                }
+                for (; offset < length; offset++) hash = 31 * hash + piece.get(ValueLayout.JAVA_BYTE, offset);
+            }
+            return hash;
+        }
+
+        private static int power(int base, int exponent) {
+            int result = 1;
+            for (; exponent > 0; exponent >>= 1, base *= base) {
+                if ((exponent & 1) != 0) result *= base;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Binary[standard=" + standard.name() + ", value=" + standard.asString(segment()) + "]";
         }
     }
 
-    record Struct(String name, java.util.Map<String, Value> parameters) implements Value {
-        public Struct {
-            parameters = java.util.Map.copyOf(parameters);
+    /**
+     * Struct instance storing its fields by index in the shape of its declaration, missing fields are null.
+     * <p>
+     * Instances are immutable, updating a field copies the values. Structs of different shapes are equal when they
+     * have the same name and fields.
+     */
+    final class Struct implements Value {
+        private final String name;
+        private final Shape shape;
+        private final @Nullable Value[] values;
+
+        /**
+         * Takes ownership of the values, indexed by the shape.
+         */
+        public Struct(String name, Shape shape, @Nullable Value[] values) {
+            assert values.length == shape.size() : "Invalid struct values: " + values.length + " for " + shape;
+            this.name = name;
+            this.shape = shape;
+            this.values = values;
+        }
+
+        public Struct(String name, java.util.Map<String, Value> parameters) {
+            this(name, new Shape(parameters.keySet().stream().sorted().toList()), fields(parameters));
+        }
+
+        private static Value[] fields(java.util.Map<String, Value> parameters) {
+            return parameters.entrySet().stream().sorted(java.util.Map.Entry.comparingByKey())
+                    .map(entry -> Objects.requireNonNull(entry.getValue())).toArray(Value[]::new);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Shape shape() {
+            return shape;
+        }
+
+        public @Nullable Value get(int index) {
+            return values[index];
+        }
+
+        public @Nullable Value get(String field) {
+            final int index = shape.index(field);
+            return index != -1 ? values[index] : null;
+        }
+
+        public Struct with(int index, Value value) {
+            final Value[] copy = values.clone();
+            copy[index] = value;
+            return new Struct(name, shape, copy);
+        }
+
+        public Struct with(String field, Value value) {
+            final int index = shape.index(field);
+            if (index == -1) throw new RuntimeException("Field not found: " + field + " in " + name);
+            return with(index, value);
+        }
+
+        /**
+         * Returns the present fields in declaration order.
+         */
+        public java.util.Map<String, Value> parameters() {
+            java.util.Map<String, Value> parameters = new java.util.LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) parameters.put(shape.names().get(i), values[i]);
+            }
+            return java.util.Collections.unmodifiableMap(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Struct struct) || !name.equals(struct.name)) return false;
+            if (shape.equals(struct.shape)) return java.util.Arrays.equals(values, struct.values);
+            return parameters().equals(struct.parameters());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + parameters().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Struct[name=" + name + ", parameters=" + parameters() + "]";
         }
     }
 
@@ -124,9 +468,24 @@ public sealed interface Value {
     record Union(String name, Value value) implements Value {
     }
 
+    /**
+     * Array whose elements are stored by {@link Elements}, specialized from the element type.
+     */
     record Array(Type.Array arrayType, List<Value> elements) implements Value {
         public Array {
-            elements = java.util.List.copyOf(elements);
+            elements = Elements.copyOf(arrayType.type(), elements);
+        }
+
+        public Array with(int index, Value value) {
+            return new Array(arrayType, Elements.with(arrayType.type(), elements, index, value));
+        }
+
+        /**
+         * Returns the off-heap memory of a byte array, shared with the externals reading or filling it in place, see
+         * {@link Elements#segment}.
+         */
+        public @Nullable MemorySegment segment() {
+            return Elements.segment(elements);
         }
     }
 }
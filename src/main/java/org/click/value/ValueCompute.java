@@ -1,63 +1,68 @@
 package org.click.value;
 
+import org.click.Token;
+import org.click.Type;
 import org.click.interpreter.ScopeWalker;
 import org.click.interpreter.Executor;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static org.click.Ast.AccessPoint;
 import static org.click.Ast.Expression;
 
 public final class ValueCompute {
-    public static void update(ScopeWalker<Value> walker, ScopeWalker<Value> updated) {
-        for (Map.Entry<String, Value> entry : updated.currentScope().tracked().entrySet()) {
-            final String name = entry.getKey();
-            final Value value = entry.getValue();
-            if (walker.find(name) == null) {
-                walker.register(name, value);
-            } else {
-                walker.update(name, value);
+    public static void update(ScopeWalker walker, ScopeWalker updated) {
+        final int depth = Math.min(walker.depth(), updated.depth());
+        for (int i = 0; i <= depth; i++) {
+            if (walker.sharesFrame(updated, i)) continue;
+            final int size = walker.scope(i).size();
+            for (int slot = 0; slot < size; slot++) {
+                final Value value = updated.find(i, slot);
+                if (value != null && value != walker.find(i, slot)) walker.update(i, slot, value);
             }
         }
     }
 
-    public static void merge(ScopeWalker<Value> walker, List<ScopeWalker<Value>> copies) {
-        Map<String, List<Value>> deltas = new HashMap<>();
-        // Compute deltas
-        for (Map.Entry<String, Value> entry : walker.currentScope().tracked().entrySet()) {
-            final String name = entry.getKey();
-            final Value value = entry.getValue();
-            for (ScopeWalker<Value> copy : copies) {
-                final Value copyValue = copy.find(name);
-                if (copyValue != null && !value.equals(copyValue)) {
-                    final Value delta = ValueCompute.delta(value, copyValue);
-                    deltas.computeIfAbsent(name, k -> new ArrayList<>()).add(delta);
+    public static void merge(ScopeWalker walker, List<ScopeWalker> copies) {
+        final int depth = walker.depth();
+        List<ScopeWalker> modified = new ArrayList<>(copies.size());
+        for (int i = 0; i <= depth; i++) {
+            // Untouched frames are still shared with the copy
+            modified.clear();
+            for (ScopeWalker copy : copies) {
+                if (copy.depth() >= i && !walker.sharesFrame(copy, i)) modified.add(copy);
+            }
+            if (modified.isEmpty()) continue;
+            final int size = walker.scope(i).size();
+            for (int slot = 0; slot < size; slot++) {
+                Value value = walker.find(i, slot);
+                if (value == null) continue;
+                // Compute deltas
+                List<Value> deltas = null;
+                for (ScopeWalker copy : modified) {
+                    final Value copyValue = copy.find(i, slot);
+                    if (copyValue != null && !value.equals(copyValue)) {
+                        if (deltas == null) deltas = new ArrayList<>();
+                        deltas.add(ValueCompute.delta(value, copyValue));
+                    }
                 }
+                if (deltas == null) continue;
+                // Apply deltas
+                for (Value delta : deltas) value = ValueCompute.mergeDelta(value, delta);
+                walker.update(i, slot, value);
             }
         }
-        // Apply deltas
-        for (Map.Entry<String, List<Value>> entry : deltas.entrySet()) {
-            final String name = entry.getKey();
-            final List<Value> values = entry.getValue();
-            Value value = walker.find(name);
-            for (Value delta : values) value = ValueCompute.mergeDelta(value, delta);
-            walker.update(name, value);
-        }
     }
 
     public static Value mergeDelta(Value initial, Value delta) {
         switch (initial) {
             case Value.NumberLiteral initialConstant when delta instanceof Value.NumberLiteral nextConstant -> {
-                final BigDecimal value = initialConstant.value().add(nextConstant.value());
-                return new Value.NumberLiteral(value);
+                return ValueOperator.operate(Token.Type.PLUS, initialConstant, nextConstant);
             }
             case Value.BooleanLiteral initialConstant when delta instanceof Value.BooleanLiteral nextConstant -> {
                 final boolean value = initialConstant.value() || nextConstant.value();
-                return new Value.BooleanLiteral(value);
+                return Value.BooleanLiteral.of(value);
             }
             default -> throw new RuntimeException("Unknown types: " + initial + " and " + delta);
         }
@@ -66,28 +71,60 @@ public final class ValueCompute {
     public static Value delta(Value initial, Value next) {
         switch (initial) {
             case Value.NumberLiteral initialConstant when next instanceof Value.NumberLiteral nextConstant -> {
-                final BigDecimal delta = nextConstant.value().subtract(initialConstant.value());
-                return new Value.NumberLiteral(delta);
+                return ValueOperator.operate(Token.Type.MINUS, nextConstant, initialConstant);
             }
             case Value.BooleanLiteral initialConstant when next instanceof Value.BooleanLiteral nextConstant -> {
                 final boolean value = initialConstant.value() || nextConstant.value();
-                return new Value.BooleanLiteral(value);
+                return Value.BooleanLiteral.of(value);
             }
             default -> throw new RuntimeException("Unknown types: " + initial + " and " + next);
         }
     }
 
-    public static Value deconstruct(ScopeWalker<Value> walker, Value expression, int index) {
+    public static Value deconstruct(ScopeWalker walker, Value expression, int index) {
         return switch (expression) {
             case Value.Struct struct -> {
                 final Value.StructDecl decl = (Value.StructDecl) walker.find(struct.name());
-                final String fieldName = decl.parameters().get(index).name();
-                yield struct.parameters().get(fieldName);
+                if (struct.shape() == decl.shape()) yield struct.get(index);
+                yield struct.get(decl.parameters().get(index).name());
             }
             default -> throw new RuntimeException("Cannot deconstruct: " + expression);
         };
     }
 
+    public static Value range(Value start, Value end, Value step) {
+        final List<Value> elements = Elements.range(ValueType.requireInteger(start), ValueType.requireInteger(end),
+                ValueType.requireInteger(step));
+        return new Value.Array(new Type.Array(Type.NUMBER, elements.size()), elements);
+    }
+
+    /**
+     * Returns a view of the elements of an array or the bytes of a binary between two indexes, sharing its storage.
+     */
+    public static Value slice(Value object, Value start, Value end, Value step) {
+        final long from = ValueType.requireInteger(start);
+        final long to = ValueType.requireInteger(end);
+        if (ValueType.requireInteger(step) != 1) throw new RuntimeException("Slice step must be 1, got: " + step);
+        return switch (object) {
+            case Value.Array array -> {
+                final Type elementType = array.arrayType().type();
+                if (from < 0 || from > to || to > array.elements().size())
+                    throw new RuntimeException("Slice out of bounds: " + from + ".." + to + " in " + array.elements().size());
+                // Lose length information
+                yield new Value.Array(new Type.Array(elementType, -1),
+                        Elements.slice(elementType, array.elements(), (int) from, (int) to));
+            }
+            case Value.Binary binary -> {
+                if (binary.standard().width() > 0)
+                    throw new RuntimeException("Cannot slice " + binary.standard().name() + " integer");
+                if (from < 0 || from > to || to > binary.segment().byteSize())
+                    throw new RuntimeException("Slice out of bounds: " + from + ".." + to + " in " + binary.segment().byteSize());
+                yield new Value.Binary(binary.standard(), binary.segment().asSlice(from, to - from));
+            }
+            default -> throw new RuntimeException("Cannot slice: " + object);
+        };
+    }
+
     public static Value updateVariable(Executor executor, Value variable, List<AccessPoint> accesses, Value updated) {
         if (accesses.isEmpty()) return updated;
         final AccessPoint access = accesses.get(0);
@@ -95,16 +132,10 @@ public final class ValueCompute {
             case Value.Struct struct -> {
                 if (access instanceof AccessPoint.Field field) {
                     final String component = field.component();
-                    final HashMap<String, Value> newParams = new HashMap<>(struct.parameters());
-                    if (accesses.size() == 1) {
-                        newParams.put(component, updated);
-                    } else {
-                        final Value prevValue = newParams.get(component);
-                        final List<AccessPoint> recursiveAccess = accesses.subList(1, accesses.size());
-                        final Value recursiveValue = updateVariable(executor, prevValue, recursiveAccess, updated);
-                        newParams.put(component, recursiveValue);
-                    }
-                    yield new Value.Struct(struct.name(), newParams);
+                    if (accesses.size() == 1) yield struct.with(component, updated);
+                    final Value prevValue = struct.get(component);
+                    final List<AccessPoint> recursiveAccess = accesses.subList(1, accesses.size());
+                    yield struct.with(component, updateVariable(executor, prevValue, recursiveAccess, updated));
                 } else {
                     throw new RuntimeException("Cannot update variable: " + variable);
                 }
@@ -112,11 +143,8 @@ public final class ValueCompute {
             case Value.Array array -> {
                 if (access instanceof AccessPoint.Index indexAccess) {
                     final Expression indexExpression = indexAccess.expression();
-                    final List<Value> newParams = new ArrayList<>(array.elements());
                     final Value index = executor.evaluate(indexExpression, null);
-                    final int targetIndex = ((Value.NumberLiteral) index).value().intValue();
-                    newParams.set(targetIndex, updated);
-                    yield new Value.Array(array.arrayType(), newParams);
+                    yield array.with((int) ValueType.requireInteger(index), updated);
                 } else {
                     throw new RuntimeException("Cannot update variable: " + variable);
                 }
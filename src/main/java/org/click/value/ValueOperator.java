@@ -2,28 +2,95 @@ package org.click.value;
 
 import org.click.BinStandard;
 import org.click.Token;
+import org.click.Type;
 
 import java.lang.foreign.MemorySegment;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 
 public final class ValueOperator {
     public static Value operate(Token.Type operator, Value left, Value right) {
         return switch (left) {
             case Value.NumberLiteral leftLiteral when right instanceof Value.NumberLiteral rightLiteral ->
-                    operateInteger(operator, leftLiteral.value(), rightLiteral.value());
+                    operate(operator, leftLiteral, rightLiteral);
             case Value.BooleanLiteral leftLiteral when right instanceof Value.BooleanLiteral rightLiteral ->
                     operateBoolean(operator, leftLiteral.value(), rightLiteral.value());
             case Value.Binary leftBin when right instanceof Value.Binary rightBin -> {
                 if (leftBin.standard() != rightBin.standard())
                     throw new RuntimeException("Cannot operate on different binaries: " + leftBin.standard() + " and " + rightBin.standard());
                 final BinStandard standard = leftBin.standard();
+                if (standard.width() > 0) yield operateFixed(operator, standard, leftBin.bits(), rightBin.bits());
+                if (standard == BinStandard.UTF8 && operator == Token.Type.PLUS) yield Value.Binary.concat(leftBin, rightBin);
                 final MemorySegment segment = standard.operate(leftBin.segment(), rightBin.segment(), operator);
                 yield new Value.Binary(standard, segment);
             }
+            case Value.Array leftArray -> operateArray(operator, leftArray, right, false);
+            case Value.NumberLiteral leftLiteral when right instanceof Value.Array rightArray ->
+                    operateArray(operator, rightArray, leftLiteral, true);
             default -> throw new RuntimeException("Unknown types: " + left + " and " + right);
         };
     }
 
+    public static Value operate(Token.Type operator, Value.NumberLiteral left, Value.NumberLiteral right) {
+        if (left.isLong() && right.isLong()) {
+            final Value result = operateLong(operator, left.longValue(), right.longValue());
+            if (result != null) return result;
+        }
+        return operateInteger(operator, left.value(), right.value());
+    }
+
+    /**
+     * Operates element-wise on two arrays of the same length, or on each element of an array with a number.
+     */
+    private static Value operateArray(Token.Type operator, Value.Array array, Value other, boolean reversed) {
+        if (operator != Token.Type.PLUS && operator != Token.Type.MINUS && operator != Token.Type.STAR &&
+                operator != Token.Type.SLASH) throw new RuntimeException("Unknown operator: " + operator);
+        final List<Value> elements = array.elements();
+        final List<Value> others = switch (other) {
+            case Value.Array otherArray -> otherArray.elements();
+            case Value.NumberLiteral ignored -> null;
+            default -> throw new RuntimeException("Unknown types: " + array + " and " + other);
+        };
+        if (others != null && others.size() != elements.size())
+            throw new RuntimeException("Array length mismatch: " + elements.size() + " and " + others.size());
+        final Type.Array arrayType = array.arrayType();
+        final long[] longs = Elements.longs(elements);
+        if (longs != null) {
+            final long[] result;
+            if (others != null) {
+                final long[] otherLongs = Elements.longs(others);
+                result = otherLongs != null ? Kernels.operate(operator, longs, otherLongs) : null;
+            } else {
+                final Value.NumberLiteral number = (Value.NumberLiteral) other;
+                result = number.isLong() ? Kernels.operate(operator, longs, number.longValue(), reversed) : null;
+            }
+            if (result != null) return new Value.Array(arrayType, Elements.ofLongs(result));
+        }
+        final Value[] result = new Value[elements.size()];
+        for (int i = 0; i < result.length; i++) {
+            final Value left = elements.get(i);
+            final Value right = others != null ? others.get(i) : other;
+            result[i] = reversed ? operate(operator, right, left) : operate(operator, left, right);
+        }
+        return new Value.Array(arrayType, Arrays.asList(result));
+    }
+
+    /**
+     * Operates on fixed-width integers with wrap-around semantics.
+     */
+    private static Value operateFixed(Token.Type operator, BinStandard standard, long left, long right) {
+        return switch (operator) {
+            case EQUAL_EQUAL -> Value.BooleanLiteral.of(left == right);
+            case NOT_EQUAL -> Value.BooleanLiteral.of(left != right);
+            case LESS -> Value.BooleanLiteral.of(left < right);
+            case LESS_EQUAL -> Value.BooleanLiteral.of(left <= right);
+            case GREATER -> Value.BooleanLiteral.of(left > right);
+            case GREATER_EQUAL -> Value.BooleanLiteral.of(left >= right);
+            default -> Value.Binary.of(standard, standard.arithmetic(left, right, operator));
+        };
+    }
+
     private static Value operateBoolean(Token.Type operator, boolean left, boolean right) {
         final boolean result = switch (operator) {
             case OR -> left || right;
@@ -31,7 +98,30 @@ public final class ValueOperator {
             case EQUAL_EQUAL -> left == right;
             default -> throw new RuntimeException("Unknown operator: " + operator);
         };
-        return new Value.BooleanLiteral(result);
+        return Value.BooleanLiteral.of(result);
+    }
+
+    /**
+     * Returns null when the result does not fit a long, so that the operation is retried on BigDecimal.
+     */
+    private static Value operateLong(Token.Type operator, long left, long right) {
+        try {
+            return switch (operator) {
+                case PLUS -> Value.NumberLiteral.of(Math.addExact(left, right));
+                case MINUS -> Value.NumberLiteral.of(Math.subtractExact(left, right));
+                case STAR -> Value.NumberLiteral.of(Math.multiplyExact(left, right));
+                case SLASH -> right != 0 && left % right == 0 ?
+                        Value.NumberLiteral.of(Math.divideExact(left, right)) : null;
+                case EQUAL_EQUAL -> Value.BooleanLiteral.of(left == right);
+                case GREATER -> Value.BooleanLiteral.of(left > right);
+                case GREATER_EQUAL -> Value.BooleanLiteral.of(left >= right);
+                case LESS -> Value.BooleanLiteral.of(left < right);
+                case LESS_EQUAL -> Value.BooleanLiteral.of(left <= right);
+                default -> throw new RuntimeException("Unknown operator: " + operator);
+            };
+        } catch (ArithmeticException e) {
+            return null;
+        }
     }
 
     private static Value operateInteger(Token.Type operator, BigDecimal left, BigDecimal right) {
@@ -63,6 +153,6 @@ public final class ValueOperator {
             }
             default -> throw new RuntimeException("Unknown operator: " + operator);
         };
-        return isComparison ? new Value.BooleanLiteral(result.intValue() == 1) : new Value.NumberLiteral(result);
+        return isComparison ? Value.BooleanLiteral.of(result.intValue() == 1) : new Value.NumberLiteral(result);
     }
 }
@@ -9,7 +9,8 @@ import java.util.Map;
 public final class ValueSerializer {
     public static String serialize(Value expression) {
         return switch (expression) {
-            case Value.NumberLiteral numberLiteral -> String.valueOf(numberLiteral.value());
+            case Value.NumberLiteral numberLiteral ->
+                    numberLiteral.isLong() ? Long.toString(numberLiteral.longValue()) : numberLiteral.value().toString();
             case Value.BooleanLiteral booleanLiteral -> String.valueOf(booleanLiteral.value());
             case Value.Struct struct -> {
                 final Map<String, Value> parameters = struct.parameters();
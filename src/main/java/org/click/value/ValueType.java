@@ -4,21 +4,22 @@ import org.click.Type;
 
 public final class ValueType {
     public static Value defaultValue(Type type) {
-        if (type == Type.NUMBER) return new Value.NumberLiteral(0);
-        if (type == Type.BOOL) return new Value.BooleanLiteral(false);
+        if (type == Type.NUMBER) return Value.NumberLiteral.of(0);
+        if (type == Type.BOOL) return Value.BooleanLiteral.FALSE;
         throw new RuntimeException("Unknown type: " + type);
     }
 
     public static long requireInteger(Value value) {
-        if (!(value instanceof Value.NumberLiteral))
+        if (!(value instanceof Value.NumberLiteral numberLiteral))
             throw new RuntimeException("Expected integer, got " + value);
-        return ((Value.NumberLiteral) value).value().longValue();
+        return numberLiteral.longValue();
     }
 
     public static Type extractAssignmentType(Value expression) {
         return switch (expression) {
             case Value.NumberLiteral ignored -> Type.NUMBER;
             case Value.BooleanLiteral ignored -> Type.BOOL;
+            case Value.Binary binary -> Type.of(binary.standard().name());
             case Value.Struct struct -> Type.of(struct.name());
             case Value.Enum en -> Type.of(en.name());
             case Value.Union union -> Type.of(union.name());
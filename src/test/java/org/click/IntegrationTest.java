@@ -1,14 +1,31 @@
 package org.click;
 
+import org.click.external.BuiltinEx;
 import org.click.external.ExternalFunction;
 import org.click.interpreter.VM;
+import org.click.value.Arenas;
+import org.click.value.Elements;
 import org.click.value.Value;
+import org.click.value.ValueSerializer;
+import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.reflect.RecordComponent;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public final class IntegrationTest {
     private static final Value TRUE = new Value.BooleanLiteral(true);
@@ -201,6 +218,26 @@ public final class IntegrationTest {
                 """
                         main :: () UTF8 -> "Hello " + "World";
                         """);
+        assertProgram(Value.Binary.UTF8("Hello ".repeat(100) + "World"),
+                """
+                        main :: () UTF8 {
+                          text := UTF8."";
+                          for i: 0..100 -> text = text + UTF8."Hello ";
+                          return text + UTF8."World";
+                        }
+                        """);
+    }
+
+    @Test
+    public void binaryHash() {
+        final String text = "Hello ".repeat(1000) + "World".repeat(1000);
+        final Value.Binary flat = Value.Binary.UTF8(text);
+        final Value.Binary rope = Value.Binary.concat(Value.Binary.UTF8("Hello ".repeat(1000)),
+                Value.Binary.UTF8("World".repeat(1000)));
+        assertEquals(flat.hashCode(), rope.hashCode());
+        assertEquals(flat, rope);
+        assertNotEquals(flat, Value.Binary.UTF8(text.replace('W', 'w')));
+        assertEquals(Map.of(flat, ONE).get(rope), ONE);
     }
 
     @Test
@@ -371,6 +408,22 @@ public final class IntegrationTest {
                 """
                         main :: () number -> (2 + 3) * 4;
                         """);
+        assertProgram(new Value.NumberLiteral("2"),
+                """
+                        main :: () number -> 10 / 5;
+                        """);
+        assertProgram(new Value.NumberLiteral("2.5"),
+                """
+                        main :: () number -> 5 / 2;
+                        """);
+        assertProgram(new Value.NumberLiteral("9223372036854775808"),
+                """
+                        main :: () number -> 9223372036854775807 + 1;
+                        """);
+        assertProgram(new Value.NumberLiteral("-9223372036854775807"),
+                """
+                        main :: () number -> 9223372036854775807 * 2 - 9223372036854775807 * 3;
+                        """);
     }
 
     @Test
@@ -496,6 +549,30 @@ public final class IntegrationTest {
                           return array[1];
                         }
                         """);
+        // Ranges are not materialized
+        assertProgram(new Value.NumberLiteral("1000000008"),
+                """
+                        main :: () number {
+                          range :: 0..1_000_000_000;
+                          small :: 0..10;
+                          large :: small where @ > 6;
+                          return range[999_999_999] + large[2];
+                        }
+                        """);
+        assertProgram(new Value.Array(new Type.Array(Type.NUMBER, -1), List.of(
+                        new Value.NumberLiteral("4"),
+                        new Value.NumberLiteral("7"))),
+                """
+                        main :: () []number {
+                          range :: 1..20..3;
+                          return range[1..3];
+                        }
+                        """);
+        // The distance between the bounds overflows a long
+        var exception = assertThrows(RuntimeException.class,
+                () -> Elements.range(-5_000_000_000_000_000_000L, 5_000_000_000_000_000_000L, 1));
+        assertTrue(exception.getMessage().startsWith("Range too large: "), exception.getMessage());
+        assertEquals(10, Elements.range(Long.MAX_VALUE - 10, Long.MAX_VALUE, 1).size());
     }
 
     @Test
@@ -541,6 +618,100 @@ public final class IntegrationTest {
                           return filtered;
                         }
                         """);
+        assertProgram(new Value.NumberLiteral("12"),
+                """
+                        main :: () number {
+                          array := [5]number {1, 2, 3, 4, 5};
+                          total := 0;
+                          for value: array where @ > 2 -> total = total + value;
+                          return total;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("3291"),
+                """
+                        main :: () number {
+                          values :: 0..100;
+                          total := 0;
+                          for i, value: values where @ > 95 {
+                            if i == 3 -> break;
+                            total = total + i * 1000 + value;
+                          }
+                          return total;
+                        }
+                        """);
+        // The condition reads the variables of the loop start
+        assertProgram(new Value.NumberLiteral("5"),
+                """
+                        main :: () number {
+                          array :: [5]number {1, 2, 3, 4, 5};
+                          limit := 10;
+                          count := 0;
+                          for value: array where @ < limit {
+                            limit = 0;
+                            count = count + 1;
+                          }
+                          return count;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("300000"),
+                """
+                        main :: () number {
+                          values :: [100000]number @ * 2;
+                          filtered :: values where @ > 100000;
+                          return filtered[0] + filtered[49998];
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("150014"),
+                """
+                        main :: () number {
+                          offset :: 5;
+                          values :: [100000]number @ + offset;
+                          return values[0] + values[50000] + values[99999];
+                        }
+                        """);
+    }
+
+    @Test
+    public void arrayArithmetic() {
+        assertProgram(new Value.Array(new Type.Array(Type.NUMBER, -1), List.of(
+                        new Value.NumberLiteral("11"),
+                        new Value.NumberLiteral("22"),
+                        new Value.NumberLiteral("33"))
+                ),
+                """
+                        main :: () []number {
+                          left := [3]number {1, 2, 3};
+                          right := [3]number {10, 20, 30};
+                          return left + right;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("4057"),
+                """
+                        main :: () number {
+                          values :: [100]number @;
+                          scaled :: values * 3;
+                          reversed :: 100 - values;
+                          return scaled[99] * 10 + reversed[1] * 10 + reversed[3];
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("100000000000000000000"),
+                """
+                        main :: () number {
+                          values := [2]number {10000000000, 1};
+                          scaled :: values * 10000000000;
+                          return scaled[0];
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("137"),
+                """
+                        main :: () number {
+                          values :: 0..100;
+                          bound := 37;
+                          filtered :: values where @ > bound;
+                          flipped :: values where 37 < @;
+                          return filtered[0] + flipped[61];
+                        }
+                        """);
     }
 
     @Test
@@ -571,6 +742,152 @@ public final class IntegrationTest {
                           return array[0];
                         }
                         """);
+        assertProgram(new Value.NumberLiteral("1099"),
+                """
+                        main :: () number {
+                          array := [1100]number @;
+                          copy := array;
+                          for i: 0..1100 -> array[i] = 0;
+                          return copy[1099] + array[1099];
+                        }
+                        """);
+        assertProgram(new Value.Array(new Type.Array(Type.NUMBER, 3),
+                        List.of(ZERO, new Value.NumberLiteral("5"), new Value.NumberLiteral("100000000000000000000"))),
+                """
+                        main :: () [3]number {
+                          array := [3]number;
+                          array[1] = 5;
+                          array[2] = 10000000000 * 10000000000;
+                          return array;
+                        }
+                        """);
+        assertProgram(new Value.Array(new Type.Array(Type.BOOL, 2), List.of(Value.BooleanLiteral.TRUE, Value.BooleanLiteral.FALSE)),
+                """
+                        main :: () [2]bool {
+                          array := [2]bool;
+                          array[0] = true;
+                          return array;
+                        }
+                        """);
+    }
+
+    @Test
+    public void byteArray() {
+        final Map<String, ExternalFunction> externals = Map.of("fill", args -> {
+            ((Value.Array) args[0]).segment().set(ValueLayout.JAVA_BYTE, 0, (byte) 42);
+            return null;
+        });
+        assertProgram(new Value.Binary(BinStandard.I8, MemorySegment.ofArray(new byte[]{42})), externals,
+                """
+                        fill :: (data: []i8);
+                        main :: () I8 {
+                          data := [2_000_000]i8;
+                          fill(data);
+                          return data[0];
+                        }
+                        """);
+        assertProgram(new Value.Binary(BinStandard.I8, MemorySegment.ofArray(new byte[]{7})), externals,
+                """
+                        fill :: (data: []i8);
+                        main :: () I8 {
+                          data := [4]i8;
+                          copy := data;
+                          data[1] = I8.7;
+                          fill(copy);
+                          return data[1];
+                        }
+                        """);
+        assertProgram(new Value.Binary(BinStandard.I8, MemorySegment.ofArray(new byte[]{3})),
+                """
+                        main :: () I8 {
+                          data := [200_000]i8;
+                          copy := data;
+                          for i: 0..200_000 -> data[i] = I8.3;
+                          return data[199_999] + copy[7];
+                        }
+                        """);
+    }
+
+    @Test
+    public void socket() throws IOException {
+        try (var server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             var client = SocketChannel.open(server.getLocalAddress());
+             var accepted = server.accept()) {
+            final Map<Integer, SocketChannel> sockets = Map.of(1, client, 2, accepted);
+            final Map<String, ExternalFunction> externals = Map.of(
+                    "send", new BuiltinEx.Send(sockets),
+                    "send_text", new BuiltinEx.Send(sockets),
+                    "recv", new BuiltinEx.Recv(sockets));
+            final String declarations = """
+                    RecvResult :: struct {length: I32, success: bool};
+                    send :: (socket: I32, data: []i8, length: I32) bool;
+                    send_text :: (socket: I32, data: UTF8) bool;
+                    recv :: (socket: I32, data: []i8) RecvResult;
+                    """;
+            // The previous version of the buffer keeps its bytes
+            assertProgram(new Value.Binary(BinStandard.I8, MemorySegment.ofArray(new byte[]{6})), externals,
+                    declarations + """
+                            main :: () I8 {
+                              data := [4]i8;
+                              data[1] = I8.6;
+                              sent :: send(I32.1, data, I32.2);
+                              buffer := [4]i8;
+                              previous := buffer;
+                              buffer[0] = I8.1;
+                              length, success :: recv(I32.2, buffer);
+                              return buffer[1] + previous[1] + previous[0];
+                            }
+                            """);
+            assertProgram(TRUE, externals,
+                    declarations + """
+                            main :: () bool {
+                              sent :: send_text(I32.1, UTF8."Hi");
+                              buffer := [2]i8;
+                              length, success :: recv(I32.2, buffer);
+                              return sent;
+                            }
+                            """);
+            assertRuntimeError("Send length out of bounds: 5 in 4", externals,
+                    declarations + """
+                            main :: () bool {
+                              data := [4]i8;
+                              return send(I32.1, data, I32.5);
+                            }
+                            """);
+        }
+    }
+
+    @Test
+    public void slice() {
+        assertProgram(new Value.NumberLiteral("9"),
+                """
+                        main :: () number {
+                          array :: [5]number {1, 2, 3, 4, 5};
+                          slice :: array[1..4];
+                          inner :: slice[1..3];
+                          return inner[0] + inner[1] + slice[0];
+                        }
+                        """);
+        assertProgram(Value.Binary.UTF8("world"),
+                """
+                        main :: () UTF8 {
+                          text :UTF8: "Hello, world!";
+                          return text[7..12];
+                        }
+                        """);
+        final Map<String, ExternalFunction> externals = Map.of("fill", args -> {
+            ((Value.Array) args[0]).segment().set(ValueLayout.JAVA_BYTE, 0, (byte) 42);
+            return null;
+        });
+        assertProgram(new Value.Binary(BinStandard.I8, MemorySegment.ofArray(new byte[]{42})), externals,
+                """
+                        fill :: (data: []i8);
+                        main :: () I8 {
+                          data := [16]i8;
+                          fill(data[2..4]);
+                          return data[2];
+                        }
+                        """);
     }
 
     @Test
@@ -779,6 +1096,34 @@ public final class IntegrationTest {
                         """);
     }
 
+    @Test
+    public void binaryArithmetic() {
+        assertProgram(Value.Binary.I32(-2147483),
+                """
+                        main :: () I32 {
+                          max :: I32.2147483647;
+                          wrapped :: max + I32.1;
+                          if wrapped < max -> return wrapped / I32.1000;
+                          return max;
+                        }
+                        """);
+        assertProgram(Value.Binary.I64(9223372036854775806L),
+                """
+                        main :: () I64 {
+                          min :: I64.9223372036854775807 + I64.1;
+                          return min - I64.2;
+                        }
+                        """);
+        assertProgram(Value.Binary.I32(15),
+                """
+                        main :: () I32 {
+                          total := I32.0;
+                          for i: 0..5 -> total = total + I32.3;
+                          return total;
+                        }
+                        """);
+    }
+
     @Test
     public void enumDecl() {
         assertProgram(ZERO,
@@ -990,6 +1335,178 @@ public final class IntegrationTest {
                         """);
     }
 
+    @Test
+    public void loopCompiled() {
+        assertProgram(new Value.NumberLiteral("20"),
+                """
+                        main :: () number {
+                          value := 0;
+                          for i: 0..10..2 -> value = value + i;
+                          return value;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("45"),
+                """
+                        main :: () number {
+                          value := 0;
+                          for i, v: 5..10 -> value = value + i + v;
+                          return value;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("18"),
+                Map.of("twice", values -> new Value.NumberLiteral(((Value.NumberLiteral) values[0]).longValue() * 2)),
+                """
+                        twice :: (value: number) number;
+                        limit :: 3;
+                        main :: () number {
+                          value := 0;
+                          for i: 0..limit {
+                            for j: 0..limit {
+                              if j == 2 -> continue;
+                              value = value + twice(j + 1);
+                            }
+                            return 5;
+                          }
+                          return value;
+                        }
+                        """);
+        // The value after the last iteration overflows
+        assertProgram(new Value.NumberLiteral("2"),
+                """
+                        main :: () number {
+                          count := 0;
+                          for i: 9223372036854775800..9223372036854775807..5 -> count = count + 1;
+                          return count;
+                        }
+                        """);
+        assertRuntimeError("Range step must be positive",
+                """
+                        main :: () number {
+                          count := 0;
+                          for i: 0..10..0 -> count = count + 1;
+                          return count;
+                        }
+                        """);
+        assertRuntimeError("Range step must be positive",
+                """
+                        main :: () number {
+                          count := 0;
+                          for i: 0..10..(0 - 1) -> count = count + 1;
+                          return count;
+                        }
+                        """);
+    }
+
+    @Test
+    public void callSiteRebinding() {
+        assertProgram(new Value.NumberLiteral("20"),
+                """
+                        apply :: (value: number) number {
+                          scale :: value;
+                          function :: (x: number) number -> x * scale;
+                          return function(2);
+                        }
+                        main :: () number {
+                          total := 0;
+                          for i: 0..5 -> total = total + apply(i);
+                          return total;
+                        }
+                        """);
+        // Interpreters sharing the parsed program resolve its call sites with their own externals
+        var statements = new Parser(new Scanner("""
+                get :: () number;
+                main :: () number -> get();
+                """).scanTokens()).parse();
+        for (VM.Mode mode : VM.Mode.values()) {
+            var first = new VM(null, statements, Map.of("get", values -> ONE), mode);
+            var second = new VM(null, statements, Map.of("get", values -> TWO), mode);
+            assertEquals(ONE, first.interpret("main", List.of()), mode.name());
+            assertEquals(TWO, second.interpret("main", List.of()), mode.name());
+            assertEquals(ONE, first.interpret("main", List.of()), mode.name());
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void tieredPromotion() {
+        assertProgram(new Value.NumberLiteral("1999000"),
+                """
+                        add :: (a: number, b: number) number -> a + b;
+                        main :: () number {
+                          value := 0;
+                          for i: 0..2000 -> value = add(value, i);
+                          return value;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("30000"),
+                """
+                        Point :: struct {x: number, y: number}
+                        main :: () number {
+                          total := 0;
+                          i := 0;
+                          even := false;
+                          for {
+                            i = i + 1;
+                            if i > 20000 -> break;
+                            even = !even;
+                            point :: Point {i, 1};
+                            twice :: (value: number) number -> value * 2;
+                            if even {
+                              total = total + twice(point.y);
+                              continue;
+                            }
+                            total = total + point.y;
+                          }
+                          return total;
+                        }
+                        """);
+        // The hot function and the running loop switch to their compiled code, seen from the frames of an external
+        var calls = new AtomicInteger();
+        var firstCompiled = new ConcurrentHashMap<Long, Integer>();
+        ExternalFunction probe = values -> {
+            final int call = calls.incrementAndGet();
+            final boolean compiled = StackWalker.getInstance(StackWalker.Option.SHOW_HIDDEN_FRAMES).walk(frames ->
+                    frames.anyMatch(frame -> frame.getClassName().startsWith("org.click.interpreter.CompiledFunction")));
+            if (compiled) firstCompiled.putIfAbsent(((Value.NumberLiteral) values[0]).longValue(), call);
+            return ONE;
+        };
+        var statements = new Parser(new Scanner("""
+                probe :: (source: number) number;
+                hot :: () number -> probe(1);
+                main :: () number {
+                  value := 0;
+                  for i: 0..2000 -> value = value + hot();
+                  i := 0;
+                  for {
+                    i = i + 1;
+                    if i > 20000 -> break;
+                    value = value + probe(2);
+                  }
+                  return value;
+                }
+                """).scanTokens()).parse();
+        var vm = new VM(null, statements, Map.of("probe", probe), VM.Mode.TIERED);
+        assertEquals(new Value.NumberLiteral("22000"), vm.interpret("main", List.of()));
+        vm.stop();
+        final int function = firstCompiled.getOrDefault(1L, 0);
+        final int loop = firstCompiled.getOrDefault(2L, 0) - 2000;
+        assertTrue(function > 1 && function <= 2000, "function promoted at call " + function);
+        assertTrue(loop > 1 && loop <= 20000, "loop promoted at iteration " + loop);
+    }
+
+    @Test
+    public void registerDisassembly() {
+        var statements = new Parser(new Scanner("""
+                add :: (a: number, b: number) number -> a + b;
+                """).scanTokens()).parse();
+        var vm = new VM(null, statements, Map.of(), VM.Mode.REGISTER);
+        var disassembly = vm.disassemble("add");
+        vm.stop();
+        assertNotNull(disassembly);
+        assertTrue(disassembly.contains("OPERATE r2, r0, r1, PLUS"), disassembly);
+    }
+
     @Test
     public void loop() {
         assertProgram(new Value.NumberLiteral("10"),
@@ -1127,6 +1644,30 @@ public final class IntegrationTest {
                         """);
     }
 
+    @Test
+    public void loopScope() {
+        assertProgram(new Value.NumberLiteral("13"),
+                """
+                        main :: () number {
+                          value := 0;
+                          for i: 0..3 -> value = value + i;
+                          i :: 10;
+                          return value + i;
+                        }
+                        """);
+        assertProgram(new Value.NumberLiteral("6"),
+                """
+                        main :: () number {
+                          value := 0;
+                          for i: 0..3 {
+                            doubled :: i * 2;
+                            value = value + doubled;
+                          }
+                          return value;
+                        }
+                        """);
+    }
+
     @Test
     public void ternary() {
         assertProgram(new Value.NumberLiteral("9"),
@@ -1388,6 +1929,21 @@ public final class IntegrationTest {
                           return $shared;
                         }
                         """);
+        assertProgram(new Value.NumberLiteral("7"),
+                """
+                        main :: () number {
+                          shared :~ 0;
+                          join {
+                            spawn {
+                              data := [4096]i8;
+                              data[1] = I8.7;
+                              copy := data;
+                              spawn shared = copy[1] == I8.7 ? 7 : 1;
+                            }
+                          }
+                          return shared;
+                        }
+                        """);
         assertProgram(ZERO,
                 """
                         main :: () number {
@@ -1401,6 +1957,87 @@ public final class IntegrationTest {
                         """);
     }
 
+    @Test
+    public void regionEscape() {
+        // A lambda made in a region captures an array allocated in it, and is called once the region closed
+        var statements = new Parser(new Scanner("""
+                make :: () () I8 {
+                  data := [4096]i8;
+                  data[1] = I8.7;
+                  return () I8 -> data[1];
+                }
+                call :: (function: () I8) I8 -> function();
+                """).scanTokens()).parse();
+        for (VM.Mode mode : VM.Mode.values()) {
+            var interpreter = new VM(null, statements, Map.of(), mode);
+            final Value[] lambda = new Value[1];
+            Arenas.open().run(() -> lambda[0] = Arenas.promote(interpreter.interpret("make", List.of())));
+            assertEquals(Value.Binary.I8((byte) 7), interpreter.interpret("call", List.of(lambda[0])), mode.name());
+            interpreter.stop();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    public void awaitUnchanged() {
+        // The spawn writes the value already held before the await starts, the update must still be observed
+        assertProgram(ONE,
+                """
+                        main :: () number {
+                          shared :~ 1;
+                          join {
+                            spawn shared = 1;
+                          }
+                          return $shared;
+                        }
+                        """);
+    }
+
+    @Test
+    public void structShape() {
+        // Built from a map, the struct has a sorted shape but equals the one in declaration order
+        assertProgram(new Value.Struct("Point", Map.of("x", ONE, "y", TWO)),
+                """
+                        Point :: struct {y: number, x: number}
+                        main :: () Point -> Point {2, 1};
+                        """);
+        // Fields are serialized in declaration order
+        final Map<String, ExternalFunction> externals = Map.of("serialize",
+                args -> Value.Binary.UTF8(ValueSerializer.serialize(args[0])));
+        assertProgram(Value.Binary.UTF8("Point{y: 2, x: 1}"), externals,
+                """
+                        Point :: struct {y: number, x: number}
+                        serialize :: (point: Point) UTF8;
+                        main :: () UTF8 -> serialize(Point {2, 1});
+                        """);
+        // Missing fields can be assigned, unknown ones are not added
+        assertProgram(new Value.NumberLiteral("3"),
+                """
+                        Point :: struct {x: number, y: number}
+                        main :: () number {
+                          point := Point {.x: 1};
+                          point.y = 3;
+                          return point.y;
+                        }
+                        """);
+        assertRuntimeError("Field not found: z in Point",
+                """
+                        Point :: struct {x: number, y: number}
+                        main :: () number {
+                          point := Point {1, 2};
+                          point.z = 3;
+                          return point.x;
+                        }
+                        """);
+        assertTypeError("""
+                Point :: struct {x: number, y: number}
+                main :: () number {
+                  point :: Point {.x: 1, .z: 2};
+                  return point.x;
+                }
+                """);
+    }
+
     @Test
     public void explicitType() {
         assertProgram(new Value.Struct("Point", Map.of("x", ONE, "y", TWO)),
@@ -1456,6 +2093,195 @@ public final class IntegrationTest {
                         """);
     }
 
+    @Test
+    public void constantFolding() {
+        assertProgram(new Value.NumberLiteral("6"),
+                """
+                        main :: () number {
+                          if false { return 1; }
+                          if 2 * 3 == 6 {
+                            return 6 - 4 / 2 + 2;
+                          } else {
+                            return 0;
+                          }
+                        }
+                        """);
+        assertProgram(Value.Binary.UTF8("Hello, world!"),
+                """
+                        greet :: (text: UTF8) UTF8 -> text + ", world!";
+                        main :: () UTF8 {
+                          for 0..3 -> greet("Hello");
+                          return greet("Hello");
+                        }
+                        """);
+        // The operations and the binary literal become constants, the branches are replaced by the taken arm
+        var program = optimize("""
+                main :: () number {
+                  if false { return 1; }
+                  port :: I32.8080;
+                  if 2 * 3 == 6 {
+                    return 6 - 4 / 2 + 2;
+                  } else {
+                    return 0;
+                  }
+                }
+                """);
+        var nodes = nodes(program);
+        assertTrue(nodes.stream().noneMatch(node -> node instanceof Ast.Expression.Operation ||
+                node instanceof Ast.Expression.Binary || node instanceof Ast.Statement.Branch), nodes.toString());
+        assertTrue(nodes.stream().anyMatch(node -> node instanceof Ast.Statement.Declare declare &&
+                declare.names().equals(List.of("port")) &&
+                declare.initializer() instanceof Ast.Expression.Constant), nodes.toString());
+        var returns = nodes.stream().filter(node -> node instanceof Ast.Statement.Return).toList();
+        assertEquals(List.of(new Ast.Statement.Return(new Ast.Expression.Constant(new Value.NumberLiteral("6")))),
+                returns);
+    }
+
+    @Test
+    public void inlining() {
+        assertProgram(new Value.NumberLiteral("48"),
+                """
+                        square :: (x: number) number -> x * x;
+                        sum_squares :: (a: number, b: number) number -> return square(a) + square(b);
+                        main :: () number {
+                          total := 0;
+                          for i: 0..4 -> total = total + sum_squares(i, i + 1);
+                          return total + square(sum_squares(1, 1));
+                        }
+                        """);
+        assertProgram(TWO,
+                """
+                        Direction :: enum {North,South}
+                        next :: (value: number) number -> value + 1;
+                        main :: () number {
+                          value := next(0);
+                          value = next(value);
+                          return value;
+                        }
+                        """);
+        // No call to the inlined functions remains, sum_squares reads b twice and keeps its call with i + 1
+        var nodes = nodes(optimize("""
+                square :: (x: number) number -> x * x;
+                sum_squares :: (a: number, b: number) number -> return square(a) + square(b);
+                next :: (value: number) number -> value + 1;
+                main :: () number {
+                  total := next(0);
+                  for i: 0..4 -> total = next(total) + sum_squares(i, i + 1);
+                  return total + square(sum_squares(1, 1));
+                }
+                """));
+        assertTrue(nodes.stream().noneMatch(node -> node instanceof Ast.Expression.Call call &&
+                (call.name().equals("square") || call.name().equals("next"))), nodes.toString());
+        assertTrue(nodes.stream().anyMatch(node -> node instanceof Ast.Expression.Call call &&
+                call.name().equals("sum_squares")), nodes.toString());
+    }
+
+    @Test
+    public void scalarReplacement() {
+        assertProgram(new Value.NumberLiteral("11"),
+                """
+                        Point :: struct {x: number, y: number}
+                        main :: () number {
+                          point :: Point {1, 2};
+                          other :: Point {.y: 4, .x: 3};
+                          x, y :: Point {point.x, other.y};
+                          return x + y + point.y + other.x + point.x;
+                        }
+                        """);
+        assertProgram(new Value.Struct("Point", Map.of("x", ONE, "y", TWO)),
+                """
+                        Point :: struct {x: number, y: number}
+                        main :: () Point {
+                          point :: Point {1, 2};
+                          sum :: point.x + point.y;
+                          return point;
+                        }
+                        """);
+        // The fields become variables of the function scope, and no struct is initialized anymore
+        var nodes = nodes(optimize("""
+                Point :: struct {x: number, y: number}
+                main :: () number {
+                  p :: Point {1, 2};
+                  x, y :: Point {p.x, 4};
+                  return x + y + p.y;
+                }
+                """));
+        var main = nodes.stream().filter(node -> node instanceof Value.FunctionDecl).findFirst().orElseThrow();
+        var scope = ((Value.FunctionDecl) main).scope();
+        assertNotNull(scope);
+        assertTrue(scope.slot("p.x") >= 0 && scope.slot("p.y") >= 0, scope.toString());
+        assertTrue(nodes.stream().noneMatch(node -> node instanceof Ast.Expression.Initialization), nodes.toString());
+    }
+
+    @Test
+    public void staticTypeErrors() {
+        // Reported when the program is loaded, even if the faulty code never runs
+        assertTypeError("""
+                unused :: () number {
+                  if 1 { return 1; }
+                  return 2;
+                }
+                main :: () number { return 0; }
+                """);
+        assertTypeError("""
+                add :: (a: number, b: number) number { return a + b; }
+                main :: () number { return add(1); }
+                """);
+        assertTypeError("""
+                Point :: struct {x: number, y: number};
+                main :: () number {
+                  point :: Point {.x: 1, .z: 2};
+                  return point.x;
+                }
+                """);
+        assertTypeError("""
+                Point :: struct {x: number, y: number};
+                main :: () number {
+                  point :: Point {1, 2};
+                  return point.z;
+                }
+                """);
+        assertTypeError("""
+                Point :: struct {x: number, y: number};
+                Other :: struct {x: number};
+                Component :: union { Point, }
+                main :: () Component { return Other {1}; }
+                """);
+    }
+
+    private static Ast.Statement.Block optimize(String input) {
+        var statements = new Parser(new Scanner(input).scanTokens()).parse();
+        return new Optimizer().optimize(new Resolver(null).resolve(statements));
+    }
+
+    /**
+     * Returns the node and every record reachable from it, function bodies included.
+     */
+    private static List<Object> nodes(Object node) {
+        var nodes = new ArrayList<>();
+        collect(node, nodes);
+        return nodes;
+    }
+
+    private static void collect(@Nullable Object node, List<Object> nodes) {
+        switch (node) {
+            case Record record -> {
+                nodes.add(record);
+                for (RecordComponent component : record.getClass().getRecordComponents()) {
+                    try {
+                        collect(component.getAccessor().invoke(record), nodes);
+                    } catch (ReflectiveOperationException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+            case Collection<?> collection -> collection.forEach(element -> collect(element, nodes));
+            case Map<?, ?> map -> map.values().forEach(value -> collect(value, nodes));
+            case null, default -> {
+            }
+        }
+    }
+
     private static void assertProgram(Value expected, String input) {
         assertProgram(expected, Map.of(), input);
     }
@@ -1463,14 +2289,42 @@ public final class IntegrationTest {
     private static void assertProgram(Value expected, Map<String, ExternalFunction> externals, String input) {
         var tokens = new Scanner(input).scanTokens();
         var statements = new Parser(tokens).parse();
-        var interpreter = new VM(null, statements, externals);
-        var actual = interpreter.interpret("main", List.of());
-        interpreter.stop();
-        if (actual instanceof Value.NumberLiteral numberLiteral1 && expected instanceof Value.NumberLiteral numberLiteral2) {
-            // TODO: check number type
-            assertEquals(numberLiteral1.value(), numberLiteral2.value());
-        } else {
-            assertEquals(expected, actual);
+        for (VM.Mode mode : VM.Mode.values()) {
+            var interpreter = new VM(null, statements, externals, mode);
+            var actual = interpreter.interpret("main", List.of());
+            interpreter.stop();
+            if (actual instanceof Value.NumberLiteral numberLiteral1 && expected instanceof Value.NumberLiteral numberLiteral2) {
+                // TODO: check number type
+                assertEquals(numberLiteral1.value(), numberLiteral2.value(), mode.name());
+            } else {
+                assertEquals(expected, actual, mode.name());
+            }
+        }
+    }
+
+    private static void assertRuntimeError(String message, String input) {
+        assertRuntimeError(message, Map.of(), input);
+    }
+
+    private static void assertRuntimeError(String message, Map<String, ExternalFunction> externals, String input) {
+        var tokens = new Scanner(input).scanTokens();
+        var statements = new Parser(tokens).parse();
+        for (VM.Mode mode : VM.Mode.values()) {
+            var interpreter = new VM(null, statements, externals, mode);
+            var exception = assertThrows(RuntimeException.class,
+                    () -> interpreter.interpret("main", List.of()), mode.name());
+            interpreter.stop();
+            assertTrue(exception.getMessage().startsWith(message), exception.getMessage());
+        }
+    }
+
+    private static void assertTypeError(String input) {
+        var tokens = new Scanner(input).scanTokens();
+        var statements = new Parser(tokens).parse();
+        for (VM.Mode mode : VM.Mode.values()) {
+            var exception = assertThrows(RuntimeException.class,
+                    () -> new VM(null, statements, Map.of(), mode), mode.name());
+            assertTrue(exception.getMessage().startsWith("Type error: "), exception.getMessage());
         }
     }
 }
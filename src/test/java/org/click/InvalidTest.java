@@ -109,11 +109,13 @@ public class InvalidTest {
     private static void assertInvalidProgram(String input) {
         var tokens = new Scanner(input).scanTokens();
         var statements = new Parser(tokens).parse();
-        try {
-            var interpreter = new VM(null, statements, Map.of());
-            interpreter.interpret("main", List.of());
-            fail("Expected compilation to fail.");
-        } catch (RuntimeException ignored) {
+        for (VM.Mode mode : VM.Mode.values()) {
+            try {
+                var interpreter = new VM(null, statements, Map.of(), mode);
+                interpreter.interpret("main", List.of());
+                fail("Expected compilation to fail: " + mode);
+            } catch (RuntimeException ignored) {
+            }
         }
     }
 